@@ -1,27 +1,86 @@
 package com.mmoscovich.git.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
 
+import com.mmoscovich.git.client.cmd.CatFilePool;
 import com.mmoscovich.git.client.cmd.CommandLineExecutor;
+import com.mmoscovich.git.client.cmd.CommandOutputIterator;
 import com.mmoscovich.git.client.cmd.CommandLineExecutor.CommandResult;
+import com.mmoscovich.git.client.cmd.NulSeparatedInputStream;
+import com.mmoscovich.git.client.cmd.ProgressConsumer;
+import com.mmoscovich.git.client.graph.AheadBehindCounter;
+import com.mmoscovich.git.client.model.AheadBehind;
+import com.mmoscovich.git.client.model.ChangedPath;
+import com.mmoscovich.git.client.model.CloneOptions;
+import com.mmoscovich.git.client.model.CommitOptions;
+import com.mmoscovich.git.client.model.CommitQuery;
+import com.mmoscovich.git.client.model.DescribeResult;
+import com.mmoscovich.git.client.model.DiffOptions;
+import com.mmoscovich.git.client.model.DiffStats;
+import com.mmoscovich.git.client.model.FetchOptions;
+import com.mmoscovich.git.client.model.FetchStats;
 import com.mmoscovich.git.client.model.GitCommit;
 import com.mmoscovich.git.client.model.GitUser;
+import com.mmoscovich.git.client.model.GrepMatch;
+import com.mmoscovich.git.client.model.GrepOptions;
+import com.mmoscovich.git.client.model.HistoryOptions;
+import com.mmoscovich.git.client.model.InMemoryMergeResult;
+import com.mmoscovich.git.client.model.MergeOptions;
+import com.mmoscovich.git.client.model.PathFilter;
+import com.mmoscovich.git.client.model.PushOptions;
+import com.mmoscovich.git.client.model.PushRefResult;
+import com.mmoscovich.git.client.model.TagSpec;
+import com.mmoscovich.git.client.model.TreeEntry;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class CommandLineGitClient implements GitClient {
+	/** Id of the empty tree, that git knows even if it is not stored */
+	private static final String EMPTY_TREE = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
+	/** Ref named in the error of a failed <code>update-ref</code> (eg. <code>cannot lock ref 'refs/heads/x': ...</code>) */
+	/** Files in the git directory that mean an operation (merge, cherry-pick, revert, rebase, am or bisect) is in progress */
+	private static final List<String> IN_PROGRESS_FILES = Arrays.asList("MERGE_HEAD", "CHERRY_PICK_HEAD", "REVERT_HEAD", "rebase-merge", "rebase-apply", "BISECT_LOG");
+	private static final Pattern FAILED_REF = Pattern.compile("'(refs/heads/[^']+)'");
 
 	/** Command line for Git executable. */
     private CommandLineExecutor cmdExecutor;
+    private FetchCoalescer fetchCoalescer;
+    private final RemoteRefCache remoteRefCache = new RemoteRefCache();
+    private CatFilePool catFilePool;
 //    private String gitExecutable;
     
     public CommandLineGitClient(String gitExecutable) {
@@ -30,6 +89,7 @@ public class CommandLineGitClient implements GitClient {
 //        }
 //    	this.gitExecutable = gitExecutable;
     	this.cmdExecutor = new CommandLineExecutor(gitExecutable);
+    	this.catFilePool = new CatFilePool(cmdExecutor, Runtime.getRuntime().availableProcessors());
     }
     
     /**
@@ -76,6 +136,156 @@ public class CommandLineGitClient implements GitClient {
 	    }
     }
     
+    /**
+     * Executes Git command sending the provided stream to its standard input.
+     * 
+     * @param input
+     *            Stream to send to the process.
+     * @param args
+     *            Git command line arguments.
+     * @return Command output.
+     */
+    private String executeGitCommandWithInput(final InputStream input, final String... args) throws GitClientException {
+    	try {
+    		return cmdExecutor.executeCommand(true, input, args).getOut();
+    	}catch(CommandLineException e) {
+    		throw new GitClientException("Error while executing command", e);
+    	}
+    }
+    
+    /**
+     * Executes Git command notifying the progress it reports.
+     * 
+     * @param input
+     *            Stream to send to the process (may be <code>null</code>).
+     * @param progress
+     *            Consumer of the progress.
+     * @param args
+     *            Git command line arguments.
+     * @return Command result.
+     */
+    private CommandResult executeGitCommandWithProgress(final InputStream input, final ProgressConsumer progress, final String... args) throws GitClientException {
+    	try {
+    		return cmdExecutor.executeCommand(true, input, progress, args);
+    	}catch(CommandLineException e) {
+    		throw new GitClientException("Error while executing command", e);
+    	}
+    }
+    
+    /**
+     * Executes Git command with additional environment variables, sending the provided stream to its standard input.
+     * 
+     * @param environment
+     *            Variables added to the ones of the current process.
+     * @param input
+     *            Stream to send to the process (may be <code>null</code>).
+     * @param args
+     *            Git command line arguments.
+     * @return Command output.
+     */
+    private String executeGitCommandWithEnvironment(final Map<String, String> environment, final InputStream input, final String... args) throws GitClientException {
+    	try {
+    		return cmdExecutor.executeCommand(true, input, null, environment, args).getOut();
+    	}catch(CommandLineException e) {
+    		throw new GitClientException("Error while executing command", e);
+    	}
+    }
+    
+    /**
+     * Executes Git command sending the provided stream to its standard input, without failing on non successful exit code.
+     * 
+     * @param input
+     *            Stream to send to the process.
+     * @param args
+     *            Git command line arguments.
+     * @return Command result.
+     */
+    private CommandResult executeGitCommandExitCodeWithInput(final InputStream input, final String... args) throws GitClientException {
+    	try {
+    		return cmdExecutor.executeCommand(false, input, args);
+    	}catch(CommandLineException e) {
+    		throw new GitClientException("Error while executing command", e);
+    	}
+    }
+    
+    /**
+     * Builds the stream to send a list of lines to a Git command through stdin.
+     * 
+     * @param lines lines to send
+     * @return the stream
+     */
+    private static InputStream linesInput(List<String> lines) {
+    	StringBuilder sb = new StringBuilder();
+    	for(String line : lines) {
+    		sb.append(line).append('\n');
+    	}
+    	return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Executes Git command and streams its output record by record, as it is produced.
+     * <br>The stream should be closed if it is not fully consumed, so the command is stopped.
+     * 
+     * @param separator
+     *            byte that ends each record (eg. <code>0</code> for NUL or <code>'\n'</code>)
+     * @param args
+     *            Git command line arguments.
+     * @return the records of the output
+     */
+    private Stream<String> streamGitCommand(final int separator, final String... args) throws GitClientException {
+    	try {
+    		CommandOutputIterator records = new CommandOutputIterator(cmdExecutor.startCommand(args), separator);
+    		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(records, Spliterator.ORDERED | Spliterator.NONNULL), false)
+    				.onClose(records::close);
+    	}catch(CommandLineException e) {
+    		throw new GitClientException("Error while executing command", e);
+    	}
+    }
+    
+    /**
+     * Resolves many revision expressions with a single <code>cat-file --batch-check</code> call.
+     * 
+     * @param revisions revisions to resolve
+     * @return for each revision (same order), a 2 element array with its object id and type
+     * @throws GitClientException if any of the revisions does not exist
+     */
+    private List<String[]> resolveRevisions(List<String> revisions) throws GitClientException {
+    	String out = executeGitCommandWithInput(linesInput(revisions), "cat-file", "--batch-check");
+    	String[] lines = out.split("\\r?\\n");
+    	
+    	List<String[]> result = new ArrayList<String[]>();
+    	for(int i = 0; i < revisions.size(); i++) {
+    		String[] parts = (i < lines.length ? lines[i] : "").split(" ");
+    		if(parts.length < 2 || parts[1].equals("missing") || parts[1].equals("ambiguous")) {
+    			throw new GitClientException("Revision '" + revisions.get(i) + "' not found");
+    		}
+    		result.add(new String[] { parts[0], parts[1] });
+    	}
+    	return result;
+    }
+    
+    /**
+     * Applies all the ref updates in a single <code>update-ref --stdin</code> transaction (all or nothing).
+     * 
+     * @param instructions update-ref instructions (eg. <code>create refs/tags/v1 &lt;id&gt;</code>)
+     */
+    private void updateRefsAtomically(List<String> instructions) throws GitClientException {
+    	executeGitCommandWithInput(linesInput(instructions), "update-ref", "--stdin");
+    }
+    
+    /**
+     * Formats a user and the current time as expected in the tagger line of a tag object
+     * @param user the user
+     * @return the formatted ident
+     */
+    private static String formatIdent(GitUser user) {
+    	long now = System.currentTimeMillis();
+    	int offset = TimeZone.getDefault().getOffset(now) / 60000;
+    	char sign = offset < 0 ? '-' : '+';
+    	offset = Math.abs(offset);
+    	return String.format("%s <%s> %d %c%02d%02d", StringUtils.trim(user.getName()), StringUtils.trim(user.getEmail()), now / 1000, sign, offset / 60, offset % 60);
+    }
+    
 	@Override
 	public void setConfig(String name, String value) throws GitClientException {
 		if (value == null || value.isEmpty()) {
@@ -171,6 +381,43 @@ public class CommandLineGitClient implements GitClient {
         return tags;
 	}
 
+	@Override
+	public String findLatestTag(String tagPrefix, Comparator<String> comparator) throws GitClientException {
+		List<String> tags = this.findLatestTags(tagPrefix, comparator, 1);
+		return (tags.isEmpty() ? null : tags.get(0));
+	}
+	
+	@Override
+	public List<String> findLatestTags(String tagPrefix, Comparator<String> comparator, int limit) throws GitClientException {
+		List<String> names = new ArrayList<String>();
+		for(String refName : executeGitCommandReturn("for-each-ref", "--format=%(refname)", "refs/tags/").split("\\r?\\n")) {
+			if(refName.startsWith("refs/tags/")) names.add(refName.substring("refs/tags/".length()));
+		}
+		return LatestTags.select(names, tagPrefix, comparator, limit);
+	}
+	
+	@Override
+	public DescribeResult describe(String revision, String tagPrefix) throws GitClientException {
+		List<String> args = new ArrayList<String>(Arrays.asList("describe", "--tags", "--long", "--abbrev=40"));
+		if(tagPrefix != null) args.add("--match=" + tagPrefix + "*");
+		args.add(revision != null ? revision : "HEAD");
+		
+		CommandResult result = executeGitCommandExitCode(args.toArray(new String[] {}));
+		if(result.getExitCode() != CommandLineExecutor.SUCCESS_EXIT_CODE) {
+			String error = result.getError();
+			if(error.contains("No names found") || error.contains("No tags can describe") || error.contains("cannot describe")) return null;
+			throw new GitClientException("Error while describing " + revision + ": " + error);
+		}
+		
+		// Format: <tag>-<distance>-g<hash> (the tag may contain dashes)
+		String description = result.getOut().trim();
+		int hashStart = description.lastIndexOf("-g");
+		int distanceStart = description.lastIndexOf('-', hashStart - 1);
+		return new DescribeResult(description.substring(0, distanceStart), 
+				Integer.parseInt(description.substring(distanceStart + 1, hashStart)), 
+				description.substring(hashStart + 2));
+	}
+	
 	@Override
 	public String findTag(String tagName) throws GitClientException {
 		return executeGitCommandReturn("for-each-ref", "refs/tags/" + tagName);
@@ -180,6 +427,39 @@ public class CommandLineGitClient implements GitClient {
 	public Boolean remoteBranchExists(String branchName) throws GitClientException {
 		return StringUtils.isNotBlank(executeGitCommandReturn("for-each-ref", "refs/remotes/*/" + branchName));
 	}
+	
+	@Override
+	public Map<String, String> listRemoteRefs(String remoteName, String prefix) throws GitClientException {
+		if(remoteName == null) remoteName = "origin";
+		return RemoteRefCache.filter(this.getRemoteRefs(remoteName, remoteRefCache.getTtlMillis()), prefix);
+	}
+	
+	@Override
+	public boolean remoteBranchExists(String remoteName, String branchName, long maxAgeMillis) throws GitClientException {
+		if(remoteName == null) remoteName = "origin";
+		return this.getRemoteRefs(remoteName, maxAgeMillis).containsKey("refs/heads/" + branchName);
+	}
+	
+	@Override
+	public void setRemoteRefsTtl(long ttlMillis) {
+		remoteRefCache.setTtlMillis(ttlMillis);
+	}
+	
+	/**
+	 * Returns the refs advertised by the remote (using the cache if they are recent enough)
+	 */
+	private Map<String, String> getRemoteRefs(final String remoteName, long maxAgeMillis) throws GitClientException {
+		return remoteRefCache.get(remoteName, maxAgeMillis, () -> {
+			// Format: <id> TAB <ref>. Peeled tags (^{}) are skipped
+			Map<String, String> refs = new HashMap<String, String>();
+			for(String line : executeGitCommandReturn("ls-remote", remoteName).split("\\r?\\n")) {
+				int tab = line.indexOf('\t');
+				if(tab < 0 || line.endsWith("^{}")) continue;
+				refs.put(line.substring(tab + 1), line.substring(0, tab));
+			}
+			return refs;
+		});
+	}
 
 	@Override
 	public void checkout(String branchName) throws GitClientException {
@@ -204,6 +484,262 @@ public class CommandLineGitClient implements GitClient {
 	public void commit(String message) throws GitClientException {
 		executeGitCommand("commit", "-a", "-m", message);
 	}
+	
+	@Override
+	public String commit(String message, CommitOptions options) throws GitClientException {
+		boolean onlyPaths = (options.getMode() == CommitOptions.Mode.ONLY_PATHS);
+		if(onlyPaths && options.getPaths().isEmpty()) throw new GitClientException("No paths to commit");
+		// The extra parent of a merge (or the state of a cherry-pick, rebase...) would be silently lost
+		File gitDir = this.getGitDirectory();
+		for(String stateFile : IN_PROGRESS_FILES) {
+			if(new File(gitDir, stateFile).exists()) {
+				throw new GitClientException("Cannot commit with an operation in progress (" + stateFile + " exists), use commit(message) to conclude it");
+			}
+		}
+		
+		// Unborn branch if HEAD cannot be resolved
+		CommandResult current = executeGitCommandExitCode("rev-parse", "--quiet", "HEAD^{commit}", "HEAD^{tree}");
+		String[] ids = (current.getExitCode() == CommandLineExecutor.SUCCESS_EXIT_CODE ? current.getOut().trim().split("\\r?\\n") : null);
+		String head = (ids != null ? ids[0] : null);
+		String headTree = (ids != null ? ids[1] : EMPTY_TREE);
+		Map<String, String> env = userEnvironment(options.getAuthor(), options.getCommitter());
+		
+		// Porcelain commit refreshes the whole index (checking every file of the working tree), so plumbing is used instead
+		File tmpDir = null;
+		try {
+			String tree;
+			if(onlyPaths) {
+				// A path that matches nothing in the index nor the working tree (eg. a staged deletion) cannot be given to "git add"
+				List<String> filesArgs = new ArrayList<String>(Arrays.asList("ls-files", "-z", "--full-name", "--cached", "--others", "--exclude-standard"));
+				addPathspecs(filesArgs, new PathFilter(options.getPaths()));
+				Set<String> requested = new HashSet<String>();
+				for(String path : options.getPaths()) requested.add(path.replaceAll("^/+|/+$", ""));
+				Set<String> matched = new HashSet<String>();
+				for(String path : executeGitCommandReturn(filesArgs.toArray(new String[filesArgs.size()])).split("\0")) {
+					if(requested.contains(path)) matched.add(path);
+					for(int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+						if(requested.contains(path.substring(0, i))) matched.add(path.substring(0, i));
+					}
+				}
+				
+				// Only the paths are walked to stage them (including new and deleted files)
+				if(!matched.isEmpty()) {
+					List<String> addArgs = new ArrayList<String>(Arrays.asList("add", "--all"));
+					addPathspecs(addArgs, new PathFilter(new ArrayList<String>(matched)));
+					executeGitCommand(addArgs.toArray(new String[addArgs.size()]));
+				}
+				
+				PathFilter otherPaths = new PathFilter();
+				otherPaths.getExcludes().addAll(options.getPaths());
+				List<String> diffArgs = new ArrayList<String>(Arrays.asList("diff-index", "--cached", "--name-only", "-z", "--no-renames", (head != null ? head : EMPTY_TREE)));
+				addPathspecs(diffArgs, otherPaths);
+				List<String> others = new ArrayList<String>();
+				for(String path : executeGitCommandReturn(diffArgs.toArray(new String[diffArgs.size()])).split("\0")) {
+					if(!path.trim().isEmpty()) others.add(path);
+				}
+				
+				if(others.isEmpty()) {
+					tree = executeGitCommandReturn("write-tree").trim();
+				} else {
+					// Changes staged on other paths are left out using a copy of the index, with their version of the last commit
+					tmpDir = Files.createTempDirectory("git-commit").toFile();
+					File index = new File(tmpDir, "index");
+					Files.copy(new File(gitDir, "index").toPath(), index.toPath());
+					Map<String, String> indexEnv = new HashMap<String, String>();
+					indexEnv.put("GIT_INDEX_FILE", index.getAbsolutePath());
+					
+					List<String> indexInfo = new ArrayList<String>();
+					Set<String> notInHead = new LinkedHashSet<String>(others);
+					if(head != null) {
+						List<String> lsArgs = new ArrayList<String>(Arrays.asList("ls-tree", "-r", "-z", "--full-tree", head, "--"));
+						lsArgs.addAll(others);
+						for(String entry : executeGitCommandReturn(lsArgs.toArray(new String[lsArgs.size()])).split("\0")) {
+							int tab = entry.indexOf('\t');
+							if(tab < 0) continue;
+							String[] parts = entry.substring(0, tab).trim().split(" ");
+							String path = entry.substring(tab + 1);
+							indexInfo.add(parts[0] + " " + parts[2] + "\t" + path);
+							notInHead.remove(path);
+						}
+					}
+					for(String path : notInHead) {
+						// Mode 0 removes the entry
+						indexInfo.add("0 0000000000000000000000000000000000000000\t" + path);
+					}
+					executeGitCommandWithEnvironment(indexEnv, linesInput(indexInfo), "update-index", "--index-info");
+					tree = executeGitCommandWithEnvironment(indexEnv, null, "write-tree").trim();
+				}
+			} else {
+				tree = executeGitCommandReturn("write-tree").trim();
+			}
+			if(tree.equals(headTree)) throw new GitClientException("Nothing to commit");
+			
+			List<String> commitArgs = new ArrayList<String>(Arrays.asList("commit-tree", tree));
+			if(head != null) commitArgs.addAll(Arrays.asList("-p", head));
+			commitArgs.addAll(Arrays.asList("-F", "-"));
+			String commit = executeGitCommandWithEnvironment(env, new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)), commitArgs.toArray(new String[commitArgs.size()])).trim();
+			
+			this.updateRef(env, "HEAD", head, commit, (head != null ? "commit: " : "commit (initial): ") + message.split("\\r?\\n", 2)[0]);
+			return commit;
+		} catch(IOException e) {
+			throw new GitClientException("Error while commiting", e);
+		} finally {
+			if(tmpDir != null) {
+				try {
+					FileUtils.deleteDirectory(tmpDir);
+				} catch (IOException e) {
+					log.warn("Could not delete temporary directory " + tmpDir, e);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public String commitFiles(String branch, Map<String, byte[]> changes, Set<String> deletions, String message, GitUser author) throws GitClientException {
+		String refName = "refs/heads/" + branch;
+		CommandResult current = executeGitCommandExitCode("rev-parse", "--quiet", refName + "^{commit}", refName + "^{tree}");
+		if(current.getExitCode() != CommandLineExecutor.SUCCESS_EXIT_CODE) throw new GitClientException("Branch '" + branch + "' not found");
+		String[] ids = current.getOut().trim().split("\\r?\\n");
+		String parent = ids[0];
+		
+		Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+		for(Map.Entry<String, byte[]> change : changes.entrySet()) {
+			files.put(change.getKey().replaceAll("^/+|/+$", ""), change.getValue());
+		}
+		Set<String> deleted = new HashSet<String>();
+		if(deletions != null) {
+			for(String path : deletions) deleted.add(path.replaceAll("^/+|/+$", ""));
+		}
+		
+		// Directories that will contain the files
+		Set<String> dirs = new HashSet<String>();
+		for(String path : files.keySet()) {
+			for(int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) dirs.add(path.substring(0, i));
+		}
+		
+		// The index is a temporary file, the one of the repository is not touched
+		File tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("git-commit").toFile();
+			Map<String, String> env = userEnvironment(author, author);
+			env.put("GIT_INDEX_FILE", new File(tmpDir, "index").getAbsolutePath());
+			
+			// Existing entries of the affected paths: modes of the replaced files, contents of the deleted directories and conflicts
+			List<String> indexInfo = new ArrayList<String>();
+			Map<String, String> previousModes = new HashMap<String, String>();
+			Set<String> affected = new LinkedHashSet<String>(files.keySet());
+			affected.addAll(deleted);
+			affected.addAll(dirs);
+			if(!affected.isEmpty()) {
+				List<String> args = new ArrayList<String>(Arrays.asList("ls-tree", "-r", "-z", "--full-tree", parent, "--"));
+				args.addAll(affected);
+				for(String entry : executeGitCommandReturn(args.toArray(new String[args.size()])).split("\0")) {
+					int tab = entry.indexOf('\t');
+					if(tab < 0) continue;
+					String path = entry.substring(tab + 1);
+					if(isUnder(path, deleted, true)) {
+						// Mode 0 removes the entry
+						indexInfo.add("0 0000000000000000000000000000000000000000\t" + path);
+					} else if(files.containsKey(path)) {
+						previousModes.put(path, entry.substring(0, entry.indexOf(' ')));
+					} else if(isUnder(path, files.keySet(), false)) {
+						throw new GitClientException("Cannot replace directory with file: " + path);
+					} else if(dirs.contains(path)) {
+						throw new GitClientException("Cannot replace file with directory: " + path);
+					}
+				}
+			}
+			
+			// The new contents are hashed together by a single hash-object process
+			List<String> blobFiles = new ArrayList<String>();
+			for(byte[] content : files.values()) {
+				File blobFile = new File(tmpDir, "blob" + blobFiles.size());
+				Files.write(blobFile.toPath(), content);
+				blobFiles.add(blobFile.getAbsolutePath());
+			}
+			if(!blobFiles.isEmpty()) {
+				String[] blobIds = executeGitCommandWithInput(linesInput(blobFiles), "hash-object", "-w", "--no-filters", "--stdin-paths").split("\\r?\\n");
+				if(blobIds.length != blobFiles.size()) throw new GitClientException("Error while creating blob objects");
+				int i = 0;
+				for(String path : files.keySet()) {
+					String mode = ("100755".equals(previousModes.get(path)) ? "100755" : "100644");
+					indexInfo.add(mode + " " + blobIds[i++].trim() + "\t" + path);
+				}
+			}
+			
+			executeGitCommandWithEnvironment(env, null, "read-tree", parent);
+			if(!indexInfo.isEmpty()) executeGitCommandWithEnvironment(env, linesInput(indexInfo), "update-index", "--index-info");
+			String tree = executeGitCommandWithEnvironment(env, null, "write-tree").trim();
+			if(tree.equals(ids[1])) return parent;
+			
+			String commit = executeGitCommandWithEnvironment(env, new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)), "commit-tree", tree, "-p", parent, "-F", "-").trim();
+			
+			this.updateRef(env, "refs/heads/" + branch, parent, commit, "commit: " + message.split("\\r?\\n", 2)[0]);
+			return commit;
+		} catch(IOException e) {
+			throw new GitClientException("Error while commiting files", e);
+		} finally {
+			if(tmpDir != null) {
+				try {
+					FileUtils.deleteDirectory(tmpDir);
+				} catch (IOException e) {
+					log.warn("Could not delete temporary directory " + tmpDir, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Moves a ref forward, only if nobody moved it meanwhile (compare-and-swap)
+	 * @param env environment with the user of the reflog entry
+	 * @param refName full name of the ref (eg. <code>refs/heads/master</code>), or <code>HEAD</code> to update the current branch
+	 * @param expected commit the ref must point to. If <code>null</code>, the ref must not exist (eg. an unborn branch)
+	 * @param newId new commit of the ref
+	 * @param reflogMessage message of the reflog entry
+	 * @throws GitClientException if the ref was moved concurrently or it could not be updated
+	 */
+	private void updateRef(Map<String, String> env, String refName, String expected, String newId, String reflogMessage) throws GitClientException {
+		String branch = refName.replaceFirst("^refs/heads/", "");
+		try {
+			cmdExecutor.executeCommand(true, null, null, env, "update-ref", "-m", reflogMessage, refName, newId, (expected != null ? expected : ""));
+		} catch(CommandLineException e) {
+			if(e.getMessage().contains("but expected") || e.getMessage().contains("already exists")) throw new GitClientException("Branch '" + branch + "' was updated concurrently", e);
+			throw new GitClientException("Error while updating branch '" + branch + "'", e);
+		}
+	}
+	
+	/**
+	 * Environment variables to use the provided author and committer
+	 * @param author the author. If <code>null</code>, its variables are not set (so the configured user is used)
+	 * @param committer the committer. If <code>null</code>, its variables are not set
+	 * @return a modifiable map with the variables
+	 */
+	private static Map<String, String> userEnvironment(GitUser author, GitUser committer) {
+		Map<String, String> env = new HashMap<String, String>();
+		if(author != null) {
+			env.put("GIT_AUTHOR_NAME", author.getName());
+			env.put("GIT_AUTHOR_EMAIL", author.getEmail());
+		}
+		if(committer != null) {
+			env.put("GIT_COMMITTER_NAME", committer.getName());
+			env.put("GIT_COMMITTER_EMAIL", committer.getEmail());
+		}
+		return env;
+	}
+	
+	/**
+	 * Checks if a path is under any of the directories
+	 * @param path the path
+	 * @param dirs the directories
+	 * @param orSame whether a path equal to one of them matches
+	 */
+	private static boolean isUnder(String path, Set<String> dirs, boolean orSame) {
+		if(orSame && dirs.contains(path)) return true;
+		for(int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+			if(dirs.contains(path.substring(0, i))) return true;
+		}
+		return false;
+	}
 
 	@Override
 	public void merge(String branchToMerge, boolean rebase, boolean noff, boolean squash) throws GitClientException {
@@ -233,18 +769,234 @@ public class CommandLineGitClient implements GitClient {
 	public void mergeNoff(String branchName) throws GitClientException {
 		merge(branchName, false, true, false);
 	}
+	
+	@Override
+	public boolean canMergeCleanly(String target, String source) throws GitClientException {
+		// Exit code 1 means there are conflicts
+		CommandResult result = executeGitCommandExitCode("merge-tree", "--write-tree", "--name-only", "--no-messages", target, source);
+		if(result.getExitCode() > 1) throw new GitClientException("Error while merging " + source + " into " + target + ": " + result.getError());
+		return result.getExitCode() == CommandLineExecutor.SUCCESS_EXIT_CODE;
+	}
+	
+	@Override
+	public InMemoryMergeResult mergeInMemory(String target, String source, MergeOptions options) throws GitClientException {
+		if(options == null) options = new MergeOptions();
+		CommandResult current = executeGitCommandExitCode("rev-parse", "--quiet", "refs/heads/" + target + "^{commit}", source + "^{commit}");
+		if(current.getExitCode() != CommandLineExecutor.SUCCESS_EXIT_CODE) throw new GitClientException("Branch '" + target + "' or revision '" + source + "' not found");
+		String[] ids = current.getOut().trim().split("\\r?\\n");
+		String head = ids[0];
+		String merged = ids[1];
+		Map<String, String> env = userEnvironment(options.getAuthor(), options.getAuthor());
+		
+		if(this.isAncestor(merged, head)) {
+			return new InMemoryMergeResult(InMemoryMergeResult.Status.UP_TO_DATE, head, Collections.<String>emptyList());
+		}
+		if(!options.isNoFastForward() && this.isAncestor(head, merged)) {
+			this.updateRef(env, "refs/heads/" + target, head, merged, "merge " + source + ": Fast-forward");
+			return new InMemoryMergeResult(InMemoryMergeResult.Status.FAST_FORWARD, merged, Collections.<String>emptyList());
+		}
+		
+		// The merged tree is written to the object database, the working tree and the index are not used
+		CommandResult result = executeGitCommandExitCode("merge-tree", "--write-tree", "--name-only", "-z", "--no-messages", head, merged);
+		if(result.getExitCode() > 1) throw new GitClientException("Error while merging " + source + " into " + target + ": " + result.getError());
+		String[] parts = result.getOut().split("\0");
+		if(result.getExitCode() == 1) {
+			Set<String> conflicts = new LinkedHashSet<String>();
+			for(int i = 1; i < parts.length; i++) {
+				if(!parts[i].trim().isEmpty()) conflicts.add(parts[i]);
+			}
+			return new InMemoryMergeResult(InMemoryMergeResult.Status.CONFLICTING, head, new ArrayList<String>(conflicts));
+		}
+		
+		String message = options.getMessage();
+		if(message == null) {
+			boolean branch = executeGitCommandExitCode("show-ref", "--verify", "--quiet", "refs/heads/" + source).getExitCode() == CommandLineExecutor.SUCCESS_EXIT_CODE;
+			message = "Merge " + (branch ? "branch" : "commit") + " '" + source + "' into " + target;
+		}
+		String commit = executeGitCommandWithEnvironment(env, new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)), "commit-tree", parts[0].trim(), "-p", head, "-p", merged, "-F", "-").trim();
+		
+		this.updateRef(env, "refs/heads/" + target, head, commit, "merge " + source + ": Merge made by the 'ort' strategy.");
+		return new InMemoryMergeResult(InMemoryMergeResult.Status.MERGED, commit, Collections.<String>emptyList());
+	}
 
 	@Override
 	public void tag(String tagName, String message) throws GitClientException {
 		executeGitCommand("tag", "-a", tagName, "-m", message);
 	}
 
+	@Override
+	public void createTags(Map<String, TagSpec> tags) throws GitClientException {
+		if(tags.isEmpty()) return;
+		
+		List<String> names = new ArrayList<String>(tags.keySet());
+		List<String> targets = new ArrayList<String>();
+		for(String name : names) {
+			String target = tags.get(name).getTarget();
+			targets.add(target != null ? target : "HEAD");
+		}
+		List<String[]> resolved = resolveRevisions(targets);
+		
+		// Annotated tags are written as files and hashed together by a single hash-object process
+		File tmpDir = null;
+		try {
+			List<String> tagFiles = new ArrayList<String>();
+			List<Integer> annotated = new ArrayList<Integer>();
+			GitUser defaultTagger = null;
+			
+			for(int i = 0; i < names.size(); i++) {
+				TagSpec spec = tags.get(names.get(i));
+				if(spec.isLightweight()) continue;
+				
+				GitUser tagger = spec.getTagger();
+				if(tagger == null) {
+					if(defaultTagger == null) defaultTagger = this.getConfiguredUser();
+					if(defaultTagger == null) throw new GitClientException("No user configured to create annotated tags");
+					tagger = defaultTagger;
+				}
+				if(tmpDir == null) tmpDir = Files.createTempDirectory("git-tags").toFile();
+				
+				String content = "object " + resolved.get(i)[0] + "\n"
+						+ "type " + resolved.get(i)[1] + "\n"
+						+ "tag " + names.get(i) + "\n"
+						+ "tagger " + formatIdent(tagger) + "\n\n"
+						+ (spec.getMessage() != null ? spec.getMessage() + "\n" : "");
+				File tagFile = new File(tmpDir, "tag" + i);
+				Files.write(tagFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+				tagFiles.add(tagFile.getAbsolutePath());
+				annotated.add(i);
+			}
+			
+			List<String> refTargets = new ArrayList<String>();
+			for(String[] target : resolved) {
+				refTargets.add(target[0]);
+			}
+			if(!tagFiles.isEmpty()) {
+				String[] tagIds = executeGitCommandWithInput(linesInput(tagFiles), "hash-object", "-t", "tag", "-w", "--stdin-paths").split("\\r?\\n");
+				if(tagIds.length != tagFiles.size()) throw new GitClientException("Error while creating tag objects");
+				for(int i = 0; i < tagIds.length; i++) {
+					refTargets.set(annotated.get(i), tagIds[i].trim());
+				}
+			}
+			
+			List<String> instructions = new ArrayList<String>();
+			for(int i = 0; i < names.size(); i++) {
+				instructions.add("create refs/tags/" + names.get(i) + " " + refTargets.get(i));
+			}
+			updateRefsAtomically(instructions);
+		} catch(IOException e) {
+			throw new GitClientException("Error while tagging", e);
+		} finally {
+			if(tmpDir != null) {
+				try {
+					FileUtils.deleteDirectory(tmpDir);
+				} catch (IOException e) {
+					log.warn("Could not delete temporary directory " + tmpDir, e);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void createBranches(Map<String, String> branches) throws GitClientException {
+		if(branches.isEmpty()) return;
+		
+		List<String> names = new ArrayList<String>(branches.keySet());
+		List<String> startPoints = new ArrayList<String>();
+		for(String name : names) {
+			String startPoint = branches.get(name);
+			startPoints.add((startPoint != null ? startPoint : "HEAD") + "^{commit}");
+		}
+		List<String[]> resolved = resolveRevisions(startPoints);
+		
+		List<String> instructions = new ArrayList<String>();
+		for(int i = 0; i < names.size(); i++) {
+			instructions.add("create refs/heads/" + names.get(i) + " " + resolved.get(i)[0]);
+		}
+		updateRefsAtomically(instructions);
+	}
+
 	@Override
 	public void branchDelete(String branchName, boolean force) throws GitClientException {
 		String param = (force?"-D":"-d");
 		executeGitCommand("branch", param, branchName);
 	}
 	
+	@Override
+	public Map<String, String> branchDelete(Collection<String> branchNames, boolean force) throws GitClientException {
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		if(branchNames.isEmpty()) return failures;
+		
+		// Every branch and the ones merged into HEAD are read once, instead of once per branch
+		Map<String, String> branchIds = new HashMap<String, String>();
+		for(String line : executeGitCommandReturn("for-each-ref", "--format=%(refname) %(objectname)", "refs/heads/").split("\\r?\\n")) {
+			String[] parts = line.trim().split(" ");
+			if(parts.length == 2) branchIds.put(parts[0], parts[1]);
+		}
+		Set<String> merged = new HashSet<String>();
+		if(!force) {
+			merged.addAll(Arrays.asList(executeGitCommandExitCode("for-each-ref", "--merged", "HEAD", "--format=%(refname)", "refs/heads/").getOut().split("\\r?\\n")));
+		}
+		String currentBranch = executeGitCommandExitCode("symbolic-ref", "-q", "HEAD").getOut().trim();
+		
+		Map<String, String> instructions = new LinkedHashMap<String, String>();
+		for(String branchName : branchNames) {
+			String refName = "refs/heads/" + branchName;
+			
+			if(!branchIds.containsKey(refName)) {
+				failures.put(branchName, "Branch not found");
+			} else if(refName.equals(currentBranch)) {
+				failures.put(branchName, "Cannot delete the current branch");
+			} else if(!force && !merged.contains(refName)) {
+				failures.put(branchName, "Branch is not fully merged");
+			} else {
+				instructions.put(branchName, "delete " + refName + " " + branchIds.get(refName));
+			}
+		}
+		
+		// The transaction is all or nothing, so the branch that made it fail is left out and the rest is retried
+		List<String> deleted = new ArrayList<String>(instructions.keySet());
+		while(!deleted.isEmpty()) {
+			List<String> lines = new ArrayList<String>();
+			for(String branchName : deleted) lines.add(instructions.get(branchName));
+			CommandResult result = executeGitCommandExitCodeWithInput(linesInput(lines), "update-ref", "--stdin");
+			if(result.getExitCode() == CommandLineExecutor.SUCCESS_EXIT_CODE) break;
+			
+			// Only the first line, the rest is advice (eg. about stale lock files)
+			String error = result.getError().trim().split("\\r?\\n")[0];
+			Matcher matcher = FAILED_REF.matcher(error);
+			String failed = matcher.find() ? matcher.group(1).substring("refs/heads/".length()) : null;
+			if(failed != null && deleted.remove(failed)) {
+				failures.put(failed, error);
+				continue;
+			}
+			
+			// The failing branch is unknown, so each one is deleted on its own
+			List<String> remaining = deleted;
+			deleted = new ArrayList<String>();
+			for(String branchName : remaining) {
+				String refName = "refs/heads/" + branchName;
+				CommandResult single = executeGitCommandExitCode("update-ref", "-d", refName, branchIds.get(refName));
+				if(single.getExitCode() == CommandLineExecutor.SUCCESS_EXIT_CODE) deleted.add(branchName);
+				else failures.put(branchName, single.getError().trim().split("\\r?\\n")[0]);
+			}
+			break;
+		}
+		if(deleted.isEmpty()) return failures;
+		
+		// Remove the configuration (eg. upstream) of the deleted branches, like "git branch -d" does
+		String config = executeGitCommandExitCode("config", "--name-only", "--get-regexp", "^branch\\.").getOut();
+		Set<String> configured = new HashSet<String>();
+		for(String key : config.split("\\r?\\n")) {
+			key = key.trim();
+			if(key.lastIndexOf('.') > "branch.".length()) configured.add(key.substring("branch.".length(), key.lastIndexOf('.')));
+		}
+		for(String branchName : deleted) {
+			if(configured.contains(branchName)) executeGitCommandExitCode("config", "--remove-section", "branch." + branchName);
+		}
+		
+		return failures;
+	}
+	
 	@Override
 	public void pull(String branchName) throws GitClientException {
 		this.checkout(branchName);
@@ -255,13 +1007,141 @@ public class CommandLineGitClient implements GitClient {
 	public void push(String branchName) throws GitClientException {
 		this.checkout(branchName);
 		executeGitCommand("push");
+		remoteRefCache.invalidateAll();
 	}
 	
 	@Override
 	public void pushTag(String tagName) throws GitClientException {
 		executeGitCommand("push", "origin", tagName);
+		remoteRefCache.invalidate("origin");
 	}
 
+	
+	@Override
+	public void pushBranch(String remoteName, String branchName) throws GitClientException {
+		String refName = "refs/heads/" + branchName;
+		for(PushRefResult result : this.pushRefs(remoteName, Collections.singletonList(refName + ":" + refName), null)) {
+			if(!result.isSuccessful()) throw new GitClientException("Error while pushing branch: " + branchName + " (" + result.getStatus() + ")");
+		}
+	}
+	
+	@Override
+	public void pullBranch(String remoteName, String branchName) throws GitClientException {
+		Map<String, String> failures = this.pullBranches(remoteName, Collections.singletonList(branchName));
+		if(!failures.isEmpty()) throw new GitClientException("Error while pulling branch: " + branchName + " (" + failures.get(branchName) + ")");
+	}
+	
+	@Override
+	public Map<String, String> pullBranches(String remoteName, Collection<String> branchNames) throws GitClientException {
+		if(remoteName == null) remoteName = "origin";
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		if(branchNames.isEmpty()) return failures;
+		
+		String trackingPrefix = "refs/remotes/" + remoteName + "/";
+		String currentBranch = executeGitCommandExitCode("symbolic-ref", "-q", "HEAD").getOut().trim();
+		
+		// Fetching a missing branch fails the whole fetch, so only the existing ones are requested
+		Set<String> remoteBranches = new HashSet<String>();
+		for(String line : executeGitCommandReturn("ls-remote", "--heads", remoteName).split("\\r?\\n")) {
+			if(line.indexOf('\t') > 0) remoteBranches.add(line.substring(line.indexOf('\t') + 1).trim());
+		}
+		
+		// Git fast-forwards the local refs itself (rejecting non fast-forwards) while also updating the remote-tracking refs.
+		// The current branch can't be fetched into, so it is merged afterwards
+		List<String> specs = new ArrayList<String>();
+		List<String> pulled = new ArrayList<String>();
+		for(String branchName : branchNames) {
+			String refName = "refs/heads/" + branchName;
+			if(!remoteBranches.contains(refName)) {
+				failures.put(branchName, "Branch not found on remote " + remoteName);
+				continue;
+			}
+			pulled.add(branchName);
+			specs.add("+" + refName + ":" + trackingPrefix + branchName);
+			if(!refName.equals(currentBranch)) specs.add(refName + ":" + refName);
+		}
+		if(pulled.isEmpty()) return failures;
+		
+		// Non fast-forwards make the fetch exit with an error, they are detected below by comparing the refs
+		executeGitCommandExitCodeWithInput(linesInput(specs), "fetch", "--stdin", remoteName);
+		
+		Map<String, String> refIds = new HashMap<String, String>();
+		for(String line : executeGitCommandReturn("for-each-ref", "--format=%(refname) %(objectname)", "refs/heads/", trackingPrefix).split("\\r?\\n")) {
+			String[] parts = line.trim().split(" ");
+			if(parts.length == 2) refIds.put(parts[0], parts[1]);
+		}
+		
+		for(String branchName : pulled) {
+			String refName = "refs/heads/" + branchName;
+			String remoteId = refIds.get(trackingPrefix + branchName);
+			
+			if(remoteId == null) {
+				failures.put(branchName, "Error while fetching");
+			} else if(refName.equals(currentBranch)) {
+				CommandResult result = executeGitCommandExitCode("merge", "--ff-only", trackingPrefix + branchName);
+				if(result.getExitCode() != CommandLineExecutor.SUCCESS_EXIT_CODE) failures.put(branchName, "Not a fast-forward");
+			} else if(!remoteId.equals(refIds.get(refName)) && (refIds.get(refName) == null || !this.isAncestor(remoteId, refIds.get(refName)))) {
+				// A branch ahead of the remote is already up to date, like the current one with a fast-forward only merge
+				failures.put(branchName, "Not a fast-forward");
+			}
+		}
+		return failures;
+	}
+	
+	@Override
+	public List<PushRefResult> pushRefs(String remoteName, Collection<String> refSpecs, PushOptions options) throws GitClientException {
+		if(remoteName == null) remoteName = "origin";
+		if(options == null) options = new PushOptions();
+		
+		List<String> args = new ArrayList<String>();
+		args.add("push");
+		args.add("--porcelain");
+		args.add(options.isThin() ? "--thin" : "--no-thin");
+		if(options.isAtomic()) args.add("--atomic");
+		if(options.isForce()) args.add("--force");
+		if(options.isDryRun()) args.add("--dry-run");
+		args.add(remoteName);
+		args.addAll(refSpecs);
+		
+		CommandResult result = executeGitCommandExitCode(args.toArray(new String[] {}));
+		if(!options.isDryRun()) remoteRefCache.invalidate(remoteName);
+		
+		// Porcelain format: <flag> TAB <from>:<to> TAB <summary> (<reason>)
+		List<PushRefResult> results = new ArrayList<PushRefResult>();
+		for(String line : result.getOut().split("\\r?\\n")) {
+			String[] parts = line.split("\t");
+			if(parts.length < 3 || parts[0].length() != 1) continue;
+			
+			String from = parts[1].substring(0, parts[1].indexOf(':'));
+			String to = parts[1].substring(parts[1].indexOf(':') + 1);
+			results.add(new PushRefResult(from.isEmpty() ? null : from, to, toPushStatus(parts[0].charAt(0), parts[2]), parts[2]));
+		}
+		
+		if(results.isEmpty() && result.getExitCode() != CommandLineExecutor.SUCCESS_EXIT_CODE) {
+			throw new GitClientException("Error while pushing refs to " + remoteName + ": " + result.getError());
+		}
+		return results;
+	}
+	
+	/**
+	 * Converts the flag and summary of a porcelain push line to the status
+	 * @param flag porcelain flag
+	 * @param summary summary of the update
+	 * @return the status
+	 */
+	private static PushRefResult.Status toPushStatus(char flag, String summary) {
+		switch(flag) {
+			case '=':
+				return PushRefResult.Status.UP_TO_DATE;
+			case '!':
+				if(summary.contains("non-fast-forward")) return PushRefResult.Status.REJECTED_NONFASTFORWARD;
+				if(summary.contains("fetch first") || summary.contains("stale info")) return PushRefResult.Status.REJECTED_REMOTE_CHANGED;
+				if(summary.contains("atomic push failed")) return PushRefResult.Status.NOT_ATTEMPTED;
+				return PushRefResult.Status.REJECTED_OTHER_REASON;
+			default:
+				return PushRefResult.Status.OK;
+		}
+	}
 
 	@Override
 	public boolean hasUncommitedChanges(boolean allowUntracked) throws GitClientException {
@@ -319,6 +1199,122 @@ public class CommandLineGitClient implements GitClient {
 		return commit;
 	}
 
+	@Override
+	public boolean isAncestor(String ancestor, String descendant) throws GitClientException {
+		CommandResult result = executeGitCommandExitCode("merge-base", "--is-ancestor", ancestor, descendant);
+		if(result.getExitCode() > 1) throw new GitClientException("Error while checking if " + ancestor + " is an ancestor of " + descendant + ": " + result.getError());
+		return result.getExitCode() == CommandLineExecutor.SUCCESS_EXIT_CODE;
+	}
+	
+	@Override
+	public String mergeBase(String revision1, String revision2) throws GitClientException {
+		// Exit code 1 without error means there is no merge base
+		CommandResult result = executeGitCommandExitCode("merge-base", revision1, revision2);
+		if(result.getExitCode() == CommandLineExecutor.SUCCESS_EXIT_CODE) return result.getOut().trim();
+		if(result.getExitCode() == 1 && StringUtils.isBlank(result.getError())) return null;
+		throw new GitClientException("Error while looking for the merge base of " + revision1 + " and " + revision2 + ": " + result.getError());
+	}
+	
+	@Override
+	public AheadBehind aheadBehind(String revision, String base) throws GitClientException {
+		// Format: <ahead> TAB <behind>
+		String[] counts = executeGitCommandReturn("rev-list", "--left-right", "--count", revision + "..." + base).trim().split("\\s+");
+		return new AheadBehind(Integer.parseInt(counts[0]), Integer.parseInt(counts[1]));
+	}
+	
+	@Override
+	public Map<String, AheadBehind> aheadBehindAll(String base, Collection<String> branches) throws GitClientException {
+		List<String> names = new ArrayList<String>(new LinkedHashSet<String>(branches));
+		Map<String, AheadBehind> result = new LinkedHashMap<String, AheadBehind>();
+		if(names.isEmpty()) return result;
+		
+		List<String> revisions = new ArrayList<String>();
+		revisions.add(base + "^{commit}");
+		for(String name : names) revisions.add(name + "^{commit}");
+		List<String[]> resolved = resolveRevisions(revisions);
+		
+		AheadBehindCounter counter = new AheadBehindCounter(names.size());
+		Map<String, long[]> colors = new HashMap<String, long[]>();
+		String baseId = resolved.get(0)[0];
+		colors.put(baseId, counter.start(null, counter.getBaseBit()));
+		for(int b = 0; b < names.size(); b++) {
+			String id = resolved.get(b + 1)[0];
+			colors.put(id, counter.start(colors.get(id), b));
+		}
+		
+		// Format: <commit> <parent>*. Topological order: all the children of a commit are listed before it
+		// The output is read as it is produced, so the command is stopped as soon as every count is known
+		try {
+			Process process = cmdExecutor.startCommand("rev-list", "--topo-order", "--parents", "--stdin");
+			try(CommandOutputIterator output = new CommandOutputIterator(process, '\n')) {
+				// rev-list reads all of its input before writing the output
+				try(OutputStream input = process.getOutputStream()) {
+					IOUtil.copy(linesInput(new ArrayList<String>(colors.keySet())), input);
+				}
+				while(!counter.isDone() && output.hasNext()) {
+					String line = output.next();
+					if(line.isEmpty()) continue;
+					
+					String[] ids = line.split(" ");
+					long[] commitColors = colors.remove(ids[0]);
+					for(int i = 1; i < ids.length; i++) {
+						colors.put(ids[i], counter.propagate(commitColors, colors.get(ids[i])));
+					}
+					counter.count(commitColors);
+				}
+			}
+		} catch(CommandLineException | IOException e) {
+			throw new GitClientException("Error while counting the commits ahead and behind " + base, e);
+		}
+		
+		for(int b = 0; b < names.size(); b++) result.put(names.get(b), counter.get(b));
+		return result;
+	}
+	
+	@Override
+	public List<String> branchesContaining(String revision) throws GitClientException {
+		return this.listRefNames("refs/heads/", null, "--contains=" + revision);
+	}
+	
+	@Override
+	public List<String> tagsContaining(String revision) throws GitClientException {
+		return this.listRefNames("refs/tags/", null, "--contains=" + revision);
+	}
+	
+	@Override
+	public List<String> findMergedBranches(String target, String branchPrefix) throws GitClientException {
+		return this.listRefNames("refs/heads/", branchPrefix, "--merged=" + target);
+	}
+	
+	/**
+	 * Lists the refs in a namespace that match a for-each-ref filter (eg. <code>--contains</code>), in a single call
+	 * @param refPrefix namespace of the refs (eg. <code>refs/heads/</code>)
+	 * @param namePrefix prefix of the names (without the namespace), or <code>null</code> to list all
+	 * @param filter the for-each-ref filter
+	 * @return the names of the refs (without the namespace)
+	 */
+	private List<String> listRefNames(String refPrefix, String namePrefix, String filter) throws GitClientException {
+		List<String> names = new ArrayList<String>();
+		for(String refName : executeGitCommandReturn("for-each-ref", "--format=%(refname)", filter, refPrefix).split("\\r?\\n")) {
+			if(!refName.startsWith(refPrefix)) continue;
+			String name = refName.substring(refPrefix.length());
+			if(namePrefix == null || name.startsWith(namePrefix)) names.add(name);
+		}
+		return names;
+	}
+	
+	@Override
+	public void setCommitGraphEnabled(boolean enabled) throws GitClientException {
+		// Git uses its commit-graph whenever it exists, so it only needs to be written
+		if(enabled) this.writeCommitGraph();
+	}
+	
+	@Override
+	public void writeCommitGraph() throws GitClientException {
+		// Split graphs only write the commits that are not in the existing layers
+		executeGitCommand("commit-graph", "write", "--reachable", "--split");
+	}
+	
 	@Override
 	public GitUser getConfiguredUser() throws GitClientException {
 		String name = this.getConfig("user.name");
@@ -329,7 +1325,9 @@ public class CommandLineGitClient implements GitClient {
 	}
 
 	@Override
-	public void close() throws Exception {}
+	public void close() throws Exception {
+		this.catFilePool.close();
+	}
 
 	@Override
 	public boolean repoExists() throws GitClientException {
@@ -360,10 +1358,48 @@ public class CommandLineGitClient implements GitClient {
 		throw new UnsupportedOperationException("Command line git adapter may only be used in the current directory");
 	}
 
+	@Override
+	public void cloneRepo(String url, File dir, CloneOptions options) throws GitClientException {
+		if(options == null) options = new CloneOptions();
+		
+		List<String> args = new ArrayList<String>();
+		args.add("clone");
+		args.add("--progress");
+		if(options.getRemote() != null) args.add("--origin=" + options.getRemote());
+		if(options.getBranch() != null) args.add("--branch=" + options.getBranch());
+		if(options.isSingleBranch()) args.add("--single-branch");
+		if(options.getDepth() > 0) args.add("--depth=" + options.getDepth());
+		if(options.isNoCheckout()) args.add("--no-checkout");
+		if(options.isBare()) args.add("--bare");
+		if(options.getReference() != null) args.add("--reference=" + options.getReference().getAbsolutePath());
+		args.add(url);
+		args.add(dir.getAbsolutePath());
+		
+		executeGitCommandWithProgress(null, new ProgressConsumer(options.getProgressListener()), args.toArray(new String[] {}));
+		
+		// From now on, the commands are executed on the cloned repository
+		cmdExecutor.setWorkingDirectory(dir.getAbsoluteFile());
+		// The running cat-file processes belong to the previous repository
+		this.catFilePool.close();
+		this.catFilePool = new CatFilePool(cmdExecutor, Runtime.getRuntime().availableProcessors());
+		// The cached remote refs are keyed by remote name, the cloned repository's remotes may be others
+		this.remoteRefCache.invalidateAll();
+	}
+
 	@Override
 	public void stageFiles(List<String> filenames) {
-		filenames.add(0, "add");
-		executeGitCommand(filenames.toArray(new String[filenames.size()]));
+		this.stageFiles(filenames.iterator());
+	}
+	
+	@Override
+	public void stageFiles(Stream<String> filenames) {
+		this.stageFiles(filenames.iterator());
+	}
+	
+	@Override
+	public void stageFiles(Iterator<String> filenames) {
+		// Paths are streamed through stdin so the list never hits the command line length limit
+		executeGitCommandWithInput(new NulSeparatedInputStream(filenames), "add", "--pathspec-from-file=-", "--pathspec-file-nul");
 	}
 
 	@Override
@@ -379,36 +1415,335 @@ public class CommandLineGitClient implements GitClient {
 
 	@Override
 	public File getGitDirectory() {
-		return new File(executeGitCommandReturn("rev-parse", "--git-dir"));
+		return new File(executeGitCommandReturn("rev-parse", "--absolute-git-dir").trim());
 	}
 
 	@Override
 	public List<String> getStagedFiles() {
-		executeGitCommandReturn();
-
-		String files;
-		files = executeGitCommandReturn("diff", "--name-only", "--cached");
-
-        if(files == null || files.isEmpty()) return Collections.emptyList();
-
-        // on *nix systems return values from some git commands are wrapped in
-        // quotes
-        // https://github.com/aleksandr-m/gitflow-maven-plugin/issues/3
-        files = files.replaceAll("\"", "").trim();
-        
-        return Arrays.asList(files.split("\\r?\\n"));
+		return this.getStagedFiles(null);
+	}
+	
+	@Override
+	public List<String> getStagedFiles(PathFilter filter) throws GitClientException {
+		try(Stream<String> files = this.streamStagedFiles(filter)) {
+			return files.collect(Collectors.toList());
+		}
+	}
+	
+	@Override
+	public int countStagedFiles(PathFilter filter) throws GitClientException {
+		try(Stream<String> files = this.streamStagedFiles(filter)) {
+			return (int) files.count();
+		}
+	}
+	
+	/**
+	 * Streams the paths staged, comparing the index with HEAD. Renames are listed as the old and the new path.
+	 * <br>NUL separated output, so the paths are never quoted.
+	 */
+	private Stream<String> streamStagedFiles(PathFilter filter) throws GitClientException {
+		List<String> args = new ArrayList<String>(Arrays.asList("diff", "--cached", "--name-only", "-z", "--no-renames", "--no-ext-diff"));
+		addPathspecs(args, filter);
+		return streamGitCommand(0, args.toArray(new String[] {}));
 	}
 
 	@Override
 	public void fetch() throws GitClientException {
+		if(this.fetchCoalescer != null) {
+			this.fetch(new FetchOptions());
+			return;
+		}
 		executeGitCommand("fetch");
 	}
 
+	@Override
+	public FetchStats fetch(FetchOptions options) throws GitClientException {
+		if(options == null) options = new FetchOptions();
+		if(this.fetchCoalescer == null) return this.doFetch(options);
+		
+		final FetchOptions fetchOptions = options;
+		String remoteName = (options.getRemote() != null ? options.getRemote() : "origin");
+		return this.fetchCoalescer.fetch(this.getGitDirectory(), remoteName, options, () -> this.doFetch(fetchOptions));
+	}
+	
+	@Override
+	public void setFetchCoalescer(FetchCoalescer fetchCoalescer) {
+		this.fetchCoalescer = fetchCoalescer;
+	}
+	
+	/**
+	 * Performs the fetch (without coalescing)
+	 */
+	private FetchStats doFetch(FetchOptions options) throws GitClientException {
+		String remoteName = (options.getRemote() != null ? options.getRemote() : "origin");
+		
+		List<String> args = new ArrayList<String>();
+		args.add("fetch");
+		args.add("--progress");
+		if(options.getDepth() > 0) args.add("--depth=" + options.getDepth());
+		if(options.getDeepenSince() != null) args.add("--shallow-since=" + (options.getDeepenSince().getTime() / 1000));
+		if(options.isPrune()) args.add("--prune");
+		if(options.getTagMode() == FetchOptions.TagMode.NONE) args.add("--no-tags");
+		if(options.getTagMode() == FetchOptions.TagMode.ALL) args.add("--tags");
+		
+		InputStream refSpecs = null;
+		if(!options.getRefSpecs().isEmpty()) {
+			args.add("--stdin");
+			refSpecs = linesInput(options.getRefSpecs());
+		}
+		args.add(remoteName);
+		
+		long start = System.currentTimeMillis();
+		// The received objects are taken from what git reports, counting the objects of the repository is wrong if it repacks meanwhile
+		ProgressConsumer progress = new ProgressConsumer(options.getProgressListener());
+		CommandResult result = executeGitCommandWithProgress(refSpecs, progress, args.toArray(new String[] {}));
+		
+		// Ref update lines look like "   1a2b..3c4d  main  -> origin/main" or " * [new branch]  a  -> origin/a"
+		int updatedRefs = 0;
+		for(String line : result.getError().split("\\r?\\n")) {
+			if(line.contains(" -> ") && !line.contains("FETCH_HEAD") && !line.startsWith(" = ") && !line.startsWith(" ! ")) updatedRefs++;
+		}
+		
+		return new FetchStats(progress.getObjectsReceived(), progress.getBytesReceived(), updatedRefs, System.currentTimeMillis() - start);
+	}
+	
 	@Override
 	public boolean repoLoaded() {
 		return true;
 	}
 
+	@Override
+	public InputStream openFile(String revision, String path) throws GitClientException {
+		String object = (revision != null ? revision : "HEAD") + ":" + path;
+		InputStream content = this.catFilePool.open(object, "blob");
+		if(content == null) throw new GitClientException("File '" + path + "' not found at revision " + revision);
+		return content;
+	}
+	
+	@Override
+	public long fileSize(String revision, String path) throws GitClientException {
+		String object = (revision != null ? revision : "HEAD") + ":" + path;
+		CatFilePool.ObjectInfo info = this.catFilePool.info(object);
+		if(info == null || !info.getType().equals("blob")) throw new GitClientException("File '" + path + "' not found at revision " + revision);
+		return info.getSize();
+	}
+	
+	@Override
+	public Stream<TreeEntry> listTree(String revision, String path, boolean recursive) throws GitClientException {
+		String dir = (path != null ? path.replaceAll("^/+|/+$", "") : "");
+		
+		List<String> args = new ArrayList<String>(Arrays.asList("ls-tree", "-z", "-l", "--full-tree"));
+		if(recursive) args.add("-r");
+		args.add(revision != null ? revision : "HEAD");
+		if(!dir.isEmpty()) {
+			// The trailing slash lists the content of the directory instead of the directory itself
+			args.add("--");
+			args.add(dir + "/");
+		}
+		
+		// Format: <mode> SP <type> SP <id> SP+ <size> TAB <path> NUL (size is "-" if it is not a blob)
+		return streamGitCommand(0, args.toArray(new String[] {})).map(record -> {
+			int tab = record.indexOf('\t');
+			String[] parts = record.substring(0, tab).split(" +");
+			long size = (parts[3].equals("-") ? -1 : Long.parseLong(parts[3]));
+			return new TreeEntry(record.substring(tab + 1), parts[0], parts[1], parts[2], size);
+		});
+	}
+	
+	@Override
+	public Stream<ChangedPath> changedPaths(String from, String to, PathFilter filter) throws GitClientException {
+		List<String> args = new ArrayList<String>(Arrays.asList("diff", "--name-status", "-z", "--no-renames", "--no-ext-diff", "--no-textconv"));
+		args.add(from);
+		args.add(to != null ? to : "HEAD");
+		addPathspecs(args, filter);
+		
+		// Format: <status> NUL <path> NUL
+		Stream<String> records = streamGitCommand(0, args.toArray(new String[] {}));
+		Iterator<String> it = records.iterator();
+		Iterator<ChangedPath> paths = new Iterator<ChangedPath>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+			
+			@Override
+			public ChangedPath next() {
+				String status = it.next();
+				return new ChangedPath(it.next(), toChangeStatus(status));
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(records::close);
+	}
+	
+	/**
+	 * Adds the pathspecs for the included and excluded paths, after the <code>--</code> separator
+	 */
+	private static void addPathspecs(List<String> args, PathFilter filter) {
+		args.add("--");
+		if(filter == null || filter.isEmpty()) return;
+		
+		// Pathspecs relative to the top of the repo, as the paths returned
+		if(filter.getIncludes() != null) {
+			for(String include : filter.getIncludes()) args.add(":(top)" + include.replaceAll("^/+|/+$", ""));
+		}
+		if(filter.getExcludes() != null && !filter.getExcludes().isEmpty()) {
+			// Git requires at least a positive pathspec when there are excluded ones
+			if(filter.getIncludes() == null || filter.getIncludes().isEmpty()) args.add(":(top)");
+			for(String exclude : filter.getExcludes()) args.add(":(top,exclude)" + exclude.replaceAll("^/+|/+$", ""));
+		}
+	}
+	
+	@Override
+	public DiffStats diff(String from, String to, DiffOptions options, OutputStream out) throws GitClientException {
+		if(options == null) options = new DiffOptions();
+		
+		// Bigger blobs are reported as binary without loading them
+		List<String> args = new ArrayList<String>(Arrays.asList("-c", "core.bigFileThreshold=" + options.getMaxBlobSize(),
+				"diff", "--no-color", "--no-ext-diff", "--no-textconv", "-U" + options.getContextLines()));
+		if(options.isDetectRenames()) {
+			args.add("-M");
+			args.add("-l" + options.getRenameLimit());
+		} else {
+			args.add("--no-renames");
+		}
+		args.add(from);
+		args.add(to != null ? to : "HEAD");
+		addPathspecs(args, options.getPathFilter());
+		
+		PatchOutputStream patch = new PatchOutputStream(out, options.isSkipBinary());
+		try(CommandOutputIterator output = new CommandOutputIterator(cmdExecutor.startCommand(args.toArray(new String[] {})), '\n')) {
+			output.transferTo(patch);
+			patch.finish();
+			return patch.getStats();
+		} catch(CommandLineException | IOException e) {
+			throw new GitClientException("Error while writing the diff between " + from + " and " + to, e);
+		}
+	}
+	
+	@Override
+	public Stream<GitCommit> fileHistory(String revision, Collection<String> paths, HistoryOptions options) throws GitClientException {
+		if(options == null) options = new HistoryOptions();
+		if(options.isFollowRenames() && (paths == null || paths.size() != 1)) throw new GitClientException("Renames can only be followed for a single path");
+		
+		List<String> args = new ArrayList<String>(Arrays.asList("log", "-z", "--format=%H%x00%cn%x00%ce%x00%ct%x00%s"));
+		// Git stops the walk when the limit or the date are reached
+		if(options.getLimit() > 0) args.add("-n" + options.getLimit());
+		if(options.getSince() != null) args.add("--since=@" + (options.getSince().getTime() / 1000));
+		if(options.isFollowRenames()) args.add("--follow");
+		args.add(revision != null ? revision : "HEAD");
+		addPathspecs(args, (paths != null ? new PathFilter(new ArrayList<String>(paths)) : null));
+		
+		return this.streamCommits(args);
+	}
+	
+	@Override
+	public Stream<GitCommit> searchCommits(CommitQuery query) throws GitClientException {
+		List<String> args = new ArrayList<String>(Arrays.asList("log", "-z", "--format=%H%x00%cn%x00%ce%x00%ct%x00%s", "--extended-regexp"));
+		// Message, author and committer must all match (as in the JGit client)
+		if(query.getMessage() != null) args.add("--grep=" + query.getMessage().pattern());
+		if(query.getAuthor() != null) args.add("--author=" + query.getAuthor().pattern());
+		if(query.getCommitter() != null) args.add("--committer=" + query.getCommitter().pattern());
+		// Git applies --regexp-ignore-case to every pattern, so they must all agree on it
+		int insensitive = 0, patterns = 0;
+		for(Pattern pattern : Arrays.asList(query.getMessage(), query.getAuthor(), query.getCommitter())) {
+			if(pattern == null) continue;
+			patterns++;
+			if((pattern.flags() & Pattern.CASE_INSENSITIVE) != 0) insensitive++;
+		}
+		if(insensitive > 0 && insensitive < patterns) throw new GitClientException("The command line client cannot mix case sensitive and case insensitive patterns in the same query");
+		if(insensitive > 0) args.add("--regexp-ignore-case");
+		if(query.getSince() != null) args.add("--since=@" + (query.getSince().getTime() / 1000));
+		if(query.getUntil() != null) args.add("--until=@" + (query.getUntil().getTime() / 1000));
+		if(query.getLimit() > 0) args.add("-n" + query.getLimit());
+		// Merges are checked against every parent, instead of simplifying the history
+		args.add("--full-history");
+		if(query.getRevisions() == null || query.getRevisions().isEmpty()) {
+			args.add("HEAD");
+		} else {
+			args.addAll(query.getRevisions());
+		}
+		addPathspecs(args, (query.getPaths() != null ? new PathFilter(query.getPaths()) : null));
+		
+		return this.streamCommits(args);
+	}
+	
+	@Override
+	public Stream<GrepMatch> grep(String revision, Pattern pattern, GrepOptions options) throws GitClientException {
+		if(options == null) options = new GrepOptions();
+		// Resolved to a tree id once, so tree-ish revisions like HEAD:dir can be suffixed with a path.
+		// It takes two steps because "HEAD:dir^{tree}" would be read as the path "dir^{tree}"
+		String id = executeGitCommandReturn("rev-parse", "--verify", (revision != null ? revision : "HEAD")).trim();
+		String rev = executeGitCommandReturn("rev-parse", "--verify", id + "^{tree}").trim();
+		
+		List<String> args = new ArrayList<String>(Arrays.asList("grep", "-z", "-n", "-I", "--extended-regexp", "--full-name"));
+		if((pattern.flags() & Pattern.CASE_INSENSITIVE) != 0) args.add("--ignore-case");
+		if(options.getThreads() > 0) args.add("--threads=" + options.getThreads());
+		args.add("-e");
+		args.add(pattern.pattern());
+		args.add(rev);
+		addPathspecs(args, options.getPathFilter());
+		
+		CommandOutputIterator output;
+		try {
+			// Exit code 1 means nothing was found
+			output = new CommandOutputIterator(cmdExecutor.startCommand(args.toArray(new String[] {})), '\n', CommandLineExecutor.SUCCESS_EXIT_CODE, 1);
+		}catch(CommandLineException e) {
+			throw new GitClientException("Error while executing command", e);
+		}
+		
+		// Git does not skip big files, so their lines are left out (the size is checked once per file)
+		final int maxBlobSize = options.getMaxBlobSize();
+		Map<String, Boolean> allowed = new HashMap<String, Boolean>();
+		
+		// Format: <tree id>:<path> NUL <line number> NUL <line> LF
+		Stream<GrepMatch> matches = StreamSupport.stream(Spliterators.spliteratorUnknownSize(output, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(output::close)
+				.map(record -> {
+					String[] parts = record.split("\0", 3);
+					return new GrepMatch(parts[0].substring(rev.length() + 1), Integer.parseInt(parts[1]), parts[2]);
+				})
+				.filter(match -> allowed.computeIfAbsent(match.getPath(), path -> this.fileSize(rev, path) <= maxBlobSize));
+		return (options.getLimit() > 0 ? matches.limit(options.getLimit()) : matches);
+	}
+	
+	/**
+	 * Streams the commits listed by a <code>log</code> command
+	 * @param args arguments of the command, without the format
+	 */
+	private Stream<GitCommit> streamCommits(List<String> args) throws GitClientException {
+		// Format: <hash> NUL <name> NUL <email> NUL <time> NUL <subject> NUL
+		Stream<String> records = streamGitCommand(0, args.toArray(new String[] {}));
+		Iterator<String> it = records.iterator();
+		Iterator<GitCommit> commits = new Iterator<GitCommit>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+			
+			@Override
+			public GitCommit next() {
+				GitCommit commit = new GitCommit();
+				commit.setHash(it.next());
+				commit.setUser(new GitUser(it.next(), it.next()));
+				commit.setDate(new Date(1000L * Long.parseLong(it.next())));
+				commit.setMessage(it.next());
+				return commit;
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(commits, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(records::close);
+	}
+	
+	private static ChangedPath.Status toChangeStatus(String status) {
+		switch(status.charAt(0)) {
+			case 'A': return ChangedPath.Status.ADDED;
+			case 'D': return ChangedPath.Status.DELETED;
+			case 'T': return ChangedPath.Status.TYPE_CHANGED;
+			default: return ChangedPath.Status.MODIFIED;
+		}
+	}
+	
 	@Override
 	public boolean isClosed() {
 		// Command line Git Client is never closed
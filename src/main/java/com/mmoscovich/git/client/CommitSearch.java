@@ -0,0 +1,215 @@
+package com.mmoscovich.git.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.mmoscovich.git.client.graph.CommitGraphIndex;
+import com.mmoscovich.git.client.model.CommitQuery;
+import com.mmoscovich.git.client.model.GitCommit;
+
+/**
+ * Search of commits split across threads.
+ * <br>A producer lists the commits to check in batches: from the commit graph index when available (no commit is read),
+ * or with a walk that only parses the headers (and stops at the <code>since</code> date). Workers take the batches and
+ * parse and match each commit, each one with its own {@link ObjectReader}.
+ * <br>Matching commits are returned as they are found, so they are <b>not</b> in history order.
+ * When the limit is reached, or the search is closed, every thread stops.
+ *
+ * @author Martin Moscovich
+ *
+ */
+class CommitSearch {
+	private static final int BATCH_SIZE = 256;
+	private static final long POLL_MILLIS = 100;
+	
+	private final Repository repo;
+	private final CommitGraphIndex commitGraph;
+	private final List<ObjectId> starts;
+	private final CommitQuery query;
+	private final TreeFilter pathFilter;
+	private final Function<RevCommit, GitCommit> converter;
+	private final int threads;
+	
+	private final ExecutorService executor;
+	private final BlockingQueue<List<ObjectId>> batches;
+	private final ResultQueue<GitCommit> results;
+	private final AtomicInteger runningWorkers;
+	
+	private volatile boolean producerDone;
+	
+	/**
+	 * @param repo repository
+	 * @param commitGraph index used to list the commits (optional)
+	 * @param starts commits where the search starts
+	 * @param query search criteria
+	 * @param pathFilter filter of the paths that must change (optional)
+	 * @param converter creates the returned commits
+	 */
+	CommitSearch(Repository repo, CommitGraphIndex commitGraph, List<ObjectId> starts, CommitQuery query, TreeFilter pathFilter, Function<RevCommit, GitCommit> converter) {
+		this.repo = repo;
+		this.commitGraph = commitGraph;
+		this.starts = starts;
+		this.query = query;
+		this.pathFilter = pathFilter;
+		this.converter = converter;
+		this.threads = (query.getThreads() > 0 ? query.getThreads() : Runtime.getRuntime().availableProcessors());
+		this.batches = new ArrayBlockingQueue<List<ObjectId>>(threads * 4);
+		this.runningWorkers = new AtomicInteger(threads);
+		this.executor = Executors.newFixedThreadPool(threads + 1, r -> {
+			Thread t = new Thread(r, "git-search");
+			t.setDaemon(true);
+			return t;
+		});
+		this.results = new ResultQueue<GitCommit>(query.getLimit(), "Error while searching commits", executor::shutdownNow);
+	}
+	
+	/**
+	 * Starts the producer and the workers
+	 * @return the results, as they are found
+	 */
+	ResultQueue<GitCommit> start() {
+		executor.execute(this::produce);
+		for(int i = 0; i < threads; i++) executor.execute(this::work);
+		return results;
+	}
+	
+	private void produce() {
+		try(ObjectReader reader = repo.newObjectReader()) {
+			List<ObjectId> batch = new ArrayList<ObjectId>(BATCH_SIZE);
+			
+			// The index does not have dates, so a walk is better when it can stop early
+			if(commitGraph != null && query.getSince() == null) {
+				BitSet reachable = commitGraph.reachableFrom(reader, starts);
+				for(int pos = reachable.nextSetBit(0); pos >= 0; pos = reachable.nextSetBit(pos + 1)) {
+					batch.add(commitGraph.getId(pos));
+					if(batch.size() == BATCH_SIZE) {
+						if(!this.offer(batch)) return;
+						batch = new ArrayList<ObjectId>(BATCH_SIZE);
+					}
+				}
+			} else {
+				try(RevWalk rw = new RevWalk(reader)) {
+					rw.setRetainBody(false);
+					if(query.getSince() != null) rw.setRevFilter(CommitTimeRevFilter.after(query.getSince()));
+					for(ObjectId start : starts) rw.markStart(rw.parseCommit(start));
+					
+					RevCommit commit;
+					while((commit = rw.next()) != null) {
+						batch.add(commit.copy());
+						if(batch.size() == BATCH_SIZE) {
+							if(!this.offer(batch)) return;
+							batch = new ArrayList<ObjectId>(BATCH_SIZE);
+						}
+					}
+				}
+			}
+			if(!batch.isEmpty()) this.offer(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			results.fail(e);
+		} finally {
+			producerDone = true;
+		}
+	}
+	
+	/**
+	 * Queues a batch, waiting while the workers are busy
+	 * @return <code>false</code> if the search was cancelled
+	 */
+	private boolean offer(List<ObjectId> batch) throws InterruptedException {
+		while(!batches.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if(results.isCancelled()) return false;
+		}
+		return !results.isCancelled();
+	}
+	
+	private void work() {
+		try(ObjectReader reader = repo.newObjectReader()) {
+			TreeFilter filter = (pathFilter != null ? AndTreeFilter.create(pathFilter.clone(), TreeFilter.ANY_DIFF) : null);
+			while(!results.isCancelled()) {
+				List<ObjectId> batch = batches.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if(batch == null) {
+					if(producerDone && batches.isEmpty()) break;
+					continue;
+				}
+				
+				// A walk per batch, so the parsed commits are released
+				try(RevWalk rw = new RevWalk(reader)) {
+					for(ObjectId id : batch) {
+						if(results.isCancelled()) break;
+						RevCommit commit = rw.parseCommit(id);
+						if(this.matches(commit) && (filter == null || changesPaths(rw, reader, commit, filter))) {
+							results.add(converter.apply(commit));
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			results.fail(e);
+		} finally {
+			// The last worker marks the end
+			if(runningWorkers.decrementAndGet() == 0) {
+				results.end();
+			}
+		}
+	}
+	
+	private boolean matches(RevCommit commit) {
+		long time = commit.getCommitTime();
+		if(query.getSince() != null && time < query.getSince().getTime() / 1000) return false;
+		if(query.getUntil() != null && time > query.getUntil().getTime() / 1000) return false;
+		if(query.getAuthor() != null && !query.getAuthor().matcher(toString(commit.getAuthorIdent())).find()) return false;
+		if(query.getCommitter() != null && !query.getCommitter().matcher(toString(commit.getCommitterIdent())).find()) return false;
+		return (query.getMessage() == null || query.getMessage().matcher(commit.getFullMessage()).find());
+	}
+	
+	private static String toString(PersonIdent ident) {
+		return ident.getName() + " <" + ident.getEmailAddress() + ">";
+	}
+	
+	/**
+	 * Checks if a commit changed the paths, comparing it with each parent.
+	 * <br>As <code>log --full-history</code>, a merge changed them unless it is the same as every parent.
+	 */
+	private static boolean changesPaths(RevWalk rw, ObjectReader reader, RevCommit commit, TreeFilter filter) throws IOException {
+		try(TreeWalk tw = new TreeWalk(reader)) {
+			tw.setRecursive(true);
+			tw.setFilter(filter);
+			if(commit.getParentCount() == 0) {
+				tw.addTree(new EmptyTreeIterator());
+				tw.addTree(commit.getTree());
+				return tw.next();
+			}
+			for(RevCommit parent : commit.getParents()) {
+				rw.parseHeaders(parent);
+				tw.reset(parent.getTree(), commit.getTree());
+				if(tw.next()) return true;
+			}
+			return false;
+		}
+	}
+}
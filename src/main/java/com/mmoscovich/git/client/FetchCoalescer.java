@@ -0,0 +1,153 @@
+package com.mmoscovich.git.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import com.mmoscovich.git.client.model.FetchOptions;
+import com.mmoscovich.git.client.model.FetchStats;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Coalesces concurrent fetches on the same repository.
+ * <br>When a fetch is requested while an identical one (same repository, remote and options) is in progress,
+ * the caller waits for it and gets its result instead of starting a new one.
+ * Optionally, a fetch that finished recently (within the freshness window) also satisfies new callers.
+ * <br>The same instance must be shared by all the clients (eg. one per thread) that should be coalesced.
+ * <br>NOTE: Callers that join an in-flight fetch are not notified of its progress.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Slf4j
+public class FetchCoalescer {
+	private final long freshnessMillis;
+	
+	private final ConcurrentMap<Key, CompletableFuture<FetchStats>> inFlight = new ConcurrentHashMap<Key, CompletableFuture<FetchStats>>();
+	private final ConcurrentMap<Key, Completed> completed = new ConcurrentHashMap<Key, Completed>();
+	
+	/**
+	 * Creates a coalescer that only shares in-flight fetches
+	 */
+	public FetchCoalescer() {
+		this(0);
+	}
+	
+	/**
+	 * Creates a coalescer that shares in-flight fetches and the ones that finished recently.
+	 * @param freshnessMillis how long (in ms) the result of a finished fetch can be reused. <code>0</code> disables it
+	 */
+	public FetchCoalescer(long freshnessMillis) {
+		this.freshnessMillis = freshnessMillis;
+	}
+	
+	/**
+	 * Executes the fetch, unless an identical one is in progress (or finished within the freshness window).
+	 * 
+	 * @param gitDir git directory of the repository
+	 * @param remoteName name of the remote
+	 * @param options options of the fetch (the progress listener is ignored when comparing)
+	 * @param fetcher performs the actual fetch
+	 * @return the result of the fetch (possibly the one performed for another caller)
+	 * @throws GitClientException if the fetch fails
+	 */
+	public FetchStats fetch(File gitDir, String remoteName, FetchOptions options, Supplier<FetchStats> fetcher) throws GitClientException {
+		Key key = new Key(canonicalPath(gitDir), remoteName, options);
+		
+		if(freshnessMillis > 0) {
+			long now = System.currentTimeMillis();
+			// Expired results are dropped, so the map only holds the fetches of the last window
+			completed.entrySet().removeIf(entry -> now - entry.getValue().finishedAt > freshnessMillis);
+			
+			Completed last = completed.get(key);
+			if(last != null) {
+				log.debug("Reusing fetch of " + remoteName + " finished " + (now - last.finishedAt) + "ms ago");
+				return last.stats;
+			}
+		}
+		
+		CompletableFuture<FetchStats> mine = new CompletableFuture<FetchStats>();
+		CompletableFuture<FetchStats> running = inFlight.putIfAbsent(key, mine);
+		if(running != null) {
+			log.debug("Joining in-flight fetch of " + remoteName);
+			return await(running);
+		}
+		
+		try {
+			FetchStats stats = fetcher.get();
+			// Registered before leaving the in-flight map, so no caller can miss both
+			if(freshnessMillis > 0) completed.put(key, new Completed(stats, System.currentTimeMillis()));
+			mine.complete(stats);
+			return stats;
+		} catch(RuntimeException | Error e) {
+			// Errors too, otherwise the callers that joined would wait forever
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, mine);
+		}
+	}
+	
+	private static FetchStats await(CompletableFuture<FetchStats> running) throws GitClientException {
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GitClientException("Interrupted while waiting for fetch", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof GitClientException) throw (GitClientException) e.getCause();
+			throw new GitClientException("Error while fetching from remote", e.getCause());
+		}
+	}
+	
+	private static String canonicalPath(File gitDir) {
+		try {
+			return gitDir.getCanonicalPath();
+		} catch (IOException e) {
+			return gitDir.getAbsolutePath();
+		}
+	}
+	
+	/**
+	 * Identifies a fetch. The options are copied, so later changes to the caller's instance do not affect it.
+	 */
+	@EqualsAndHashCode
+	private static class Key {
+		private final String gitDir;
+		private final String remoteName;
+		private final List<String> refSpecs;
+		private final int depth;
+		private final Long deepenSince;
+		private final boolean prune;
+		private final FetchOptions.TagMode tagMode;
+		
+		Key(String gitDir, String remoteName, FetchOptions options) {
+			this.gitDir = gitDir;
+			this.remoteName = remoteName;
+			this.refSpecs = (options.getRefSpecs() != null ? Collections.unmodifiableList(new ArrayList<String>(options.getRefSpecs())) : null);
+			this.depth = options.getDepth();
+			this.deepenSince = (options.getDeepenSince() != null ? options.getDeepenSince().getTime() : null);
+			this.prune = options.isPrune();
+			this.tagMode = options.getTagMode();
+		}
+	}
+	
+	private static class Completed {
+		private final FetchStats stats;
+		private final long finishedAt;
+		
+		Completed(FetchStats stats, long finishedAt) {
+			this.stats = stats;
+			this.finishedAt = finishedAt;
+		}
+	}
+}
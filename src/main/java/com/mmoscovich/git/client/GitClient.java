@@ -1,10 +1,39 @@
 package com.mmoscovich.git.client;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+import com.mmoscovich.git.client.model.AheadBehind;
+import com.mmoscovich.git.client.model.ChangedPath;
+import com.mmoscovich.git.client.model.CloneOptions;
+import com.mmoscovich.git.client.model.CommitOptions;
+import com.mmoscovich.git.client.model.CommitQuery;
+import com.mmoscovich.git.client.model.DescribeResult;
+import com.mmoscovich.git.client.model.DiffOptions;
+import com.mmoscovich.git.client.model.DiffStats;
+import com.mmoscovich.git.client.model.FetchOptions;
+import com.mmoscovich.git.client.model.FetchStats;
 import com.mmoscovich.git.client.model.GitCommit;
 import com.mmoscovich.git.client.model.GitUser;
+import com.mmoscovich.git.client.model.GrepMatch;
+import com.mmoscovich.git.client.model.GrepOptions;
+import com.mmoscovich.git.client.model.HistoryOptions;
+import com.mmoscovich.git.client.model.InMemoryMergeResult;
+import com.mmoscovich.git.client.model.MergeOptions;
+import com.mmoscovich.git.client.model.PathFilter;
+import com.mmoscovich.git.client.model.PushOptions;
+import com.mmoscovich.git.client.model.PushRefResult;
+import com.mmoscovich.git.client.model.TagSpec;
+import com.mmoscovich.git.client.model.TreeEntry;
 
 /**
  * Git Client interface
@@ -61,6 +90,17 @@ public interface GitClient extends AutoCloseable {
 	 * @throws GitClientException if no repository is found in that directory
 	 */
 	void loadRepo(File gitDir) throws GitClientException;
+	
+	/**
+	 * Clones a remote repository into the specified directory and loads it.
+	 * <br>NOTE: Shallow clones (depth) are not supported on Native Java client.
+	 * 
+	 * @param url url of the repository to clone
+	 * @param dir directory where to clone (must not exist or be empty)
+	 * @param options clone options (branch, depth, bare, reference, etc)
+	 * @throws GitClientException if the directory is not empty or there is a problem while cloning
+	 */
+	void cloneRepo(String url, File dir, CloneOptions options) throws GitClientException;
 
 //	/**
 //	 * Initializes the adapter, using the repo on the current working directory or above.
@@ -141,6 +181,35 @@ public interface GitClient extends AutoCloseable {
 	 */
 	String findFirstTag(String tagPrefix) throws GitClientException;
 	
+	/**
+	 * Looks for the latest <strong>local</strong> tag that starts with the provided prefix, without sorting all the tags.
+	 * @param tagPrefix the prefix to search for. If <code>null</code>, all the tags are considered
+	 * @param comparator order of the tags, the greatest one is the latest (eg. by version). If <code>null</code>, names are compared
+	 * @return the latest tag name or <code>null</code> if none is found.
+	 * @throws GitClientException if there is a problem while searching
+	 */
+	String findLatestTag(String tagPrefix, Comparator<String> comparator) throws GitClientException;
+	
+	/**
+	 * Looks for the latest <strong>local</strong> tags that start with the provided prefix, keeping only the best ones
+	 * instead of sorting all the tags.
+	 * @param tagPrefix the prefix to search for. If <code>null</code>, all the tags are considered
+	 * @param comparator order of the tags, the greatest one is the latest (eg. by version). If <code>null</code>, names are compared
+	 * @param limit max amount of tags to return
+	 * @return the latest tag names, from the latest to the oldest
+	 * @throws GitClientException if there is a problem while searching
+	 */
+	List<String> findLatestTags(String tagPrefix, Comparator<String> comparator, int limit) throws GitClientException;
+	
+	/**
+	 * Finds the nearest tag reachable from a revision, like <code>git describe --tags</code>.
+	 * @param revision revision to describe (branch, tag or hash). If <code>null</code>, HEAD is described
+	 * @param tagPrefix prefix of the tags to consider. If <code>null</code>, all the tags are considered
+	 * @return the nearest tag and its distance, or <code>null</code> if no tag is reachable
+	 * @throws GitClientException if the revision is not found or there is a problem walking the history
+	 */
+	DescribeResult describe(String revision, String tagPrefix) throws GitClientException;
+	
 	/**
 	 * Looks for a <strong>local</strong> tag with exactly the provided name
 	 * @param tagName the name to search for
@@ -191,6 +260,22 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void stageFiles(List<String> filenames);
 	
+	/**
+	 * Adds files to commit list.
+	 * <br>The paths are consumed lazily, so huge lists don't need to be in memory.
+	 * 
+	 * @param filenames files to include
+	 */
+	void stageFiles(Iterator<String> filenames);
+	
+	/**
+	 * Adds files to commit list.
+	 * <br>The paths are consumed lazily, so huge lists don't need to be in memory.
+	 * 
+	 * @param filenames files to include
+	 */
+	void stageFiles(Stream<String> filenames);
+	
 	/**
 	 * Commits the staged changes on the current branch using the provided message 
 	 * @param message commit message
@@ -198,6 +283,37 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void commit(final String message) throws GitClientException;
 	
+	/**
+	 * Commits on the current branch without scanning the whole working tree, so it takes the same time regardless of the size of the repository.
+	 * <br>The commit is created from the index (as <code>write-tree</code> and <code>commit-tree</code>), so hooks are not run.
+	 * It cannot conclude an operation in progress (eg. a merge or a cherry-pick), so it fails while there is one: {@link #commit(String)} must be used instead.
+	 * The branch is moved only if nobody moved it meanwhile.
+	 * @param message commit message
+	 * @param options what to commit (the staged changes or only some paths) and the author and committer
+	 * @return the hash of the new commit
+	 * @throws GitClientException if there is nothing to commit, there are unmerged paths, an operation is in progress, the branch was moved concurrently or there is a problem while commiting
+	 */
+	String commit(String message, CommitOptions options) throws GitClientException;
+	
+	/**
+	 * Commits changes to files of a branch without using the working tree or the index, so it works on bare repositories.
+	 * <br>The new tree is built from the tree of the last commit of the branch, replacing only the changed paths,
+	 * and the branch is moved only if it still points to that commit (if it was moved concurrently, it fails and nothing is updated).
+	 * Commits to different branches can be done concurrently.
+	 * <br>If the branch is checked out, its working tree and index are <b>not</b> updated.
+	 * If the resulting tree is the same, no commit is created.
+	 *
+	 * @param branch name of the branch (eg. <code>master</code>), that must exist
+	 * @param changes content of the added or modified files, by path relative to the root (the previous mode is kept, eg. executable)
+	 * @param deletions files or directories to delete (paths relative to the root). May be <code>null</code>
+	 * @param message commit message
+	 * @param author author and committer of the commit. If <code>null</code>, the configured user is used
+	 * @return the id of the new commit (or the current one, if nothing changed)
+	 * @throws GitClientException if the branch does not exist, a file replaces a directory or the other way around,
+	 * the branch was moved concurrently or there is a problem while commiting
+	 */
+	String commitFiles(String branch, Map<String, byte[]> changes, Set<String> deletions, String message, GitUser author) throws GitClientException;
+	
 	
 	/**
 	 * Merges the current branch with the one specified, using the default message in the commit.
@@ -229,6 +345,29 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void mergeNoff(final String branchName) throws GitClientException;
 	
+	/**
+	 * Checks if a revision can be merged into another one without conflicts.
+	 * <br>The merge is done without the working tree or the index, and nothing is committed.
+	 * @param target revision to merge into (eg. a branch)
+	 * @param source revision to merge
+	 * @return <code>true</code> if there are no conflicts
+	 * @throws GitClientException if any of the revisions does not exist or there is a problem while merging
+	 */
+	boolean canMergeCleanly(String target, String source) throws GitClientException;
+	
+	/**
+	 * Merges a revision into a branch without using the working tree or the index, so it works on bare repositories.
+	 * <br>If there are conflicts, nothing is committed and they are returned. Otherwise, the branch is moved to the merge commit
+	 * (or fast-forwarded) only if it still points to the same commit, so merges into different branches can be done concurrently.
+	 * <br>If the branch is checked out, its working tree and index are <b>not</b> updated.
+	 * @param target name of the branch to merge into (eg. <code>develop</code>), that must exist
+	 * @param source revision to merge (eg. a branch)
+	 * @param options message, author and fast-forward mode. If <code>null</code>, the defaults are used
+	 * @return the result of the merge, with the conflicting paths if there were any
+	 * @throws GitClientException if any of the revisions does not exist, the branch was moved concurrently or there is a problem while merging
+	 */
+	InMemoryMergeResult mergeInMemory(String target, String source, MergeOptions options) throws GitClientException;
+	
 	/**
 	 * Creates a tag.
 	 * 
@@ -238,6 +377,26 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void tag(final String tagName, final String message) throws GitClientException;
 	
+	/**
+	 * Creates many tags at once.
+	 * <br>All the tag objects are written together and all the refs are created in a single update,
+	 * so either every tag is created or none is (if a partial update cannot be reverted, the error names the tags left behind).
+	 * 
+	 * @param tags specs of the tags to create, by tag name
+	 * @throws GitClientException if any of the tags already exists, a target cannot be resolved or there is a problem while tagging
+	 */
+	void createTags(Map<String, TagSpec> tags) throws GitClientException;
+	
+	/**
+	 * Creates many branches at once (without checking them out).
+	 * <br>All the refs are created in a single update, so either every branch is created or none is
+	 * (if a partial update cannot be reverted, the error names the branches left behind).
+	 * 
+	 * @param branches start point of each new branch (branch, tag or hash), by branch name. A <code>null</code> start point means HEAD.
+	 * @throws GitClientException if any of the branches already exists, a start point cannot be resolved or there is a problem while creating them
+	 */
+	void createBranches(Map<String, String> branches) throws GitClientException;
+	
 	/**
 	 * Deletes a <strong>local</strong> branch
 	 * @param branchName branch to delete
@@ -246,6 +405,17 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void branchDelete(final String branchName, boolean force) throws GitClientException;
 	
+	/**
+	 * Deletes many <strong>local</strong> branches in a single ref update.
+	 * <br>A branch that cannot be deleted (eg. not found, not merged or current branch) does not prevent the rest from being deleted.
+	 * 
+	 * @param branchNames branches to delete
+	 * @param force whether to force (-D) or not (-d)
+	 * @return the branches that could not be deleted with the reason, or an empty map if all were deleted
+	 * @throws GitClientException if there is a problem while deleting
+	 */
+	Map<String, String> branchDelete(final Collection<String> branchNames, boolean force) throws GitClientException;
+	
 	/**
 	 * Checks is the current branch contains uncommited changes.
 	 * <br>NOTE: Command Line version currently ignores the parameter.
@@ -263,6 +433,24 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void fetch() throws GitClientException;
 	
+	/**
+	 * Fetches from remote using the provided options.
+	 * <br>NOTE: Shallow fetches (depth or deepen since) are not supported on Native Java client.
+	 * 
+	 * @param options fetch options (remote, refspecs, depth, prune, tags, progress)
+	 * @return the statistics of the fetch
+	 * @throws GitClientException if there is a problem while fetching
+	 */
+	FetchStats fetch(FetchOptions options) throws GitClientException;
+	
+	/**
+	 * Sets the coalescer used to share concurrent fetches on the same repository.
+	 * <br>To coalesce fetches performed by different clients (eg. one per thread), they must use the same instance.
+	 * 
+	 * @param fetchCoalescer the coalescer, or <code>null</code> to always perform the fetch (default)
+	 */
+	void setFetchCoalescer(FetchCoalescer fetchCoalescer);
+	
 	/**
 	 * Pulls a remote branch
 	 * @param branchName branch to pull
@@ -277,6 +465,38 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void push(final String branchName) throws GitClientException;
 	
+	/**
+	 * Pulls a remote branch without checking it out.
+	 * <br>If the branch is not the current one, only the local ref is fast-forwarded (the working tree is not touched).
+	 * If it is the current one, a fast-forward only merge is done.
+	 * 
+	 * @param remoteName name of the remote. If <code>null</code>, it defaults to "origin"
+	 * @param branchName branch to pull
+	 * @throws GitClientException if the branch does not exist on the remote, it cannot be fast-forwarded or there is a problem while pulling
+	 */
+	void pullBranch(String remoteName, final String branchName) throws GitClientException;
+	
+	/**
+	 * Pulls many remote branches without checking them out, using a single fetch.
+	 * <br>Branches that are not the current one are updated by fast-forwarding the local ref (the working tree is not touched).
+	 * The current branch gets a fast-forward only merge. Missing local branches are created.
+	 * 
+	 * @param remoteName name of the remote. If <code>null</code>, it defaults to "origin"
+	 * @param branchNames branches to pull
+	 * @return the branches that could not be updated with the reason (eg. not a fast-forward), or an empty map if all were updated
+	 * @throws GitClientException if there is a problem while fetching
+	 */
+	Map<String, String> pullBranches(String remoteName, final Collection<String> branchNames) throws GitClientException;
+	
+	/**
+	 * Pushes a branch to remote without checking it out (ie. pushes <code>refs/heads/{branchName}</code> directly).
+	 * 
+	 * @param remoteName name of the remote. If <code>null</code>, it defaults to "origin"
+	 * @param branchName branch to push
+	 * @throws GitClientException if the push is rejected or there is a problem while pushing
+	 */
+	void pushBranch(String remoteName, final String branchName) throws GitClientException;
+	
 	
 	/**
 	 * Pushes a tag to remote
@@ -285,6 +505,17 @@ public interface GitClient extends AutoCloseable {
 	 */
 	void pushTag(String tagName) throws GitClientException;
 	
+	/**
+	 * Pushes many refs to remote in a single push (ie. one connection, one negotiation and one pack).
+	 * 
+	 * @param remoteName name of the remote. If <code>null</code>, it defaults to "origin"
+	 * @param refSpecs refs to push. Can be names (eg. <code>v1.0</code>, <code>refs/heads/develop</code>) or refspecs (eg. <code>+refs/heads/a:refs/heads/b</code>)
+	 * @param options push options
+	 * @return the result of each pushed ref
+	 * @throws GitClientException if the push could not be performed (rejected refs are reported in the result)
+	 */
+	List<PushRefResult> pushRefs(String remoteName, Collection<String> refSpecs, PushOptions options) throws GitClientException;
+	
 	
 	/**
 	 * Retrieves the current branch <strong>short</strong> name (ie without Git-specific parts)
@@ -301,6 +532,38 @@ public interface GitClient extends AutoCloseable {
 	 */
 	Boolean remoteBranchExists(String branchName) throws GitClientException;
 	
+	/**
+	 * Lists the refs of a remote without fetching (like <code>ls-remote</code>), so no objects are transferred.
+	 * <br>The advertised refs are cached per remote during a TTL (see {@link #setRemoteRefsTtl(long)}),
+	 * so repeated calls cost one round trip per TTL.
+	 * 
+	 * @param remoteName name or url of the remote. If <code>null</code>, it defaults to "origin"
+	 * @param prefix prefix of the refs to return (eg. "refs/heads/"). If <code>null</code>, all the refs are returned
+	 * @return map of full ref name to object id, sorted by name
+	 * @throws GitClientException if there is a problem listing the remote refs
+	 */
+	Map<String, String> listRemoteRefs(String remoteName, String prefix) throws GitClientException;
+	
+	/**
+	 * Checks whether a branch exists on the remote, asking the remote itself instead of looking
+	 * at the local remote-tracking branches (which may be stale).
+	 * 
+	 * @param remoteName name or url of the remote. If <code>null</code>, it defaults to "origin"
+	 * @param branchName name of the branch (without <code>refs/heads/</code>)
+	 * @param maxAgeMillis max age (in ms) of the cached remote refs that can be used. <code>0</code> always asks the remote
+	 * @return <code>true</code> if it exists, <code>false</code> otherwise.
+	 * @throws GitClientException if there is a problem listing the remote refs
+	 */
+	boolean remoteBranchExists(String remoteName, String branchName, long maxAgeMillis) throws GitClientException;
+	
+	/**
+	 * Sets how long the refs listed from each remote are reused by {@link #listRemoteRefs(String, String)}.
+	 * <br>The cache is discarded when pushing.
+	 * 
+	 * @param ttlMillis time (in ms). Default is 30 seconds. <code>0</code> disables the cache
+	 */
+	void setRemoteRefsTtl(long ttlMillis);
+	
 	/**
 	 * Retrieves a config entry for the repository by key
 	 * @param name key of the configuration
@@ -325,6 +588,87 @@ public interface GitClient extends AutoCloseable {
 	 * @return the info of the last commit 
 	 */
 	GitCommit getLastCommit(String branchName);
+	
+	/**
+	 * Checks whether a commit is reachable from another one (a commit is considered its own ancestor).
+	 * @param ancestor revision of the possible ancestor (branch, tag or hash)
+	 * @param descendant revision of the possible descendant (branch, tag or hash)
+	 * @return <code>true</code> if <code>ancestor</code> is an ancestor of <code>descendant</code>
+	 * @throws GitClientException if a revision is not found or there is a problem walking the history
+	 */
+	boolean isAncestor(String ancestor, String descendant) throws GitClientException;
+	
+	/**
+	 * Finds the best common ancestor of two revisions.
+	 * @param revision1 a revision (branch, tag or hash)
+	 * @param revision2 the other revision (branch, tag or hash)
+	 * @return the hash of the merge base, or <code>null</code> if they have no common history
+	 * @throws GitClientException if a revision is not found or there is a problem walking the history
+	 */
+	String mergeBase(String revision1, String revision2) throws GitClientException;
+	
+	/**
+	 * Counts the commits a revision is ahead and behind a base (eg. a branch and its upstream).
+	 * @param revision the revision (branch, tag or hash)
+	 * @param base the base revision (branch, tag or hash)
+	 * @return the amount of commits ahead and behind
+	 * @throws GitClientException if a revision is not found or there is a problem walking the history
+	 */
+	AheadBehind aheadBehind(String revision, String base) throws GitClientException;
+	
+	/**
+	 * Counts the commits each branch is ahead and behind a base, walking the history only once for all of them.
+	 * @param base the base revision (branch, tag or hash)
+	 * @param branches branches (or any revision) to compare with the base
+	 * @return map of each branch to its counts, in the same order
+	 * @throws GitClientException if a revision is not found or there is a problem walking the history
+	 */
+	Map<String, AheadBehind> aheadBehindAll(String base, Collection<String> branches) throws GitClientException;
+	
+	/**
+	 * Looks for the <strong>local</strong> branches that contain a commit (ie. the commit is reachable from the branch).
+	 * @param revision the commit to look for (branch, tag or hash)
+	 * @return the names of the branches
+	 * @throws GitClientException if the revision is not found or there is a problem walking the history
+	 */
+	List<String> branchesContaining(String revision) throws GitClientException;
+	
+	/**
+	 * Looks for the tags that contain a commit (ie. the commit is reachable from the tag).
+	 * @param revision the commit to look for (branch, tag or hash)
+	 * @return the names of the tags
+	 * @throws GitClientException if the revision is not found or there is a problem walking the history
+	 */
+	List<String> tagsContaining(String revision) throws GitClientException;
+	
+	/**
+	 * Looks for the <strong>local</strong> branches that are fully merged into a target (ie. reachable from it).
+	 * <br>If the target is a branch that matches the prefix, it is also included.
+	 * @param target revision the branches should be merged into (branch, tag or hash)
+	 * @param branchPrefix prefix of the branches to check. If <code>null</code>, all the branches are checked
+	 * @return the names of the merged branches
+	 * @throws GitClientException if the target is not found or there is a problem walking the history
+	 */
+	List<String> findMergedBranches(String target, String branchPrefix) throws GitClientException;
+	
+	/**
+	 * Enables the use of a persisted commit-graph index for reachability queries (ancestor, merge base, ahead/behind),
+	 * so they do not need to parse the commits.
+	 * <br>On the Native Java client, the index is stored in <code>{gitDir}/git-client/commit-graph</code> and commits
+	 * are added as queries find them. On the command line client, enabling it writes git's own commit-graph (see {@link #writeCommitGraph()}),
+	 * which git uses whenever it exists.
+	 * 
+	 * @param enabled <code>true</code> to use the index, <code>false</code> to walk the history (default)
+	 * @throws GitClientException if there is a problem loading or writing the index
+	 */
+	void setCommitGraphEnabled(boolean enabled) throws GitClientException;
+	
+	/**
+	 * Adds all the commits reachable from any ref to the commit-graph index (only the ones not indexed yet) and persists it.
+	 * <br>It enables the index if it was not enabled.
+	 * @throws GitClientException if there is a problem writing the index
+	 */
+	void writeCommitGraph() throws GitClientException;
 
 	
 	/**
@@ -362,4 +706,116 @@ public interface GitClient extends AutoCloseable {
 	 * @return the list of staged files (files that will be commited).
 	 */
 	List<String> getStagedFiles();
+	
+	/**
+	 * Lists the staged files (files that will be commited), comparing the index with HEAD.
+	 * <br>Directories that were not changed are skipped without comparing their files.
+	 * Renamed files are listed as the old and the new path.
+	 * @param filter paths to include or exclude. If <code>null</code>, all the paths are included
+	 * @return the paths of the staged files
+	 * @throws GitClientException if there is a problem reading the index
+	 */
+	List<String> getStagedFiles(PathFilter filter) throws GitClientException;
+	
+	/**
+	 * Counts the staged files (files that will be commited), without building the list.
+	 * @param filter paths to include or exclude. If <code>null</code>, all the paths are included
+	 * @return amount of staged files
+	 * @throws GitClientException if there is a problem reading the index
+	 * @see #getStagedFiles(PathFilter)
+	 */
+	int countStagedFiles(PathFilter filter) throws GitClientException;
+	
+	/**
+	 * Opens the content of a file at a revision, without checking it out. The content is streamed, not loaded in memory.
+	 * <br>The stream must be closed. Many threads may read concurrently.
+	 * @param revision revision to read from (branch, tag or hash). If <code>null</code>, HEAD is used
+	 * @param path path of the file, relative to the root of the repository
+	 * @return the content of the file
+	 * @throws GitClientException if the revision or the file is not found, or there is a problem reading it
+	 */
+	InputStream openFile(String revision, String path) throws GitClientException;
+	
+	/**
+	 * Retrieves the size of a file at a revision, without reading its content.
+	 * @param revision revision to read from (branch, tag or hash). If <code>null</code>, HEAD is used
+	 * @param path path of the file, relative to the root of the repository
+	 * @return the size in bytes
+	 * @throws GitClientException if the revision or the file is not found, or there is a problem reading it
+	 */
+	long fileSize(String revision, String path) throws GitClientException;
+	
+	/**
+	 * Lists the entries of a directory at a revision, without checking it out.
+	 * <br>Entries are produced lazily as the stream is consumed, so memory does not depend on the size of the tree.
+	 * The stream should be closed (eg. try-with-resources) if it is not fully consumed.
+	 * @param revision revision to list (branch, tag or hash). If <code>null</code>, HEAD is used
+	 * @param path directory to list, relative to the root of the repository. If <code>null</code>, the root is listed
+	 * @param recursive <code>true</code> to list the files of all the subdirectories (directories are not included), 
+	 * <code>false</code> to list only the direct entries (files, directories and submodules)
+	 * @return the entries, or an empty stream if the directory does not exist
+	 * @throws GitClientException if the revision is not found or there is a problem reading the tree
+	 */
+	Stream<TreeEntry> listTree(String revision, String path, boolean recursive) throws GitClientException;
+	
+	/**
+	 * Lists the files that changed between two revisions (name and status only, contents are never read).
+	 * <br>Directories whose content is the same on both revisions are skipped without reading them, so small changes
+	 * on big trees are fast. Renames are reported as a deletion and an addition.
+	 * <br>Paths are produced lazily. The stream should be closed (eg. try-with-resources) if it is not fully consumed.
+	 * @param from the old revision (branch, tag or hash)
+	 * @param to the new revision (branch, tag or hash). If <code>null</code>, HEAD is used
+	 * @param filter paths to include or exclude. If <code>null</code>, all the paths are included
+	 * @return the changed paths
+	 * @throws GitClientException if a revision is not found or there is a problem comparing them
+	 */
+	Stream<ChangedPath> changedPaths(String from, String to, PathFilter filter) throws GitClientException;
+	
+	/**
+	 * Writes the unified patch between two revisions to a stream, file by file, so big patches are never held in memory.
+	 * @param from the old revision (branch, tag or hash)
+	 * @param to the new revision (branch, tag or hash). If <code>null</code>, HEAD is used
+	 * @param options context lines, rename detection, binary files and paths. If <code>null</code>, the defaults are used
+	 * @param out stream where the patch is written (it is not closed)
+	 * @return amount of files and changed lines in the patch
+	 * @throws GitClientException if a revision is not found or there is a problem writing the patch
+	 */
+	DiffStats diff(String from, String to, DiffOptions options, OutputStream out) throws GitClientException;
+	
+	/**
+	 * Lists the commits that changed any of the provided paths, newest first.
+	 * <br>Commits are read lazily, as the stream is consumed, and the walk stops as soon as the limit or
+	 * the date are reached. The stream should be closed (eg. try-with-resources) if it is not fully consumed.
+	 * @param revision where the history starts (branch, tag or hash). If <code>null</code>, HEAD is used
+	 * @param paths files or directories, relative to the root of the repository. If empty, all the commits are returned
+	 * @param options limit, date and rename following. If <code>null</code>, the whole history is returned
+	 * @return the commits
+	 * @throws GitClientException if the revision is not found, or renames are followed for more than one path
+	 */
+	Stream<GitCommit> fileHistory(String revision, Collection<String> paths, HistoryOptions options) throws GitClientException;
+	
+	/**
+	 * Searches the commits that match all the criteria of a query (message, author, committer, dates and paths).
+	 * <br>The JGit client splits the work across threads and returns the commits as they are found, so they are not
+	 * in history order and, with a limit, any of the matching commits may be returned.
+	 * <br>The stream should be closed (eg. try-with-resources) if it is not fully consumed, so the search is stopped.
+	 * @param query search criteria
+	 * @return the matching commits
+	 * @throws GitClientException if a revision is not found or there is a problem reading the commits
+	 */
+	Stream<GitCommit> searchCommits(CommitQuery query) throws GitClientException;
+	
+	/**
+	 * Searches a pattern in the lines of the files of a revision, reading them from the repository (without checkout).
+	 * <br>Binary files and files bigger than the max size are skipped. The JGit client reads the files in parallel
+	 * and returns the lines as they are found, so the lines of each file are in order, but the files are not.
+	 * <br>The stream should be closed (eg. try-with-resources) if it is not fully consumed, so the search is stopped.
+	 * @param revision revision to search (branch, tag, hash or tree). If <code>null</code>, HEAD is used
+	 * @param pattern pattern searched in each line. The command line client passes it to Git as an extended
+	 * regular expression, so only that syntax should be used
+	 * @param options max file size, paths, limit and threads. If <code>null</code>, the defaults are used
+	 * @return the matching lines
+	 * @throws GitClientException if the revision is not found or there is a problem reading the files
+	 */
+	Stream<GrepMatch> grep(String revision, Pattern pattern, GrepOptions options) throws GitClientException;
 }
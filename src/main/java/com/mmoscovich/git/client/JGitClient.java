@@ -1,14 +1,42 @@
 package com.mmoscovich.git.client;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CheckoutCommand;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand;
 import org.eclipse.jgit.api.ListTagCommand;
@@ -17,29 +45,121 @@ import org.eclipse.jgit.api.MergeCommand;
 import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
 import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.PullCommand;
+import org.eclipse.jgit.api.PushCommand;
 import org.eclipse.jgit.api.RemoteAddCommand;
 import org.eclipse.jgit.api.RemoteSetUrlCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.errors.UnmergedPathException;
+import org.eclipse.jgit.internal.storage.file.RefDirectory;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
 import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.FollowFilter;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.TrackingRefUpdate;
 import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.QuotedString;
 import org.eclipse.jgit.util.StringUtils;
 
+import com.mmoscovich.git.client.graph.AheadBehindCounter;
+import com.mmoscovich.git.client.graph.CommitGraphIndex;
+import com.mmoscovich.git.client.graph.TagCommitMap;
+import com.mmoscovich.git.client.model.AheadBehind;
+import com.mmoscovich.git.client.model.ChangedPath;
+import com.mmoscovich.git.client.model.CloneOptions;
+import com.mmoscovich.git.client.model.CommitOptions;
+import com.mmoscovich.git.client.model.CommitQuery;
+import com.mmoscovich.git.client.model.DescribeResult;
+import com.mmoscovich.git.client.model.DiffOptions;
+import com.mmoscovich.git.client.model.DiffStats;
+import com.mmoscovich.git.client.model.FetchOptions;
+import com.mmoscovich.git.client.model.FetchStats;
 import com.mmoscovich.git.client.model.GitCommit;
+import com.mmoscovich.git.client.model.ProgressListener;
 import com.mmoscovich.git.client.model.GitUser;
+import com.mmoscovich.git.client.model.GrepMatch;
+import com.mmoscovich.git.client.model.GrepOptions;
+import com.mmoscovich.git.client.model.HistoryOptions;
+import com.mmoscovich.git.client.model.InMemoryMergeResult;
+import com.mmoscovich.git.client.model.MergeOptions;
+import com.mmoscovich.git.client.model.PathFilter;
+import com.mmoscovich.git.client.model.PushOptions;
+import com.mmoscovich.git.client.model.PushRefResult;
+import com.mmoscovich.git.client.model.TagSpec;
+import com.mmoscovich.git.client.model.TreeEntry;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class JGitClient implements GitClient {
+	/** Max amount of paths staged on each index update */
+	private static final int STAGE_BATCH_SIZE = 5000;
+	/** Location of the commit graph index, relative to the git directory */
+	private static final String COMMIT_GRAPH_FILE = "git-client/commit-graph";
+	/** Margin used when commit times are used to stop walking the history, since clocks may be skewed */
+	private static final int CLOCK_SKEW_SECONDS = 24 * 60 * 60;
+	/** Max amount of tagged commits considered when describing (same as git) */
+	private static final int MAX_DESCRIBE_CANDIDATES = 10;
+	/** Amount of tree entries read (and sizes looked up) together when listing a tree */
+	private static final int TREE_BATCH_SIZE = 1024;
+	
 	private Git git;
+	private FetchCoalescer fetchCoalescer;
+	private CommitGraphIndex commitGraph;
+	private TagCommitMap tagCommits = new TagCommitMap();
+	private final RemoteRefCache remoteRefCache = new RemoteRefCache();
 	
 	@Override
 	public void loadRepo() throws GitClientException {
@@ -57,7 +177,7 @@ public class JGitClient implements GitClient {
 		
 			if (null != gitDir) {
 				log.debug("Found existing git folder. Initializing");
-				this.git = Git.open(gitDir);
+				this.replaceRepository(Git.open(gitDir));
 			} else {
 				throw new GitClientException("No Git Repository found on the specified directory");
 			}
@@ -66,6 +186,158 @@ public class JGitClient implements GitClient {
 		}
 	}
 	
+	/**
+	 * Switches to another repository, closing the current one.
+	 * <br>The commit graph index of the current one is saved, and the caches built from it (including the remote refs) are dropped.
+	 * If the index was enabled, the one of the new repository is used.
+	 * @param git the new repository
+	 */
+	private void replaceRepository(Git git) throws GitClientException {
+		boolean commitGraphEnabled = (this.commitGraph != null);
+		try {
+			if(commitGraphEnabled && !this.isClosed()) this.saveCommitGraph();
+		} finally {
+			if(!this.isClosed()) this.git.close();
+			this.git = git;
+			this.commitGraph = null;
+			this.tagCommits = new TagCommitMap();
+			// Keyed by remote name, so the refs of the previous repository's remotes would be returned
+			this.remoteRefCache.invalidateAll();
+		}
+		if(commitGraphEnabled) this.setCommitGraphEnabled(true);
+	}
+	
+	@Override
+	public void cloneRepo(String url, File dir, CloneOptions options) throws GitClientException {
+		if(options == null) options = new CloneOptions();
+		if(options.getDepth() > 0) throw new GitClientException("Shallow clone is not supported on Native Java client");
+		// Checked here because the manual clone would init on top of it and JGit's clone reports it with an unchecked exception
+		String[] existing = dir.list();
+		if(existing != null && existing.length > 0) throw new GitClientException("Cannot clone " + url + ": directory " + dir + " is not empty");
+		String remoteName = (options.getRemote() != null ? options.getRemote() : Constants.DEFAULT_REMOTE_NAME);
+		
+		try {
+			StatsProgressMonitor monitor = new StatsProgressMonitor(options.getProgressListener());
+			String branch = options.getBranch();
+			if(options.isSingleBranch() && branch == null) {
+				branch = findHeadBranch(Git.lsRemoteRepository().setRemote(url).call());
+				if(branch == null) throw new GitClientException("Cannot clone a single branch of " + url + ": its HEAD does not point to a branch, a branch must be given");
+			}
+			
+			Git clone;
+			if(options.getReference() != null || options.isNoCheckout()) {
+				clone = this.cloneManually(url, dir, remoteName, branch, options, monitor);
+			} else {
+				CloneCommand cmd = Git.cloneRepository()
+					.setURI(url)
+					.setDirectory(dir)
+					.setRemote(remoteName)
+					.setBare(options.isBare())
+					.setNoCheckout(options.isNoCheckout())
+					.setProgressMonitor(monitor);
+				if(branch != null) cmd.setBranch(Constants.R_HEADS + branch);
+				if(options.isSingleBranch()) {
+					cmd.setCloneAllBranches(false);
+					cmd.setBranchesToClone(Collections.singletonList(Constants.R_HEADS + branch));
+				}
+				clone = cmd.call();
+			}
+			
+			this.replaceRepository(clone);
+		} catch (GitAPIException | IOException | URISyntaxException e) {
+			throw new GitClientException("Error while cloning " + url, e);
+		}
+	}
+	
+	/**
+	 * Clones a repository step by step (init, fetch, create the branch and checkout).
+	 * <br>Used for the cases JGit's clone command can't handle:
+	 * <ul>
+	 * <li>Reusing the objects of a local repository (like <code>git clone --reference</code>): the alternates must be
+	 * configured before fetching, so the tips of the reference repository are sent as "haves" and only the missing objects are transferred.</li>
+	 * <li>No checkout: JGit's clone skips creating the local branch too, while the command line only skips updating the working tree.</li>
+	 * </ul>
+	 */
+	private Git cloneManually(String url, File dir, String remoteName, String branch, CloneOptions options, ProgressMonitor monitor) throws GitAPIException, IOException, URISyntaxException {
+		Git clone = Git.init().setDirectory(dir).setBare(options.isBare()).call();
+		Repository repo = clone.getRepository();
+		
+		if(options.getReference() != null) {
+			File referenceObjects = new File(options.getReference(), Constants.DOT_GIT + "/objects");
+			if(!referenceObjects.isDirectory()) referenceObjects = new File(options.getReference(), "objects");
+			File alternates = new File(repo.getDirectory(), "objects/info/alternates");
+			alternates.getParentFile().mkdirs();
+			Files.write(alternates.toPath(), (referenceObjects.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		
+		// Bare clones map the remote branches directly to local ones, like the command line does
+		String source = Constants.R_HEADS + (options.isSingleBranch() ? branch : "*");
+		String destination = (options.isBare() ? source : Constants.R_REMOTES + remoteName + "/" + (options.isSingleBranch() ? branch : "*"));
+		RefSpec spec = new RefSpec("+" + source + ":" + destination);
+		
+		StoredConfig config = repo.getConfig();
+		RemoteConfig remote = new RemoteConfig(config, remoteName);
+		remote.addURI(new URIish(url));
+		if(!options.isBare()) remote.addFetchRefSpec(spec);
+		remote.update(config);
+		config.save();
+		
+		FetchResult result = clone.fetch()
+			.setRemote(remoteName)
+			.setRefSpecs(spec)
+			.setTagOpt(options.isSingleBranch() ? TagOpt.AUTO_FOLLOW : TagOpt.FETCH_TAGS)
+			.setProgressMonitor(monitor)
+			.call();
+		
+		if(branch == null) branch = findHeadBranch(result.getAdvertisedRefs());
+		if(branch == null) return clone;
+		Ref remoteBranch = result.getAdvertisedRef(Constants.R_HEADS + branch);
+		if(remoteBranch == null) throw new GitClientException("Remote branch " + branch + " not found");
+		
+		if(!options.isBare()) {
+			RefUpdate branchUpdate = repo.updateRef(Constants.R_HEADS + branch);
+			branchUpdate.setNewObjectId(remoteBranch.getObjectId());
+			branchUpdate.forceUpdate();
+			
+			config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_REMOTE, remoteName);
+			config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_MERGE, Constants.R_HEADS + branch);
+			config.save();
+		}
+		repo.updateRef(Constants.HEAD).link(Constants.R_HEADS + branch);
+		
+		if(!options.isBare() && !options.isNoCheckout()) {
+			try(RevWalk rw = new RevWalk(repo)) {
+				RevCommit commit = rw.parseCommit(remoteBranch.getObjectId());
+				new DirCacheCheckout(repo, repo.lockDirCache(), commit.getTree()).checkout();
+			}
+		}
+		return clone;
+	}
+	
+	/**
+	 * Finds the branch the remote HEAD points to.
+	 * @param advertisedRefs refs advertised by the remote
+	 * @return the branch name or <code>null</code> if there is no HEAD
+	 */
+	private static String findHeadBranch(Collection<Ref> advertisedRefs) {
+		Ref head = null;
+		for(Ref ref : advertisedRefs) {
+			if(ref.getName().equals(Constants.HEAD)) head = ref;
+		}
+		if(head == null || head.getObjectId() == null) return null;
+		if(head.isSymbolic()) return Repository.shortenRefName(head.getTarget().getName());
+		
+		// Old protocols don't report where HEAD points to, so a branch on the same commit is used (preferring master)
+		String branch = null;
+		for(Ref ref : advertisedRefs) {
+			if(ref.getName().startsWith(Constants.R_HEADS) && head.getObjectId().equals(ref.getObjectId())) {
+				if(ref.getName().equals(Constants.R_HEADS + Constants.MASTER)) return Constants.MASTER;
+				if(branch == null) branch = Repository.shortenRefName(ref.getName());
+			}
+		}
+		return branch;
+	}
+	
 	@Override
 	public List<String> findTags(String tagPrefix) throws GitClientException {
 		List<String> tags = new ArrayList<String>();
@@ -165,6 +437,83 @@ public class JGitClient implements GitClient {
 		return tags.get(0);
 	}
 	
+	@Override
+	public String findLatestTag(String tagPrefix, Comparator<String> comparator) throws GitClientException {
+		List<String> tags = this.findLatestTags(tagPrefix, comparator, 1);
+		return (tags.isEmpty() ? null : tags.get(0));
+	}
+	
+	@Override
+	public List<String> findLatestTags(String tagPrefix, Comparator<String> comparator, int limit) throws GitClientException {
+		try {
+			Set<String> names = this.git.getRepository().getRefDatabase().getRefs(Constants.R_TAGS).keySet();
+			return LatestTags.select(names, tagPrefix, comparator, limit);
+		} catch (IOException e) {
+			throw new GitClientException("Error while searching tags", e);
+		}
+	}
+	
+	@Override
+	public DescribeResult describe(String revision, String tagPrefix) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		try(RevWalk rw = new RevWalk(repo)) {
+			rw.setRetainBody(false);
+			RevCommit start = rw.parseCommit(this.resolveRevision(revision));
+			Map<ObjectId, List<String>> tags = this.tagCommits.get(repo);
+			
+			// Breadth-first walk, without going past tagged commits (their ancestors are further),
+			// until enough candidates are found. The nearest is the one with less commits in between
+			// (git estimates it while walking, so it may pick a different one on merge-heavy histories)
+			List<RevCommit> candidates = new ArrayList<RevCommit>();
+			List<String> candidateTags = new ArrayList<String>();
+			RevFlag seen = rw.newFlag("seen");
+			Deque<RevCommit> queue = new ArrayDeque<RevCommit>();
+			queue.add(start);
+			start.add(seen);
+			while(!queue.isEmpty() && candidates.size() < MAX_DESCRIBE_CANDIDATES) {
+				RevCommit commit = queue.poll();
+				String tag = latestTag(tags.get(commit), tagPrefix);
+				if(tag != null) {
+					if(commit == start) return new DescribeResult(tag, 0, start.name());
+					candidates.add(commit);
+					candidateTags.add(tag);
+					continue;
+				}
+				for(RevCommit parent : commit.getParents()) {
+					if(parent.has(seen)) continue;
+					rw.parseHeaders(parent);
+					parent.add(seen);
+					queue.add(parent);
+				}
+			}
+			
+			DescribeResult best = null;
+			for(int c = 0; c < candidates.size(); c++) {
+				int distance;
+				if(this.commitGraph != null) {
+					try(ObjectReader reader = repo.newObjectReader()) {
+						distance = this.commitGraph.aheadBehind(reader, start, candidates.get(c))[0];
+					}
+				} else {
+					distance = countExclusive(rw, start, candidates.get(c));
+				}
+				if(best == null || distance < best.getDistance()) best = new DescribeResult(candidateTags.get(c), distance, start.name());
+			}
+			return best;
+		} catch (IOException e) {
+			throw new GitClientException("Error while describing " + revision, e);
+		}
+	}
+	
+	/**
+	 * @return the greatest of the tags (of the same commit) that start with the prefix, or <code>null</code> if none does
+	 */
+	private static String latestTag(List<String> tags, String tagPrefix) {
+		if(tags == null) return null;
+		List<String> latest = LatestTags.select(tags, tagPrefix, null, 1);
+		return (latest.isEmpty() ? null : latest.get(0));
+	}
+	
 	@Override
 	public String findTag(String tagName) throws GitClientException {
 		log.debug("Searching for tag " + tagName);
@@ -182,6 +531,40 @@ public class JGitClient implements GitClient {
         return false;
 	}
 	
+	@Override
+	public Map<String, String> listRemoteRefs(String remoteName, String prefix) throws GitClientException {
+		if(remoteName == null) remoteName = Constants.DEFAULT_REMOTE_NAME;
+		return RemoteRefCache.filter(this.getRemoteRefs(remoteName, remoteRefCache.getTtlMillis()), prefix);
+	}
+	
+	@Override
+	public boolean remoteBranchExists(String remoteName, String branchName, long maxAgeMillis) throws GitClientException {
+		if(remoteName == null) remoteName = Constants.DEFAULT_REMOTE_NAME;
+		return this.getRemoteRefs(remoteName, maxAgeMillis).containsKey(Constants.R_HEADS + branchName);
+	}
+	
+	@Override
+	public void setRemoteRefsTtl(long ttlMillis) {
+		remoteRefCache.setTtlMillis(ttlMillis);
+	}
+	
+	/**
+	 * Returns the refs advertised by the remote (using the cache if they are recent enough)
+	 */
+	private Map<String, String> getRemoteRefs(final String remoteName, long maxAgeMillis) throws GitClientException {
+		return remoteRefCache.get(remoteName, maxAgeMillis, () -> {
+			try {
+				Map<String, String> refs = new HashMap<String, String>();
+				for(Ref ref : this.git.lsRemote().setRemote(remoteName).call()) {
+					if(ref.getObjectId() != null) refs.put(ref.getName(), ref.getObjectId().name());
+				}
+				return refs;
+			} catch (GitAPIException e) {
+				throw new GitClientException("Error while listing refs of remote " + remoteName, e);
+			}
+		});
+	}
+	
 
 	@Override
 	public void checkout(String branchName) throws GitClientException {
@@ -222,6 +605,217 @@ public class JGitClient implements GitClient {
 
 	}
 	
+	@Override
+	public String commit(String message, CommitOptions options) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		boolean onlyPaths = (options.getMode() == CommitOptions.Mode.ONLY_PATHS);
+		List<String> paths = normalizePaths(options.getPaths());
+		if(onlyPaths && paths.isEmpty()) throw new GitClientException("No paths to commit");
+		// The extra parent of a merge (or the state of a cherry-pick, rebase...) would be silently lost
+		RepositoryState state = repo.getRepositoryState();
+		if(state != RepositoryState.SAFE && state != RepositoryState.BARE) {
+			throw new GitClientException("Cannot commit with an operation in progress (" + state.getDescription() + "), use commit(message) to conclude it");
+		}
+		
+		try(ObjectInserter inserter = repo.newObjectInserter(); ObjectReader reader = inserter.newReader(); RevWalk rw = new RevWalk(reader)) {
+			ObjectId headId = repo.resolve(Constants.HEAD + "^{commit}");
+			RevCommit head = (headId != null ? rw.parseCommit(headId) : null);
+			
+			ObjectId treeId;
+			if(onlyPaths) {
+				// Only the paths are walked to stage them (including new and deleted files)
+				AddCommand add = this.git.add();
+				AddCommand update = null;
+				for(String path : paths) {
+					add.addFilepattern(path);
+					// Deleted files are only staged by an update, which rewrites the index again (so only when there can be any)
+					if(!new File(repo.getWorkTree(), path).isFile()) {
+						if(update == null) update = this.git.add().setUpdate(true);
+						update.addFilepattern(path);
+					}
+				}
+				add.call();
+				if(update != null) update.call();
+				treeId = this.writeTreeOfPaths(reader, inserter, head, new HashSet<String>(paths));
+			} else {
+				treeId = repo.readDirCache().writeTree(inserter);
+			}
+			
+			ObjectId headTree = (head != null ? head.getTree() : inserter.idFor(Constants.OBJ_TREE, new byte[0]));
+			if(treeId.equals(headTree)) throw new GitClientException("Nothing to commit");
+			
+			PersonIdent author = (options.getAuthor() != null ? new PersonIdent(options.getAuthor().getName(), options.getAuthor().getEmail()) : new PersonIdent(repo));
+			PersonIdent committer = (options.getCommitter() != null ? new PersonIdent(options.getCommitter().getName(), options.getCommitter().getEmail()) : new PersonIdent(repo));
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(treeId);
+			if(head != null) commit.setParentId(head);
+			commit.setAuthor(author);
+			commit.setCommitter(committer);
+			commit.setMessage(message);
+			ObjectId commitId = inserter.insert(commit);
+			inserter.flush();
+			
+			this.updateRef(rw, Constants.HEAD, head, commitId, committer, (head != null ? "commit: " : "commit (initial): ") + message.split("\\r?\\n", 2)[0]);
+			return commitId.getName();
+		} catch (UnmergedPathException e) {
+			throw new GitClientException("Cannot commit with unmerged paths", e);
+		} catch (IOException e) {
+			throw new GitClientException("Error while commiting", e);
+		} catch (GitAPIException e) {
+			throw new GitClientException("Error while staging the paths to commit", e);
+		}
+	}
+	
+	/**
+	 * Writes the tree of the last commit, with the staged version of some paths.
+	 * <br>The index is only edited in memory, putting back the version of the last commit of the other paths with staged changes,
+	 * so the changes staged on them are kept and only those entries are touched.
+	 * @param head last commit (<code>null</code> if the branch is unborn)
+	 * @param paths files or directories taken from the index
+	 * @return the id of the tree
+	 */
+	private ObjectId writeTreeOfPaths(ObjectReader reader, ObjectInserter inserter, RevCommit head, Set<String> paths) throws IOException {
+		DirCache index = this.git.getRepository().readDirCache();
+		DirCacheEditor editor = index.editor();
+		try(TreeWalk tw = new TreeWalk(reader)) {
+			if(head != null) tw.addTree(head.getTree());
+			else tw.addTree(new EmptyTreeIterator());
+			tw.addTree(new DirCacheIterator(index));
+			// Only the staged changes are visited, the rest of the index already matches the last commit
+			tw.setFilter(TreeFilter.ANY_DIFF);
+			tw.setRecursive(true);
+			while(tw.next()) {
+				String path = tw.getPathString();
+				if(isUnder(path, paths, true)) {
+					DirCacheIterator staged = tw.getTree(1, DirCacheIterator.class);
+					if(staged != null && staged.getDirCacheEntry().getStage() != DirCacheEntry.STAGE_0) throw new UnmergedPathException(staged.getDirCacheEntry());
+				} else if(tw.getRawMode(0) == 0) {
+					editor.add(new DirCacheEditor.DeletePath(path));
+				} else {
+					FileMode mode = tw.getFileMode(0);
+					ObjectId id = tw.getObjectId(0);
+					editor.add(new DirCacheEditor.PathEdit(path) {
+						@Override
+						public void apply(DirCacheEntry entry) {
+							entry.setFileMode(mode);
+							entry.setObjectId(id);
+						}
+					});
+				}
+			}
+		}
+		editor.finish();
+		return index.writeTree(inserter);
+	}
+	
+	@Override
+	public String commitFiles(String branch, Map<String, byte[]> changes, Set<String> deletions, String message, GitUser author) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+		for(Map.Entry<String, byte[]> change : changes.entrySet()) {
+			files.put(change.getKey().replaceAll("^/+|/+$", ""), change.getValue());
+		}
+		Set<String> deleted = (deletions != null ? new HashSet<String>(normalizePaths(deletions)) : Collections.<String>emptySet());
+		
+		// Directories that will contain the files
+		Set<String> dirs = new HashSet<String>();
+		for(String path : files.keySet()) {
+			for(int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) dirs.add(path.substring(0, i));
+		}
+		
+		try(ObjectInserter inserter = repo.newObjectInserter(); ObjectReader reader = inserter.newReader(); RevWalk rw = new RevWalk(reader)) {
+			Ref ref = repo.exactRef(Constants.R_HEADS + branch);
+			if(ref == null) throw new GitClientException("Branch '" + branch + "' not found");
+			RevCommit parent = rw.parseCommit(ref.getObjectId());
+			
+			// The index only lives in memory, the one of the repository is not touched
+			DirCache index = DirCache.newInCore();
+			DirCacheBuilder builder = index.builder();
+			Map<String, FileMode> previousModes = new HashMap<String, FileMode>();
+			try(TreeWalk tw = new TreeWalk(reader)) {
+				tw.addTree(parent.getTree());
+				tw.setRecursive(true);
+				while(tw.next()) {
+					String path = tw.getPathString();
+					if(isUnder(path, deleted, true)) continue;
+					if(files.containsKey(path)) {
+						previousModes.put(path, tw.getFileMode(0));
+						continue;
+					}
+					if(isUnder(path, files.keySet(), false)) throw new GitClientException("Cannot replace directory with file: " + path);
+					if(dirs.contains(path)) throw new GitClientException("Cannot replace file with directory: " + path);
+					
+					DirCacheEntry entry = new DirCacheEntry(path);
+					entry.setFileMode(tw.getFileMode(0));
+					entry.setObjectId(tw.getObjectId(0));
+					builder.add(entry);
+				}
+			}
+			
+			for(Map.Entry<String, byte[]> file : files.entrySet()) {
+				DirCacheEntry entry = new DirCacheEntry(file.getKey());
+				entry.setFileMode(FileMode.EXECUTABLE_FILE.equals(previousModes.get(file.getKey())) ? FileMode.EXECUTABLE_FILE : FileMode.REGULAR_FILE);
+				entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, file.getValue()));
+				builder.add(entry);
+			}
+			builder.finish();
+			
+			ObjectId treeId = index.writeTree(inserter);
+			if(treeId.equals(parent.getTree())) return parent.getName();
+			
+			PersonIdent ident = (author != null ? new PersonIdent(author.getName(), author.getEmail()) : new PersonIdent(repo));
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(treeId);
+			commit.setParentId(parent);
+			commit.setAuthor(ident);
+			commit.setCommitter(ident);
+			commit.setMessage(message);
+			ObjectId commitId = inserter.insert(commit);
+			inserter.flush();
+			
+			this.updateRef(rw, Constants.R_HEADS + branch, parent, commitId, ident, "commit: " + message.split("\\r?\\n", 2)[0]);
+			return commitId.getName();
+		} catch (IOException e) {
+			throw new GitClientException("Error while commiting files", e);
+		}
+	}
+	
+	/**
+	 * Moves a ref forward, only if nobody moved it meanwhile (compare-and-swap)
+	 * @param rw walk used to check the new commit descends from the current one
+	 * @param refName full name of the ref (eg. <code>refs/heads/master</code>), or <code>HEAD</code> to update the current branch
+	 * @param expected commit the ref must point to. If <code>null</code>, the ref must not exist (eg. an unborn branch)
+	 * @param newId new commit of the ref
+	 * @param ident user of the reflog entry
+	 * @param reflogMessage message of the reflog entry
+	 * @throws GitClientException if the ref was moved concurrently or it could not be updated
+	 */
+	private void updateRef(RevWalk rw, String refName, ObjectId expected, ObjectId newId, PersonIdent ident, String reflogMessage) throws IOException, GitClientException {
+		RefUpdate update = this.git.getRepository().updateRef(refName);
+		update.setExpectedOldObjectId(expected != null ? expected : ObjectId.zeroId());
+		update.setNewObjectId(newId);
+		update.setRefLogIdent(ident);
+		update.setRefLogMessage(reflogMessage, false);
+		RefUpdate.Result result = update.update(rw);
+		String branch = Repository.shortenRefName(update.getRef().getLeaf().getName());
+		if(result == RefUpdate.Result.LOCK_FAILURE) throw new GitClientException("Branch '" + branch + "' was updated concurrently");
+		if(result != RefUpdate.Result.FAST_FORWARD && result != RefUpdate.Result.NEW) throw new GitClientException("Error while updating branch '" + branch + "': " + result);
+	}
+	
+	/**
+	 * Checks if a path is under any of the directories
+	 * @param path the path
+	 * @param dirs the directories
+	 * @param orSame whether a path equal to one of them matches
+	 */
+	private static boolean isUnder(String path, Set<String> dirs, boolean orSame) {
+		if(orSame && dirs.contains(path)) return true;
+		for(int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+			if(dirs.contains(path.substring(0, i))) return true;
+		}
+		return false;
+	}
+	
 	@Override
 	public void merge(String branchToMerge, boolean rebase, boolean noff, boolean squash) throws GitClientException {
 		this.merge(branchToMerge, rebase, noff, squash, null);
@@ -262,6 +856,76 @@ public class JGitClient implements GitClient {
 		this.merge(branchToMerge, false, true, false);
 
 	}
+	
+	@Override
+	public boolean canMergeCleanly(String target, String source) throws GitClientException {
+		try {
+			ObjectId targetId = this.resolveRevision(target + "^{commit}");
+			ObjectId sourceId = this.resolveRevision(source + "^{commit}");
+			return newInCoreMerger(this.git.getRepository()).merge(targetId, sourceId);
+		} catch (IOException e) {
+			throw new GitClientException("Error while merging", e);
+		}
+	}
+	
+	@Override
+	public InMemoryMergeResult mergeInMemory(String target, String source, MergeOptions options) throws GitClientException {
+		if(options == null) options = new MergeOptions();
+		Repository repo = this.git.getRepository();
+		
+		try(RevWalk rw = new RevWalk(repo)) {
+			Ref ref = repo.exactRef(Constants.R_HEADS + target);
+			if(ref == null) throw new GitClientException("Branch '" + target + "' not found");
+			RevCommit head = rw.parseCommit(ref.getObjectId());
+			RevCommit merged = rw.parseCommit(this.resolveRevision(source));
+			PersonIdent ident = (options.getAuthor() != null ? new PersonIdent(options.getAuthor().getName(), options.getAuthor().getEmail()) : new PersonIdent(repo));
+			
+			if(this.isAncestor(merged.getName(), head.getName())) {
+				return new InMemoryMergeResult(InMemoryMergeResult.Status.UP_TO_DATE, head.getName(), Collections.<String>emptyList());
+			}
+			if(!options.isNoFastForward() && this.isAncestor(head.getName(), merged.getName())) {
+				this.updateRef(rw, Constants.R_HEADS + target, head, merged, ident, "merge " + source + ": Fast-forward");
+				return new InMemoryMergeResult(InMemoryMergeResult.Status.FAST_FORWARD, merged.getName(), Collections.<String>emptyList());
+			}
+			
+			ResolveMerger merger = newInCoreMerger(repo);
+			if(!merger.merge(head, merged)) {
+				List<String> conflicts = new ArrayList<String>(merger.getUnmergedPaths());
+				if(merger.getFailingPaths() != null) conflicts.addAll(merger.getFailingPaths().keySet());
+				return new InMemoryMergeResult(InMemoryMergeResult.Status.CONFLICTING, head.getName(), conflicts);
+			}
+			
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(merger.getResultTreeId());
+			commit.setParentIds(head, merged);
+			commit.setAuthor(ident);
+			commit.setCommitter(ident);
+			if(options.getMessage() != null) {
+				commit.setMessage(options.getMessage());
+			} else {
+				String kind = (repo.exactRef(Constants.R_HEADS + source) != null ? "branch" : "commit");
+				commit.setMessage("Merge " + kind + " '" + source + "' into " + target);
+			}
+			ObjectId commitId;
+			try(ObjectInserter inserter = repo.newObjectInserter()) {
+				commitId = inserter.insert(commit);
+				inserter.flush();
+			}
+			
+			this.updateRef(rw, Constants.R_HEADS + target, head, commitId, ident, "merge " + source + ": Merge made by recursive.");
+			return new InMemoryMergeResult(InMemoryMergeResult.Status.MERGED, commitId.getName(), Collections.<String>emptyList());
+		} catch (IOException e) {
+			throw new GitClientException("Error while merging", e);
+		}
+	}
+	
+	/**
+	 * Creates a merger that works only with the object database (the working tree and the index are never used).
+	 * <br>Each one has its own reader and inserter, so many merges can run in parallel.
+	 */
+	private static ResolveMerger newInCoreMerger(Repository repo) {
+		return (ResolveMerger) MergeStrategy.RECURSIVE.newMerger(repo, true);
+	}
 
 	@Override
 	public void tag(String tagName, String message) throws GitClientException {
@@ -273,6 +937,153 @@ public class JGitClient implements GitClient {
 
 	}
 
+	@Override
+	public void createTags(Map<String, TagSpec> tags) throws GitClientException {
+		if(tags.isEmpty()) return;
+		
+		Repository repo = this.git.getRepository();
+		try(ObjectInserter inserter = repo.newObjectInserter(); RevWalk rw = new RevWalk(repo)) {
+			PersonIdent defaultTagger = new PersonIdent(repo);
+			List<ReceiveCommand> commands = new ArrayList<ReceiveCommand>();
+			
+			for(Map.Entry<String, TagSpec> entry : tags.entrySet()) {
+				String refName = Constants.R_TAGS + entry.getKey();
+				TagSpec spec = entry.getValue();
+				ObjectId targetId = this.resolveRevision(spec.getTarget());
+				
+				ObjectId refTarget = targetId;
+				if(!spec.isLightweight()) {
+					RevObject target = rw.parseAny(targetId);
+					
+					TagBuilder tag = new TagBuilder();
+					tag.setTag(entry.getKey());
+					tag.setObjectId(target);
+					tag.setMessage(spec.getMessage() != null ? spec.getMessage() : "");
+					tag.setTagger(spec.getTagger() != null ? new PersonIdent(spec.getTagger().getName(), spec.getTagger().getEmail()) : defaultTagger);
+					refTarget = inserter.insert(tag);
+				}
+				commands.add(new ReceiveCommand(ObjectId.zeroId(), refTarget, refName, ReceiveCommand.Type.CREATE));
+			}
+			
+			// All tag objects are written at once, before any ref points to them
+			inserter.flush();
+			this.updateRefsAtomically(commands);
+		} catch (IOException e) {
+			throw new GitClientException("Error while tagging", e);
+		}
+	}
+	
+	@Override
+	public void createBranches(Map<String, String> branches) throws GitClientException {
+		if(branches.isEmpty()) return;
+		
+		try(RevWalk rw = new RevWalk(this.git.getRepository())) {
+			List<ReceiveCommand> commands = new ArrayList<ReceiveCommand>();
+			
+			for(Map.Entry<String, String> entry : branches.entrySet()) {
+				RevCommit startPoint = rw.parseCommit(this.resolveRevision(entry.getValue()));
+				commands.add(new ReceiveCommand(ObjectId.zeroId(), startPoint, Constants.R_HEADS + entry.getKey(), ReceiveCommand.Type.CREATE));
+			}
+			
+			this.updateRefsAtomically(commands);
+		} catch (IOException e) {
+			throw new GitClientException("Error while creating branches", e);
+		}
+	}
+	
+	/**
+	 * Resolves a revision expression to an object id.
+	 * @param revision branch, tag or hash. If <code>null</code>, HEAD is used
+	 * @return the object id
+	 * @throws GitClientException if the revision does not exist
+	 */
+	private ObjectId resolveRevision(String revision) throws IOException, GitClientException {
+		if(revision == null) revision = Constants.HEAD;
+		ObjectId id = this.git.getRepository().resolve(revision);
+		if(id == null) throw new GitClientException("Revision '" + revision + "' not found");
+		return id;
+	}
+	
+	/**
+	 * Applies all the ref updates in a single batch.
+	 * <br>When the ref database does not support atomic transactions (ie. file based refs), the updates
+	 * that succeeded are reverted if any other fails, so either all refs are updated or none.
+	 * The file based database also writes each ref as a loose file, so they are packed after the batch.
+	 * 
+	 * @param commands updates to apply
+	 * @throws GitClientException if any of the updates fails (naming the refs that could not be reverted, if any)
+	 */
+	private void updateRefsAtomically(List<ReceiveCommand> commands) throws IOException, GitClientException {
+		Repository repo = this.git.getRepository();
+		for(ReceiveCommand cmd : commands) {
+			if(!Repository.isValidRefName(cmd.getRefName())) throw new GitClientException("Invalid ref name: " + cmd.getRefName());
+		}
+		
+		boolean atomic = repo.getRefDatabase().performsAtomicTransactions();
+		BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+		batch.setAtomic(atomic);
+		batch.setAllowNonFastForwards(true);
+		batch.addCommand(commands);
+		
+		try(RevWalk rw = new RevWalk(repo)) {
+			batch.execute(rw, NullProgressMonitor.INSTANCE);
+			
+			List<ReceiveCommand> failed = new ArrayList<ReceiveCommand>();
+			List<ReceiveCommand> rollback = new ArrayList<ReceiveCommand>();
+			for(ReceiveCommand cmd : commands) {
+				if(cmd.getResult() == ReceiveCommand.Result.OK) {
+					rollback.add(new ReceiveCommand(cmd.getNewId(), cmd.getOldId(), cmd.getRefName()));
+				} else {
+					failed.add(cmd);
+				}
+			}
+			if(failed.isEmpty()) {
+				this.packRefs(commands);
+				return;
+			}
+			
+			List<String> leftBehind = new ArrayList<String>();
+			if(!atomic && !rollback.isEmpty()) {
+				BatchRefUpdate revert = repo.getRefDatabase().newBatchUpdate();
+				revert.setAllowNonFastForwards(true);
+				revert.addCommand(rollback);
+				revert.execute(rw, NullProgressMonitor.INSTANCE);
+				for(ReceiveCommand cmd : rollback) {
+					if(cmd.getResult() != ReceiveCommand.Result.OK) leftBehind.add(cmd.getRefName());
+				}
+			}
+			
+			String errors = failed.stream()
+				.map(cmd -> cmd.getRefName() + " (" + cmd.getResult() + (cmd.getMessage() != null ? ": " + cmd.getMessage() : "") + ")")
+				.collect(Collectors.joining(", "));
+			if(!leftBehind.isEmpty()) {
+				throw new GitClientException("Error while updating refs, these could not be reverted: " + String.join(", ", leftBehind) + ". Failed: " + errors);
+			}
+			throw new GitClientException("Error while updating refs, no ref was changed. Failed: " + errors);
+		}
+	}
+
+	/**
+	 * Moves the refs written by a batch into <code>packed-refs</code>, so many new refs do not leave as many loose files.
+	 * <br>Only file based ref databases keep loose refs. The refs are already updated, so a failure is just logged.
+	 * 
+	 * @param commands updates that were applied
+	 */
+	private void packRefs(List<ReceiveCommand> commands) {
+		RefDatabase refDatabase = this.git.getRepository().getRefDatabase();
+		if(!(refDatabase instanceof RefDirectory)) return;
+		
+		List<String> refNames = new ArrayList<String>();
+		for(ReceiveCommand cmd : commands) {
+			if(cmd.getType() != ReceiveCommand.Type.DELETE) refNames.add(cmd.getRefName());
+		}
+		try {
+			((RefDirectory) refDatabase).pack(refNames);
+		} catch (IOException e) {
+			log.warn("Could not pack the updated refs, they are kept as loose refs", e);
+		}
+	}
+
 	@Override
 	public void branchDelete(String branchName, boolean force) throws GitClientException {
 		try {
@@ -282,6 +1093,59 @@ public class JGitClient implements GitClient {
 		}
 	}
 
+	@Override
+	public Map<String, String> branchDelete(Collection<String> branchNames, boolean force) throws GitClientException {
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		if(branchNames.isEmpty()) return failures;
+		
+		Repository repo = this.git.getRepository();
+		try(RevWalk rw = new RevWalk(repo)) {
+			String currentBranch = repo.getFullBranch();
+			ObjectId headId = repo.resolve(Constants.HEAD);
+			RevCommit head = (headId != null ? rw.parseCommit(headId) : null);
+			
+			Map<String, ReceiveCommand> commands = new LinkedHashMap<String, ReceiveCommand>();
+			for(String branchName : branchNames) {
+				String refName = Constants.R_HEADS + branchName;
+				Ref ref = repo.getRefDatabase().exactRef(refName);
+				
+				if(ref == null) {
+					failures.put(branchName, "Branch not found");
+				} else if(refName.equals(currentBranch)) {
+					failures.put(branchName, "Cannot delete the current branch");
+				} else if(!force && (head == null || !rw.isMergedInto(rw.parseCommit(ref.getObjectId()), head))) {
+					// The walk is shared, so commits already parsed for one branch are reused for the next
+					failures.put(branchName, "Branch is not fully merged");
+				} else {
+					commands.put(branchName, new ReceiveCommand(ref.getObjectId(), ObjectId.zeroId(), refName, ReceiveCommand.Type.DELETE));
+				}
+			}
+			if(commands.isEmpty()) return failures;
+			
+			BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+			batch.setAllowNonFastForwards(true);
+			batch.addCommand(commands.values());
+			batch.execute(rw, NullProgressMonitor.INSTANCE);
+			
+			StoredConfig config = repo.getConfig();
+			boolean configChanged = false;
+			for(Map.Entry<String, ReceiveCommand> entry : commands.entrySet()) {
+				ReceiveCommand cmd = entry.getValue();
+				if(cmd.getResult() != ReceiveCommand.Result.OK) {
+					failures.put(entry.getKey(), cmd.getResult() + (cmd.getMessage() != null ? ": " + cmd.getMessage() : ""));
+				} else if(config.getSubsections(ConfigConstants.CONFIG_BRANCH_SECTION).contains(entry.getKey())) {
+					config.unsetSection(ConfigConstants.CONFIG_BRANCH_SECTION, entry.getKey());
+					configChanged = true;
+				}
+			}
+			if(configChanged) config.save();
+			
+			return failures;
+		} catch (IOException e) {
+			throw new GitClientException("Error while deleting branches", e);
+		}
+	}
+
 	@Override
 	public void setConfig(String name, String value) throws GitClientException {
 		if(name == null || value == null) throw new GitClientException("Neither the config attribute name nor value can be null");
@@ -332,6 +1196,7 @@ public class JGitClient implements GitClient {
 		try {
 			this.checkout(branchName);
 			this.git.push().call();
+			remoteRefCache.invalidateAll();
 		} catch (GitAPIException e) {
 			throw new GitClientException("Error while pushing branch: " + branchName, e);
 		}
@@ -342,11 +1207,143 @@ public class JGitClient implements GitClient {
 		try {
 			
 			this.git.push().add(Constants.R_TAGS + tagName).call();
+			remoteRefCache.invalidate(Constants.DEFAULT_REMOTE_NAME);
 		} catch (GitAPIException e) {
 			throw new GitClientException("Error while pushing tag: " + tagName, e);
 		}
 	}
 	
+	@Override
+	public void pushBranch(String remoteName, String branchName) throws GitClientException {
+		String refName = Constants.R_HEADS + branchName;
+		for(PushRefResult result : this.pushRefs(remoteName, Collections.singletonList(refName + ":" + refName), null)) {
+			if(!result.isSuccessful()) throw new GitClientException("Error while pushing branch: " + branchName + " (" + result.getStatus() + ")");
+		}
+	}
+	
+	@Override
+	public void pullBranch(String remoteName, String branchName) throws GitClientException {
+		Map<String, String> failures = this.pullBranches(remoteName, Collections.singletonList(branchName));
+		if(!failures.isEmpty()) throw new GitClientException("Error while pulling branch: " + branchName + " (" + failures.get(branchName) + ")");
+	}
+	
+	@Override
+	public Map<String, String> pullBranches(String remoteName, Collection<String> branchNames) throws GitClientException {
+		if(remoteName == null) remoteName = Constants.DEFAULT_REMOTE_NAME;
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		if(branchNames.isEmpty()) return failures;
+		
+		Repository repo = this.git.getRepository();
+		String trackingPrefix = Constants.R_REMOTES + remoteName + "/";
+		try(RevWalk rw = new RevWalk(repo)) {
+			// Fetching a missing branch fails the whole fetch, so only the existing ones are requested
+			Map<String, Ref> remoteRefs = this.git.lsRemote().setRemote(remoteName).setHeads(true).callAsMap();
+			List<RefSpec> specs = new ArrayList<RefSpec>();
+			for(String branchName : branchNames) {
+				if(remoteRefs.containsKey(Constants.R_HEADS + branchName)) {
+					specs.add(new RefSpec("+" + Constants.R_HEADS + branchName + ":" + trackingPrefix + branchName));
+				} else {
+					failures.put(branchName, "Branch not found on remote " + remoteName);
+				}
+			}
+			if(specs.isEmpty()) return failures;
+			
+			FetchResult fetchResult = this.git.fetch().setRemote(remoteName).setRefSpecs(specs).call();
+			
+			String currentBranch = repo.getFullBranch();
+			Map<String, ReceiveCommand> commands = new LinkedHashMap<String, ReceiveCommand>();
+			for(String branchName : branchNames) {
+				if(failures.containsKey(branchName)) continue;
+				
+				String refName = Constants.R_HEADS + branchName;
+				RevCommit remoteTip = rw.parseCommit(fetchResult.getAdvertisedRef(refName).getObjectId());
+				Ref local = repo.getRefDatabase().exactRef(refName);
+				
+				if(refName.equals(currentBranch)) {
+					// The current branch is the only one that needs the working tree to be updated
+					MergeResult result = this.git.merge().include(remoteTip).setFastForward(FastForwardMode.FF_ONLY).call();
+					if(!result.getMergeStatus().isSuccessful()) failures.put(branchName, "Not a fast-forward (" + result.getMergeStatus() + ")");
+				} else if(local == null) {
+					commands.put(branchName, new ReceiveCommand(ObjectId.zeroId(), remoteTip, refName, ReceiveCommand.Type.CREATE));
+				} else if(!local.getObjectId().equals(remoteTip)) {
+					RevCommit localTip = rw.parseCommit(local.getObjectId());
+					if(rw.isMergedInto(localTip, remoteTip)) {
+						commands.put(branchName, new ReceiveCommand(local.getObjectId(), remoteTip, refName, ReceiveCommand.Type.UPDATE));
+					} else if(!rw.isMergedInto(remoteTip, localTip)) {
+						// A branch ahead of the remote is already up to date, like the current one with a fast-forward only merge
+						failures.put(branchName, "Not a fast-forward");
+					}
+				}
+			}
+			if(commands.isEmpty()) return failures;
+			
+			BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+			batch.addCommand(commands.values());
+			batch.execute(rw, NullProgressMonitor.INSTANCE);
+			for(Map.Entry<String, ReceiveCommand> entry : commands.entrySet()) {
+				ReceiveCommand cmd = entry.getValue();
+				if(cmd.getResult() != ReceiveCommand.Result.OK) {
+					failures.put(entry.getKey(), cmd.getResult() + (cmd.getMessage() != null ? ": " + cmd.getMessage() : ""));
+				}
+			}
+			return failures;
+		} catch (GitAPIException | IOException e) {
+			throw new GitClientException("Error while pulling from " + remoteName, e);
+		}
+	}
+	
+	@Override
+	public List<PushRefResult> pushRefs(String remoteName, Collection<String> refSpecs, PushOptions options) throws GitClientException {
+		if(remoteName == null) remoteName = Constants.DEFAULT_REMOTE_NAME;
+		if(options == null) options = new PushOptions();
+		
+		try {
+			List<RefSpec> specs = new ArrayList<RefSpec>();
+			for(String refSpec : refSpecs) {
+				specs.add(this.toPushRefSpec(refSpec));
+			}
+			
+			PushCommand cmd = this.git.push()
+				.setRemote(remoteName)
+				.setRefSpecs(specs)
+				.setAtomic(options.isAtomic())
+				.setThin(options.isThin())
+				.setForce(options.isForce())
+				.setDryRun(options.isDryRun());
+			
+			Iterable<PushResult> pushResults = cmd.call();
+			if(!options.isDryRun()) remoteRefCache.invalidate(remoteName);
+			
+			List<PushRefResult> results = new ArrayList<PushRefResult>();
+			for(PushResult result : pushResults) {
+				for(RemoteRefUpdate update : result.getRemoteUpdates()) {
+					results.add(new PushRefResult(update.getSrcRef(), update.getRemoteName(), PushRefResult.Status.valueOf(update.getStatus().name()), update.getMessage()));
+				}
+			}
+			return results;
+		} catch (GitAPIException | IOException e) {
+			throw new GitClientException("Error while pushing refs to " + remoteName, e);
+		}
+	}
+	
+	/**
+	 * Builds a push refspec, expanding short names (eg. <code>v1.0</code>) to the full name of the local ref,
+	 * like the command line does.
+	 * 
+	 * @param refSpec name or refspec
+	 * @return the refspec
+	 * @throws GitClientException if the short name does not match any local ref
+	 */
+	private RefSpec toPushRefSpec(String refSpec) throws IOException, GitClientException {
+		boolean force = refSpec.startsWith("+");
+		String name = force ? refSpec.substring(1) : refSpec;
+		if(name.contains(":") || name.startsWith(Constants.R_REFS)) return new RefSpec(refSpec);
+		
+		Ref ref = this.git.getRepository().findRef(name);
+		if(ref == null) throw new GitClientException("Ref '" + name + "' not found");
+		return new RefSpec(ref.getName()).setForceUpdate(force);
+	}
+	
 	/**
      * Gets a reference to a local branch with the given name
      *
@@ -501,13 +1498,7 @@ public class JGitClient implements GitClient {
 			
 			if(revCommit == null) return null;
 			
-			GitCommit result = new GitCommit();
-			result.setHash(revCommit.name());
-			result.setMessage(revCommit.getShortMessage());
-			result.setUser(new GitUser(revCommit.getCommitterIdent().getName(), revCommit.getCommitterIdent().getEmailAddress()));
-			result.setDate(new Date(revCommit.getCommitTime() * 1000L));
-			
-			return result;
+			return toGitCommit(revCommit);
 		} catch(Exception e) {
 			throw new GitClientException("Error while retriving the last commit", e);
 		} finally {
@@ -518,7 +1509,16 @@ public class JGitClient implements GitClient {
 		}
 	}
 	
-	@Override
+	private static GitCommit toGitCommit(RevCommit revCommit) {
+		GitCommit result = new GitCommit();
+		result.setHash(revCommit.name());
+		result.setMessage(revCommit.getShortMessage());
+		result.setUser(new GitUser(revCommit.getCommitterIdent().getName(), revCommit.getCommitterIdent().getEmailAddress()));
+		result.setDate(new Date(revCommit.getCommitTime() * 1000L));
+		return result;
+	}
+	
+	@Override
 	public String getCurrentBranchName() throws GitClientException {
 		try {
 			return this.git.getRepository().getBranch();
@@ -538,6 +1538,838 @@ public class JGitClient implements GitClient {
 		}
 	}
 	
+	@Override
+	public boolean isAncestor(String ancestor, String descendant) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		try {
+			ObjectId ancestorId = this.resolveRevision(ancestor);
+			ObjectId descendantId = this.resolveRevision(descendant);
+			if(this.commitGraph != null) {
+				try(ObjectReader reader = repo.newObjectReader()) {
+					return this.commitGraph.isAncestor(reader, ancestorId, descendantId);
+				}
+			}
+			try(RevWalk rw = new RevWalk(repo)) {
+				return rw.isMergedInto(rw.parseCommit(ancestorId), rw.parseCommit(descendantId));
+			}
+		} catch (IOException e) {
+			throw new GitClientException("Error while checking if " + ancestor + " is an ancestor of " + descendant, e);
+		}
+	}
+	
+	@Override
+	public String mergeBase(String revision1, String revision2) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		try {
+			ObjectId id1 = this.resolveRevision(revision1);
+			ObjectId id2 = this.resolveRevision(revision2);
+			if(this.commitGraph != null) {
+				try(ObjectReader reader = repo.newObjectReader()) {
+					ObjectId base = this.commitGraph.mergeBase(reader, id1, id2);
+					return (base != null ? base.name() : null);
+				}
+			}
+			try(RevWalk rw = new RevWalk(repo)) {
+				rw.setRevFilter(RevFilter.MERGE_BASE);
+				rw.markStart(rw.parseCommit(id1));
+				rw.markStart(rw.parseCommit(id2));
+				RevCommit base = rw.next();
+				return (base != null ? base.name() : null);
+			}
+		} catch (IOException e) {
+			throw new GitClientException("Error while looking for the merge base of " + revision1 + " and " + revision2, e);
+		}
+	}
+	
+	@Override
+	public AheadBehind aheadBehind(String revision, String base) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		try {
+			ObjectId revisionId = this.resolveRevision(revision);
+			ObjectId baseId = this.resolveRevision(base);
+			if(this.commitGraph != null) {
+				try(ObjectReader reader = repo.newObjectReader()) {
+					int[] counts = this.commitGraph.aheadBehind(reader, revisionId, baseId);
+					return new AheadBehind(counts[0], counts[1]);
+				}
+			}
+			try(RevWalk rw = new RevWalk(repo)) {
+				rw.setRetainBody(false);
+				int ahead = countExclusive(rw, revisionId, baseId);
+				int behind = countExclusive(rw, baseId, revisionId);
+				return new AheadBehind(ahead, behind);
+			}
+		} catch (IOException e) {
+			throw new GitClientException("Error while counting commits between " + revision + " and " + base, e);
+		}
+	}
+	
+	@Override
+	public Map<String, AheadBehind> aheadBehindAll(String base, Collection<String> branches) throws GitClientException {
+		List<String> names = new ArrayList<String>(new LinkedHashSet<String>(branches));
+		Map<String, AheadBehind> result = new LinkedHashMap<String, AheadBehind>();
+		if(names.isEmpty()) return result;
+		
+		Repository repo = this.git.getRepository();
+		AheadBehindCounter counter = new AheadBehindCounter(names.size());
+		try {
+			ObjectId baseId = this.resolveRevision(base);
+			List<ObjectId> ids = new ArrayList<ObjectId>();
+			for(String name : names) ids.add(this.resolveRevision(name));
+			
+			if(this.commitGraph != null) {
+				try(ObjectReader reader = repo.newObjectReader()) {
+					this.commitGraph.aheadBehindAll(reader, baseId, ids, counter);
+				}
+			} else {
+				try(ColoredRevWalk rw = new ColoredRevWalk(repo)) {
+					rw.setRetainBody(false);
+					rw.sort(RevSort.TOPO);
+					
+					ColoredCommit baseCommit = (ColoredCommit) rw.parseCommit(baseId);
+					baseCommit.colors = counter.start(baseCommit.colors, counter.getBaseBit());
+					rw.markStart(baseCommit);
+					for(int b = 0; b < ids.size(); b++) {
+						ColoredCommit tip = (ColoredCommit) rw.parseCommit(ids.get(b));
+						tip.colors = counter.start(tip.colors, b);
+						rw.markStart(tip);
+					}
+					
+					// Topological order: all the children of a commit are visited before it
+					RevCommit commit;
+					while(!counter.isDone() && (commit = rw.next()) != null) {
+						ColoredCommit colored = (ColoredCommit) commit;
+						for(RevCommit parent : commit.getParents()) {
+							ColoredCommit coloredParent = (ColoredCommit) parent;
+							coloredParent.colors = counter.propagate(colored.colors, coloredParent.colors);
+						}
+						counter.count(colored.colors);
+						colored.colors = null;
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new GitClientException("Error while counting commits against " + base, e);
+		}
+		
+		for(int b = 0; b < names.size(); b++) result.put(names.get(b), counter.get(b));
+		return result;
+	}
+	
+	@Override
+	public List<String> branchesContaining(String revision) throws GitClientException {
+		return this.refsContaining(revision, Constants.R_HEADS);
+	}
+	
+	@Override
+	public List<String> tagsContaining(String revision) throws GitClientException {
+		return this.refsContaining(revision, Constants.R_TAGS);
+	}
+	
+	/**
+	 * Looks for the refs with the prefix that contain a commit, sharing the walk among all of them
+	 * @return the names of the refs (without the prefix)
+	 */
+	private List<String> refsContaining(String revision, String refPrefix) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		List<String> result = new ArrayList<String>();
+		try(RevWalk rw = new RevWalk(repo)) {
+			rw.setRetainBody(false);
+			RevCommit target = rw.parseCommit(this.resolveRevision(revision));
+			
+			List<String> names = new ArrayList<String>();
+			List<RevCommit> tips = new ArrayList<RevCommit>();
+			for(Map.Entry<String, Ref> entry : repo.getRefDatabase().getRefs(refPrefix).entrySet()) {
+				RevCommit tip = peelToCommit(rw, entry.getValue().getObjectId());
+				if(tip == null) continue;
+				names.add(entry.getKey());
+				tips.add(tip);
+			}
+			
+			if(this.commitGraph != null) {
+				try(ObjectReader reader = repo.newObjectReader()) {
+					BitSet containing = this.commitGraph.tipsContaining(reader, target, tips);
+					for(int t = containing.nextSetBit(0); t >= 0; t = containing.nextSetBit(t + 1)) result.add(names.get(t));
+				}
+				return result;
+			}
+			
+			// Memoized post-order DFS, so every commit is evaluated once for all the refs.
+			// Commits older than the target (with some margin for clock skew) are assumed not to contain it
+			RevFlag contains = rw.newFlag("contains");
+			RevFlag notContains = rw.newFlag("notContains");
+			target.add(contains);
+			int cutoff = target.getCommitTime() - CLOCK_SKEW_SECONDS;
+			
+			Deque<RevCommit> stack = new ArrayDeque<RevCommit>();
+			for(int t = 0; t < tips.size(); t++) {
+				stack.push(tips.get(t));
+				while(!stack.isEmpty()) {
+					RevCommit commit = stack.peek();
+					if(commit.has(contains) || commit.has(notContains)) {
+						stack.pop();
+						continue;
+					}
+					if(commit.getCommitTime() < cutoff) {
+						commit.add(notContains);
+						stack.pop();
+						continue;
+					}
+					
+					boolean pending = false, found = false;
+					for(RevCommit parent : commit.getParents()) {
+						if(parent.has(contains)) {
+							found = true;
+							break;
+						}
+						if(!parent.has(notContains)) {
+							rw.parseHeaders(parent);
+							stack.push(parent);
+							pending = true;
+						}
+					}
+					if(found || !pending) {
+						commit.add(found ? contains : notContains);
+						stack.pop();
+					}
+				}
+				if(tips.get(t).has(contains)) result.add(names.get(t));
+			}
+			return result;
+		} catch (IOException e) {
+			throw new GitClientException("Error while looking for refs containing " + revision, e);
+		}
+	}
+	
+	@Override
+	public List<String> findMergedBranches(String target, String branchPrefix) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		List<String> result = new ArrayList<String>();
+		try(RevWalk rw = new RevWalk(repo)) {
+			rw.setRetainBody(false);
+			RevCommit targetCommit = rw.parseCommit(this.resolveRevision(target));
+			
+			List<String> names = new ArrayList<String>();
+			List<RevCommit> tips = new ArrayList<RevCommit>();
+			for(Map.Entry<String, Ref> entry : repo.getRefDatabase().getRefs(Constants.R_HEADS).entrySet()) {
+				if(branchPrefix != null && !entry.getKey().startsWith(branchPrefix)) continue;
+				RevCommit tip = peelToCommit(rw, entry.getValue().getObjectId());
+				if(tip == null) continue;
+				names.add(entry.getKey());
+				tips.add(tip);
+			}
+			if(tips.isEmpty()) return result;
+			
+			if(this.commitGraph != null) {
+				try(ObjectReader reader = repo.newObjectReader()) {
+					BitSet merged = this.commitGraph.tipsReachableFrom(reader, targetCommit, tips);
+					for(int t = merged.nextSetBit(0); t >= 0; t = merged.nextSetBit(t + 1)) result.add(names.get(t));
+				}
+				return result;
+			}
+			
+			// Single walk from the target, until every tip is found or the commits are older than all of them
+			RevFlag tipFlag = rw.newFlag("tip");
+			int remaining = 0;
+			int cutoff = Integer.MAX_VALUE;
+			for(RevCommit tip : tips) {
+				if(!tip.has(tipFlag)) remaining++;
+				tip.add(tipFlag);
+				cutoff = Math.min(cutoff, tip.getCommitTime() - CLOCK_SKEW_SECONDS);
+			}
+			
+			Set<RevCommit> found = new HashSet<RevCommit>();
+			rw.markStart(targetCommit);
+			RevCommit commit;
+			while(remaining > 0 && (commit = rw.next()) != null && commit.getCommitTime() >= cutoff) {
+				if(commit.has(tipFlag)) {
+					found.add(commit);
+					remaining--;
+				}
+			}
+			
+			for(int t = 0; t < tips.size(); t++) {
+				if(found.contains(tips.get(t))) result.add(names.get(t));
+			}
+			return result;
+		} catch (IOException e) {
+			throw new GitClientException("Error while looking for branches merged into " + target, e);
+		}
+	}
+	
+	/**
+	 * Peels a ref target to the commit it points to
+	 * @return the commit, or <code>null</code> if it does not point to a commit (eg. a tag of a tree)
+	 */
+	private static RevCommit peelToCommit(RevWalk rw, ObjectId id) throws IOException {
+		if(id == null) return null;
+		RevObject object = rw.peel(rw.parseAny(id));
+		if(!(object instanceof RevCommit)) return null;
+		rw.parseHeaders(object);
+		return (RevCommit) object;
+	}
+	
+	/**
+	 * Walk whose commits carry the colours of an {@link AheadBehindCounter}
+	 */
+	private static class ColoredRevWalk extends RevWalk {
+		ColoredRevWalk(Repository repo) {
+			super(repo);
+		}
+		
+		@Override
+		protected RevCommit createCommit(AnyObjectId id) {
+			return new ColoredCommit(id);
+		}
+	}
+	
+	private static class ColoredCommit extends RevCommit {
+		private long[] colors;
+		
+		ColoredCommit(AnyObjectId id) {
+			super(id);
+		}
+	}
+	
+	/**
+	 * Counts the commits reachable from one commit but not from another one
+	 */
+	private static int countExclusive(RevWalk rw, ObjectId from, ObjectId excluded) throws IOException {
+		rw.reset();
+		rw.markStart(rw.parseCommit(from));
+		rw.markUninteresting(rw.parseCommit(excluded));
+		int count = 0;
+		while(rw.next() != null) count++;
+		return count;
+	}
+	
+	@Override
+	public InputStream openFile(String revision, String path) throws GitClientException {
+		// Each stream has its own reader, so many threads can read at the same time
+		final ObjectReader reader = this.git.getRepository().newObjectReader();
+		try {
+			ObjectLoader loader = reader.open(this.findFile(reader, revision, path), Constants.OBJ_BLOB);
+			// Large blobs are streamed from the pack instead of being loaded in memory
+			return new FilterInputStream(loader.openStream()) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						reader.close();
+					}
+				}
+			};
+		} catch (IOException | RuntimeException e) {
+			reader.close();
+			if(e instanceof GitClientException) throw (GitClientException) e;
+			throw new GitClientException("Error while reading file " + path + " at revision " + revision, e);
+		}
+	}
+	
+	@Override
+	public long fileSize(String revision, String path) throws GitClientException {
+		try(ObjectReader reader = this.git.getRepository().newObjectReader()) {
+			return reader.getObjectSize(this.findFile(reader, revision, path), Constants.OBJ_BLOB);
+		} catch (IOException e) {
+			throw new GitClientException("Error while reading file " + path + " at revision " + revision, e);
+		}
+	}
+	
+	@Override
+	public Stream<TreeEntry> listTree(String revision, String path, boolean recursive) throws GitClientException {
+		String dir = (path != null ? path.replaceAll("^/+|/+$", "") : "");
+		ObjectReader reader = this.git.getRepository().newObjectReader();
+		try {
+			RevTree tree;
+			try(RevWalk rw = new RevWalk(reader)) {
+				tree = rw.parseCommit(this.resolveRevision(revision)).getTree();
+			}
+			
+			// The walk starts at the directory, so nothing outside it is ever read
+			TreeWalk tw = new TreeWalk(reader);
+			if(dir.isEmpty()) {
+				tw.addTree(tree);
+			} else {
+				TreeWalk dirWalk = TreeWalk.forPath(reader, dir, tree);
+				if(dirWalk == null || dirWalk.getFileMode(0) != FileMode.TREE) {
+					reader.close();
+					return Stream.empty();
+				}
+				tw.addTree(dirWalk.getObjectId(0));
+			}
+			tw.setRecursive(recursive);
+			
+			TreeEntryIterator entries = new TreeEntryIterator(tw, reader, (dir.isEmpty() ? "" : dir + "/"));
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL), false)
+					.onClose(reader::close);
+		} catch (IOException | RuntimeException e) {
+			reader.close();
+			if(e instanceof GitClientException) throw (GitClientException) e;
+			throw new GitClientException("Error while listing tree of revision " + revision, e);
+		}
+	}
+	
+	/**
+	 * Iterates the entries of a tree walk in batches, so the sizes of the blobs of each batch are looked up together.
+	 * <br>The reader is closed when the walk ends.
+	 */
+	private static class TreeEntryIterator implements Iterator<TreeEntry> {
+		private final TreeWalk tw;
+		private final ObjectReader reader;
+		private final String pathPrefix;
+		private final Deque<TreeEntry> batch = new ArrayDeque<TreeEntry>();
+		private boolean finished;
+		
+		TreeEntryIterator(TreeWalk tw, ObjectReader reader, String pathPrefix) {
+			this.tw = tw;
+			this.reader = reader;
+			this.pathPrefix = pathPrefix;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(batch.isEmpty() && !finished) this.fill();
+			return !batch.isEmpty();
+		}
+		
+		@Override
+		public TreeEntry next() {
+			if(!this.hasNext()) throw new NoSuchElementException();
+			return batch.poll();
+		}
+		
+		private void fill() {
+			try {
+				List<PendingEntry> pending = new ArrayList<PendingEntry>(TREE_BATCH_SIZE);
+				List<PendingEntry> blobs = new ArrayList<PendingEntry>(TREE_BATCH_SIZE);
+				while(pending.size() < TREE_BATCH_SIZE && tw.next()) {
+					PendingEntry entry = new PendingEntry(tw.getObjectId(0), pathPrefix + tw.getPathString(), 
+							String.format("%06o", tw.getRawMode(0)), tw.getFileMode(0).getObjectType());
+					pending.add(entry);
+					if(entry.type == Constants.OBJ_BLOB) blobs.add(entry);
+				}
+				if(pending.size() < TREE_BATCH_SIZE) {
+					finished = true;
+				}
+				
+				if(!blobs.isEmpty()) {
+					AsyncObjectSizeQueue<PendingEntry> sizes = reader.getObjectSize(blobs, true);
+					try {
+						while(sizes.next()) sizes.getCurrent().size = sizes.getSize();
+					} finally {
+						sizes.release();
+					}
+				}
+				for(PendingEntry entry : pending) {
+					batch.add(new TreeEntry(entry.path, entry.mode, Constants.typeString(entry.type), entry.name(), entry.size));
+				}
+			} catch (IOException e) {
+				finished = true;
+				reader.close();
+				throw new GitClientException("Error while listing tree", e);
+			}
+			if(finished) reader.close();
+		}
+	}
+	
+	private static class PendingEntry extends ObjectId {
+		private final String path;
+		private final String mode;
+		private final int type;
+		private long size = -1;
+		
+		PendingEntry(AnyObjectId id, String path, String mode, int type) {
+			super(id);
+			this.path = path;
+			this.mode = mode;
+			this.type = type;
+		}
+	}
+	
+	@Override
+	public Stream<ChangedPath> changedPaths(String from, String to, PathFilter filter) throws GitClientException {
+		ObjectReader reader = this.git.getRepository().newObjectReader();
+		try {
+			TreeWalk tw = new TreeWalk(reader);
+			try(RevWalk rw = new RevWalk(reader)) {
+				tw.addTree(rw.parseCommit(this.resolveRevision(from)).getTree());
+				tw.addTree(rw.parseCommit(this.resolveRevision(to)).getTree());
+			}
+			tw.setRecursive(true);
+			// ANY_DIFF compares the ids of the entries first, so equal subtrees are never entered
+			tw.setFilter(AndTreeFilter.create(TreeFilter.ANY_DIFF, toTreeFilter(filter)));
+			
+			ChangedPathIterator paths = new ChangedPathIterator(tw, reader);
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, Spliterator.ORDERED | Spliterator.NONNULL), false)
+					.onClose(reader::close);
+		} catch (IOException | RuntimeException e) {
+			reader.close();
+			if(e instanceof GitClientException) throw (GitClientException) e;
+			throw new GitClientException("Error while comparing " + from + " and " + to, e);
+		}
+	}
+	
+	@Override
+	public DiffStats diff(String from, String to, DiffOptions options, OutputStream out) throws GitClientException {
+		if(options == null) options = new DiffOptions();
+		Repository repo = this.git.getRepository();
+		
+		PatchOutputStream patch = new PatchOutputStream(out, options.isSkipBinary());
+		try(ObjectReader reader = repo.newObjectReader();
+				RevWalk rw = new RevWalk(reader);
+				DiffFormatter formatter = new BlobLimitDiffFormatter(patch, reader, options.getMaxBlobSize())) {
+			formatter.setRepository(repo);
+			formatter.setContext(options.getContextLines());
+			formatter.setDetectRenames(options.isDetectRenames());
+			if(options.isDetectRenames()) formatter.getRenameDetector().setRenameLimit(options.getRenameLimit());
+			formatter.setPathFilter(toTreeFilter(options.getPathFilter()));
+			
+			RevTree oldTree = rw.parseCommit(this.resolveRevision(from)).getTree();
+			RevTree newTree = rw.parseCommit(this.resolveRevision(to)).getTree();
+			
+			// Each file is formatted and written before the next one is read
+			for(DiffEntry entry : formatter.scan(oldTree, newTree)) {
+				formatter.format(entry);
+			}
+			patch.finish();
+			return patch.getStats();
+		} catch (IOException e) {
+			throw new GitClientException("Error while writing the diff between " + from + " and " + to, e);
+		}
+	}
+	
+	@Override
+	public Stream<GitCommit> fileHistory(String revision, Collection<String> paths, HistoryOptions options) throws GitClientException {
+		if(options == null) options = new HistoryOptions();
+		List<String> normalized = (paths != null ? normalizePaths(paths) : Collections.<String>emptyList());
+		if(options.isFollowRenames() && normalized.size() != 1) throw new GitClientException("Renames can only be followed for a single path");
+		
+		Repository repo = this.git.getRepository();
+		RevWalk rw = new RevWalk(repo);
+		try {
+			// Rewriting parents would buffer the whole history before returning the first commit
+			rw.setRewriteParents(false);
+			if(options.isFollowRenames()) {
+				rw.setTreeFilter(FollowFilter.create(normalized.get(0), repo.getConfig().get(DiffConfig.KEY)));
+			} else if(!normalized.isEmpty()) {
+				rw.setTreeFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(normalized), TreeFilter.ANY_DIFF));
+			}
+			// Stops the walk at the first older commit, instead of filtering the rest of the history
+			if(options.getSince() != null) rw.setRevFilter(CommitTimeRevFilter.after(options.getSince()));
+			rw.markStart(rw.parseCommit(this.resolveRevision(revision)));
+		} catch (IOException | RuntimeException e) {
+			rw.close();
+			if(e instanceof GitClientException) throw (GitClientException) e;
+			throw new GitClientException("Error while reading the history of " + paths, e);
+		}
+		
+		CommitIterator commits = new CommitIterator(rw, options.getLimit());
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(commits, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(rw::close);
+	}
+	
+	@Override
+	public Stream<GitCommit> searchCommits(CommitQuery query) throws GitClientException {
+		List<ObjectId> starts = new ArrayList<ObjectId>();
+		try {
+			if(query.getRevisions() == null || query.getRevisions().isEmpty()) {
+				starts.add(this.resolveRevision(null));
+			} else {
+				for(String revision : query.getRevisions()) starts.add(this.resolveRevision(revision));
+			}
+		} catch (IOException e) {
+			throw new GitClientException("Error while resolving " + query.getRevisions(), e);
+		}
+		TreeFilter paths = null;
+		if(query.getPaths() != null && !query.getPaths().isEmpty()) paths = PathFilterGroup.createFromStrings(normalizePaths(query.getPaths()));
+		
+		CommitSearch search = new CommitSearch(this.git.getRepository(), this.commitGraph, starts, query, paths, JGitClient::toGitCommit);
+		ResultQueue<GitCommit> results = search.start();
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.NONNULL), false)
+				.onClose(results::close);
+	}
+	
+	@Override
+	public Stream<GrepMatch> grep(String revision, Pattern pattern, GrepOptions options) throws GitClientException {
+		if(options == null) options = new GrepOptions();
+		Repository repo = this.git.getRepository();
+		ObjectId tree;
+		try(RevWalk rw = new RevWalk(repo)) {
+			tree = rw.parseTree(this.resolveRevision(revision));
+		} catch (IOException e) {
+			throw new GitClientException("Error while reading revision " + revision, e);
+		}
+		
+		TreeGrep grep = new TreeGrep(repo, tree, toTreeFilter(options.getPathFilter()), pattern, options);
+		ResultQueue<GrepMatch> results = grep.start();
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.NONNULL), false)
+				.onClose(results::close);
+	}
+	
+	/**
+	 * Iterates the commits of a walk, up to a limit. The walk is closed when it ends.
+	 */
+	private static class CommitIterator implements Iterator<GitCommit> {
+		private final RevWalk rw;
+		private final int limit;
+		private int count;
+		private GitCommit next;
+		private boolean finished;
+		
+		/**
+		 * @param rw walk already started
+		 * @param limit max amount of commits. <code>0</code> means no limit
+		 */
+		CommitIterator(RevWalk rw, int limit) {
+			this.rw = rw;
+			this.limit = limit;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(next != null) return true;
+			if(finished) return false;
+			try {
+				RevCommit commit = (limit > 0 && count >= limit ? null : rw.next());
+				if(commit == null) {
+					finished = true;
+					rw.close();
+					return false;
+				}
+				count++;
+				next = toGitCommit(commit);
+				return true;
+			} catch (IOException e) {
+				finished = true;
+				rw.close();
+				throw new GitClientException("Error while reading the history", e);
+			}
+		}
+		
+		@Override
+		public GitCommit next() {
+			if(!this.hasNext()) throw new NoSuchElementException();
+			GitCommit commit = next;
+			next = null;
+			return commit;
+		}
+	}
+	
+	/**
+	 * Formatter that reports blobs bigger than a limit as binary, without loading them.
+	 * <br>The formatter's own threshold only applies to objects too big to be cached in memory.
+	 */
+	private static class BlobLimitDiffFormatter extends DiffFormatter {
+		private final ObjectReader reader;
+		private final long maxBlobSize;
+		
+		BlobLimitDiffFormatter(OutputStream out, ObjectReader reader, long maxBlobSize) {
+			super(out);
+			this.reader = reader;
+			this.maxBlobSize = maxBlobSize;
+		}
+		
+		@Override
+		public void format(DiffEntry entry) throws IOException {
+			if(!this.isTooBig(entry.getOldMode(), entry.getOldId()) && !this.isTooBig(entry.getNewMode(), entry.getNewId())) {
+				super.format(entry);
+				return;
+			}
+			
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			this.formatGitDiffFirstHeaderLine(header, entry.getChangeType(), entry.getOldPath(), entry.getNewPath());
+			switch(entry.getChangeType()) {
+				case ADD:
+					header.write(Constants.encodeASCII("new file mode " + entry.getNewMode() + "\n"));
+					break;
+				case DELETE:
+					header.write(Constants.encodeASCII("deleted file mode " + entry.getOldMode() + "\n"));
+					break;
+				case RENAME:
+				case COPY:
+					String type = (entry.getChangeType() == DiffEntry.ChangeType.RENAME ? "rename" : "copy");
+					header.write(Constants.encodeASCII("similarity index " + entry.getScore() + "%\n"));
+					header.write(Constants.encode(type + " from " + QuotedString.GIT_PATH.quote(entry.getOldPath()) + "\n"));
+					header.write(Constants.encode(type + " to " + QuotedString.GIT_PATH.quote(entry.getNewPath()) + "\n"));
+					break;
+				default:
+					break;
+			}
+			if(entry.getChangeType() != DiffEntry.ChangeType.ADD && entry.getChangeType() != DiffEntry.ChangeType.DELETE
+					&& !entry.getOldMode().equals(entry.getNewMode())) {
+				header.write(Constants.encodeASCII("old mode " + entry.getOldMode() + "\n"));
+				header.write(Constants.encodeASCII("new mode " + entry.getNewMode() + "\n"));
+			}
+			this.formatIndexLine(header, entry);
+			header.write(Constants.encodeASCII("Binary files differ\n"));
+			header.writeTo(this.getOutputStream());
+		}
+		
+		private boolean isTooBig(FileMode mode, AbbreviatedObjectId id) throws IOException {
+			if(mode.getObjectType() != Constants.OBJ_BLOB || id.toObjectId().equals(ObjectId.zeroId())) return false;
+			return reader.getObjectSize(id.toObjectId(), Constants.OBJ_BLOB) > maxBlobSize;
+		}
+	}
+	
+	/**
+	 * Builds the tree filter for the included and excluded paths
+	 * @return the filter, or {@link TreeFilter#ALL} if it does not filter any path
+	 */
+	private static TreeFilter toTreeFilter(PathFilter filter) {
+		if(filter == null || filter.isEmpty()) return TreeFilter.ALL;
+		
+		TreeFilter includes = TreeFilter.ALL;
+		if(filter.getIncludes() != null && !filter.getIncludes().isEmpty()) {
+			includes = PathFilterGroup.createFromStrings(normalizePaths(filter.getIncludes()));
+		}
+		if(filter.getExcludes() == null || filter.getExcludes().isEmpty()) return includes;
+		
+		TreeFilter excludes = new ExcludedPathsFilter(normalizePaths(filter.getExcludes()));
+		return (includes == TreeFilter.ALL ? excludes : AndTreeFilter.create(includes, excludes));
+	}
+	
+	private static List<String> normalizePaths(Collection<String> paths) {
+		List<String> normalized = new ArrayList<String>();
+		for(String path : paths) normalized.add(path.replaceAll("^/+|/+$", ""));
+		return normalized;
+	}
+	
+	/**
+	 * Excludes some paths (and everything under them), but still enters their parent directories
+	 */
+	private static class ExcludedPathsFilter extends TreeFilter {
+		private final List<String> paths;
+		
+		ExcludedPathsFilter(List<String> paths) {
+			this.paths = paths;
+		}
+		
+		@Override
+		public boolean include(TreeWalk walker) {
+			String current = walker.getPathString();
+			for(String path : paths) {
+				if(current.equals(path) || (current.startsWith(path) && current.charAt(path.length()) == '/')) return false;
+			}
+			return true;
+		}
+		
+		@Override
+		public boolean shouldBeRecursive() {
+			return false;
+		}
+		
+		@Override
+		public TreeFilter clone() {
+			return this;
+		}
+	}
+	
+	/**
+	 * Iterates the entries that differ in a two tree walk. The reader is closed when the walk ends.
+	 */
+	private static class ChangedPathIterator implements Iterator<ChangedPath> {
+		private final TreeWalk tw;
+		private final ObjectReader reader;
+		private ChangedPath next;
+		private boolean finished;
+		
+		ChangedPathIterator(TreeWalk tw, ObjectReader reader) {
+			this.tw = tw;
+			this.reader = reader;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(next != null) return true;
+			if(finished) return false;
+			try {
+				if(!tw.next()) {
+					finished = true;
+					reader.close();
+					return false;
+				}
+				next = new ChangedPath(tw.getPathString(), changeStatus(tw.getFileMode(0), tw.getFileMode(1)));
+				return true;
+			} catch (IOException e) {
+				finished = true;
+				reader.close();
+				throw new GitClientException("Error while comparing trees", e);
+			}
+		}
+		
+		@Override
+		public ChangedPath next() {
+			if(!this.hasNext()) throw new NoSuchElementException();
+			ChangedPath path = next;
+			next = null;
+			return path;
+		}
+	}
+	
+	/**
+	 * @return the status of an entry, based on its old and new modes
+	 */
+	private static ChangedPath.Status changeStatus(FileMode oldMode, FileMode newMode) {
+		if(oldMode == FileMode.MISSING) return ChangedPath.Status.ADDED;
+		if(newMode == FileMode.MISSING) return ChangedPath.Status.DELETED;
+		// Executable bit changes are modifications, but not changes between file, link and submodule
+		boolean oldFile = (oldMode == FileMode.REGULAR_FILE || oldMode == FileMode.EXECUTABLE_FILE);
+		boolean newFile = (newMode == FileMode.REGULAR_FILE || newMode == FileMode.EXECUTABLE_FILE);
+		if(oldFile != newFile || (!oldFile && oldMode != newMode)) return ChangedPath.Status.TYPE_CHANGED;
+		return ChangedPath.Status.MODIFIED;
+	}
+	
+	/**
+	 * Looks for a file in the tree of a revision
+	 * @return the id of the blob
+	 * @throws GitClientException if the file (or the revision) is not found
+	 */
+	private ObjectId findFile(ObjectReader reader, String revision, String path) throws IOException, GitClientException {
+		try(RevWalk rw = new RevWalk(reader)) {
+			RevTree tree = rw.parseCommit(this.resolveRevision(revision)).getTree();
+			TreeWalk tw = TreeWalk.forPath(reader, path, tree);
+			if(tw == null || tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+				throw new GitClientException("File '" + path + "' not found at revision " + revision);
+			}
+			return tw.getObjectId(0);
+		}
+	}
+	
+	@Override
+	public void setCommitGraphEnabled(boolean enabled) throws GitClientException {
+		if(enabled && this.commitGraph == null) {
+			this.commitGraph = CommitGraphIndex.load(new File(this.getGitDirectory(), COMMIT_GRAPH_FILE));
+		} else if(!enabled && this.commitGraph != null) {
+			this.saveCommitGraph();
+			this.commitGraph = null;
+		}
+	}
+	
+	@Override
+	public void writeCommitGraph() throws GitClientException {
+		this.setCommitGraphEnabled(true);
+		Repository repo = this.git.getRepository();
+		try(ObjectReader reader = repo.newObjectReader()) {
+			for(Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+				ref = repo.peel(ref);
+				ObjectId id = (ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId());
+				if(id != null && reader.open(id).getType() == Constants.OBJ_COMMIT) this.commitGraph.add(reader, id);
+			}
+		} catch (IOException e) {
+			throw new GitClientException("Error while indexing the commit graph", e);
+		}
+		this.saveCommitGraph();
+	}
+	
+	private void saveCommitGraph() throws GitClientException {
+		try {
+			this.commitGraph.save();
+		} catch (IOException e) {
+			throw new GitClientException("Error while saving the commit graph index", e);
+		}
+	}
+	
 	@Override
 	public GitUser getConfiguredUser() throws GitClientException {
     	String name = this.getConfig("user.name");
@@ -549,6 +2381,8 @@ public class JGitClient implements GitClient {
 	
 	@Override
 	public void close() throws Exception {
+		if(this.commitGraph != null && !this.isClosed()) this.saveCommitGraph();
+		this.commitGraph = null;
 		if(!this.isClosed()) this.git.close();
 		this.git = null;
 	}
@@ -588,9 +2422,25 @@ public class JGitClient implements GitClient {
 
 	@Override
 	public void stageFiles(List<String> filenames) {
+		this.stageFiles(filenames.iterator());
+	}
+	
+	@Override
+	public void stageFiles(Stream<String> filenames) {
+		this.stageFiles(filenames.iterator());
+	}
+	
+	@Override
+	public void stageFiles(Iterator<String> filenames) {
 		try {
-			for(String file : filenames) {
-				this.git.add().addFilepattern(file).call();
+			// Each AddCommand locks, reads and writes the index once, so the paths are added in batches
+			// instead of one command per file
+			while(filenames.hasNext()) {
+				AddCommand cmd = this.git.add();
+				for(int i = 0; i < STAGE_BATCH_SIZE && filenames.hasNext(); i++) {
+					cmd.addFilepattern(filenames.next());
+				}
+				cmd.call();
 			}
 		} catch (GitAPIException e) {
 			throw new GitClientException("Error while adding files to commit list", e);
@@ -628,22 +2478,66 @@ public class JGitClient implements GitClient {
 
 	@Override
 	public List<String> getStagedFiles() {
-		try {
-			return this.git.diff()
-				.setShowNameAndStatusOnly(true)
-				.setCached(true)
-				.call()
-				.stream()
-				.map(entry -> entry.getNewPath())
-				.collect(Collectors.toList());
+		return this.getStagedFiles(null);
+	}
+	
+	@Override
+	public List<String> getStagedFiles(PathFilter filter) throws GitClientException {
+		List<String> files = new ArrayList<String>();
+		this.scanStagedFiles(filter, files);
+		return files;
+	}
+	
+	@Override
+	public int countStagedFiles(PathFilter filter) throws GitClientException {
+		return this.scanStagedFiles(filter, null);
+	}
+	
+	/**
+	 * Compares the index with the tree of HEAD.
+	 * <br>Both are walked together and only the entries whose ids (or modes) differ are visited, so directories
+	 * whose cached tree id is the same as HEAD's are skipped completely.
+	 * @param filter paths to include or exclude (optional)
+	 * @param files list where the staged paths are added. If <code>null</code>, they are only counted
+	 * @return amount of staged files
+	 */
+	private int scanStagedFiles(PathFilter filter, List<String> files) throws GitClientException {
+		Repository repo = this.git.getRepository();
+		try(ObjectReader reader = repo.newObjectReader(); TreeWalk tw = new TreeWalk(reader)) {
+			DirCache index = repo.readDirCache();
+			ObjectId head = repo.resolve(Constants.HEAD + "^{tree}");
+			if(head != null) {
+				tw.addTree(head);
+			} else {
+				// No commits yet, every file in the index is staged
+				tw.addTree(new EmptyTreeIterator());
+			}
+			tw.addTree(new DirCacheIterator(index));
+			tw.setRecursive(true);
+			tw.setFilter(AndTreeFilter.create(TreeFilter.ANY_DIFF, toTreeFilter(filter)));
 			
-		} catch(Exception e) {
+			int count = 0;
+			String last = null;
+			while(tw.next()) {
+				String path = tw.getPathString();
+				// Conflicts have many entries (stages) for the same path
+				if(path.equals(last)) continue;
+				last = path;
+				count++;
+				if(files != null) files.add(path);
+			}
+			return count;
+		} catch (IOException e) {
 			throw new GitClientException("Error while retrieving staged files", e);
 		}
 	}
 
 	@Override
 	public void fetch() throws GitClientException {
+		if(this.fetchCoalescer != null) {
+			this.fetch(new FetchOptions());
+			return;
+		}
 		try {
 			this.git.fetch().call();
 		} catch (GitAPIException e) {
@@ -651,6 +2545,131 @@ public class JGitClient implements GitClient {
 		}
 	}
 
+	@Override
+	public FetchStats fetch(FetchOptions options) throws GitClientException {
+		if(options == null) options = new FetchOptions();
+		if(this.fetchCoalescer == null) return this.doFetch(options);
+		
+		final FetchOptions fetchOptions = options;
+		String remoteName = (options.getRemote() != null ? options.getRemote() : Constants.DEFAULT_REMOTE_NAME);
+		return this.fetchCoalescer.fetch(this.getGitDirectory(), remoteName, options, () -> this.doFetch(fetchOptions));
+	}
+	
+	@Override
+	public void setFetchCoalescer(FetchCoalescer fetchCoalescer) {
+		this.fetchCoalescer = fetchCoalescer;
+	}
+	
+	/**
+	 * Performs the fetch (without coalescing)
+	 */
+	private FetchStats doFetch(FetchOptions options) throws GitClientException {
+		if(options.getDepth() > 0 || options.getDeepenSince() != null) {
+			throw new GitClientException("Shallow fetch is not supported on Native Java client");
+		}
+		String remoteName = (options.getRemote() != null ? options.getRemote() : Constants.DEFAULT_REMOTE_NAME);
+		
+		try {
+			long start = System.currentTimeMillis();
+			long packSizeBefore = this.getPackSize();
+			StatsProgressMonitor monitor = new StatsProgressMonitor(options.getProgressListener());
+			
+			FetchCommand cmd = this.git.fetch()
+				.setRemote(remoteName)
+				.setTagOpt(toTagOpt(options.getTagMode()))
+				.setProgressMonitor(monitor);
+			if(options.isPrune()) cmd.setRemoveDeletedRefs(true);
+			if(!options.getRefSpecs().isEmpty()) {
+				cmd.setRefSpecs(options.getRefSpecs().stream().map(RefSpec::new).collect(Collectors.toList()));
+			}
+			
+			FetchResult result = cmd.call();
+			
+			int updatedRefs = 0;
+			for(TrackingRefUpdate update : result.getTrackingRefUpdates()) {
+				if(update.getResult() != RefUpdate.Result.NO_CHANGE) updatedRefs++;
+			}
+			// JGit always keeps the received pack, so its size is what was transferred
+			long bytes = Math.max(0, this.getPackSize() - packSizeBefore);
+			
+			return new FetchStats(monitor.getObjectsReceived(), bytes, updatedRefs, System.currentTimeMillis() - start);
+		} catch (GitAPIException e) {
+			throw new GitClientException("Error while fetching from remote", e);
+		}
+	}
+	
+	/**
+	 * @return the size of all the pack files in the repository
+	 */
+	private long getPackSize() {
+		File[] packs = new File(this.git.getRepository().getDirectory(), "objects/pack").listFiles((dir, name) -> name.endsWith(".pack"));
+		long size = 0;
+		if(packs != null) {
+			for(File pack : packs) {
+				size += pack.length();
+			}
+		}
+		return size;
+	}
+	
+	private static TagOpt toTagOpt(FetchOptions.TagMode tagMode) {
+		if(tagMode == null) return TagOpt.AUTO_FOLLOW;
+		switch(tagMode) {
+			case NONE:
+				return TagOpt.NO_TAGS;
+			case ALL:
+				return TagOpt.FETCH_TAGS;
+			default:
+				return TagOpt.AUTO_FOLLOW;
+		}
+	}
+	
+	/**
+	 * Progress monitor that counts the received objects and forwards the progress to a {@link ProgressListener}.
+	 */
+	private static class StatsProgressMonitor implements ProgressMonitor {
+		private static final String RECEIVING_OBJECTS = "Receiving objects";
+		
+		private final ProgressListener listener;
+		private String task;
+		private int total;
+		private long completed;
+		private long objectsReceived;
+		
+		StatsProgressMonitor(ProgressListener listener) {
+			this.listener = listener;
+		}
+		
+		long getObjectsReceived() {
+			return objectsReceived;
+		}
+
+		@Override
+		public void start(int totalTasks) {}
+
+		@Override
+		public void beginTask(String title, int totalWork) {
+			this.task = title;
+			this.total = (totalWork == ProgressMonitor.UNKNOWN ? 0 : totalWork);
+			this.completed = 0;
+		}
+
+		@Override
+		public void update(int work) {
+			completed += work;
+			if(RECEIVING_OBJECTS.equals(task)) objectsReceived += work;
+			if(listener != null) listener.onProgress(task, completed, total);
+		}
+
+		@Override
+		public void endTask() {}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+	}
+
 	@Override
 	public boolean repoLoaded() {
 		return (this.git != null);
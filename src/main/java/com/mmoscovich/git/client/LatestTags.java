@@ -0,0 +1,46 @@
+package com.mmoscovich.git.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the latest tags by keeping a heap of the best K, instead of sorting the whole tag list.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+class LatestTags {
+	
+	private LatestTags() {}
+	
+	/**
+	 * @param tagNames names of all the tags
+	 * @param tagPrefix prefix of the tags to consider. If <code>null</code>, all are considered
+	 * @param comparator order of the tags (the greatest is the latest). If <code>null</code>, names are compared
+	 * @param limit max amount of tags to return
+	 * @return the latest tags, from the latest to the oldest
+	 */
+	static List<String> select(Iterable<String> tagNames, String tagPrefix, Comparator<String> comparator, int limit) {
+		final Comparator<String> order = (comparator != null ? comparator : Comparator.<String>naturalOrder());
+		if(limit <= 0) return new ArrayList<String>();
+		
+		// Min-heap: the head is the oldest of the best ones, replaced when a later tag shows up
+		PriorityQueue<String> best = new PriorityQueue<String>(limit, order);
+		for(String name : tagNames) {
+			if(tagPrefix != null && !name.startsWith(tagPrefix)) continue;
+			if(best.size() < limit) {
+				best.add(name);
+			} else if(order.compare(name, best.peek()) > 0) {
+				best.poll();
+				best.add(name);
+			}
+		}
+		
+		List<String> result = new ArrayList<String>(best);
+		Collections.sort(result, Collections.reverseOrder(order));
+		return result;
+	}
+}
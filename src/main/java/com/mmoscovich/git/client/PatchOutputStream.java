@@ -0,0 +1,150 @@
+package com.mmoscovich.git.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.mmoscovich.git.client.model.DiffStats;
+
+/**
+ * Passes a unified patch through to another stream, line by line, counting its files and changed lines.
+ * <br>Optionally, binary files are left out. Only the header of each file is held until its type is known.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+class PatchOutputStream extends FilterOutputStream {
+	private static final byte[] FILE_START = "diff --git ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] BINARY = "Binary files ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] BINARY_PATCH = "GIT binary patch".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] HUNK_START = "@@".getBytes(StandardCharsets.US_ASCII);
+	
+	private final boolean skipBinary;
+	
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+	
+	/** Header lines of the current file, while it is not known if it is binary */
+	private final ByteArrayOutputStream header = new ByteArrayOutputStream(512);
+	
+	/** State of the current file: header already written, binary file left out, or writing its changed lines */
+	private boolean headerWritten;
+	private boolean skipping;
+	private boolean inHunks;
+	
+	private int files;
+	private long insertions;
+	private long deletions;
+	
+	/**
+	 * @param out stream where the patch is written
+	 * @param skipBinary whether to leave binary files out
+	 */
+	PatchOutputStream(OutputStream out, boolean skipBinary) {
+		super(out);
+		this.skipBinary = skipBinary;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		line.write(b);
+		if(b == '\n') this.endLine();
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		int end = off + len;
+		int start = off;
+		for(int i = off; i < end; i++) {
+			if(b[i] == '\n') {
+				line.write(b, start, i + 1 - start);
+				this.endLine();
+				start = i + 1;
+			}
+		}
+		if(start < end) line.write(b, start, end - start);
+	}
+	
+	private void endLine() throws IOException {
+		byte[] bytes = line.toByteArray();
+		line.reset();
+		
+		if(startsWith(bytes, FILE_START)) {
+			this.writeHeader();
+			header.reset();
+			header.write(bytes);
+			headerWritten = false;
+			skipping = false;
+			inHunks = false;
+			return;
+		}
+		
+		if(inHunks) {
+			if(bytes[0] == '+') insertions++;
+			else if(bytes[0] == '-') deletions++;
+			out.write(bytes);
+			return;
+		}
+		
+		if(skipping) return;
+		
+		if(!headerWritten && (startsWith(bytes, BINARY) || startsWith(bytes, BINARY_PATCH)) && skipBinary) {
+			// Binary file left out
+			header.reset();
+			skipping = true;
+			return;
+		}
+		
+		if(headerWritten) {
+			out.write(bytes);
+		} else {
+			header.write(bytes);
+		}
+		if(startsWith(bytes, HUNK_START)) {
+			this.writeHeader();
+			inHunks = true;
+		}
+	}
+	
+	/**
+	 * Writes the held header of the current file (if any)
+	 */
+	private void writeHeader() throws IOException {
+		if(header.size() == 0 || headerWritten || skipping) return;
+		header.writeTo(out);
+		header.reset();
+		headerWritten = true;
+		files++;
+	}
+	
+	private static boolean startsWith(byte[] bytes, byte[] prefix) {
+		if(bytes.length < prefix.length) return false;
+		for(int i = 0; i < prefix.length; i++) {
+			if(bytes[i] != prefix[i]) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes any pending line or header, without closing the target stream
+	 */
+	public void finish() throws IOException {
+		if(line.size() > 0) this.endLine();
+		this.writeHeader();
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		// The target stream belongs to the caller
+		this.finish();
+	}
+	
+	/**
+	 * @return the stats of the patch written so far
+	 */
+	public DiffStats getStats() {
+		return new DiffStats(files, insertions, deletions);
+	}
+}
@@ -0,0 +1,234 @@
+package com.mmoscovich.git.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.mmoscovich.git.client.model.FetchOptions;
+import com.mmoscovich.git.client.model.FetchStats;
+import com.mmoscovich.git.client.model.PrefetchMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fetches registered repositories in the background, so the objects are already local when
+ * a pull (or fetch) is performed later.
+ * <br>Remote branches are fetched into a separate namespace (<code>refs/prefetch/remotes/{remote}/</code>, like <code>git maintenance</code>),
+ * so remote-tracking refs (and branches that track them) are not modified behind the user's back.
+ * <br>Each repository is fetched on its own interval with some random jitter (to avoid fetching all at the same time),
+ * backing off exponentially when fetches fail.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Slf4j
+public class PrefetchScheduler implements AutoCloseable {
+	/** Namespace where the remote refs are prefetched */
+	public static final String PREFETCH_REFS = "refs/prefetch/remotes/";
+	
+	private final ScheduledExecutorService executor;
+	private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<String, Registration>();
+	
+	private volatile double jitterRatio = 0.1;
+	private volatile long maxBackoffMillis = TimeUnit.HOURS.toMillis(1);
+	
+	/**
+	 * Creates a scheduler that uses a single thread to fetch
+	 */
+	public PrefetchScheduler() {
+		this(1);
+	}
+	
+	/**
+	 * Creates a scheduler 
+	 * @param threads max amount of concurrent fetches
+	 */
+	public PrefetchScheduler(int threads) {
+		this.executor = Executors.newScheduledThreadPool(threads, r -> {
+			Thread t = new Thread(r, "git-prefetch");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	/**
+	 * Sets the max random delay added to each interval, as a fraction of it (default 0.1, ie. up to 10%).
+	 * @param jitterRatio the ratio
+	 */
+	public void setJitterRatio(double jitterRatio) {
+		this.jitterRatio = jitterRatio;
+	}
+	
+	/**
+	 * Sets the max delay between fetches when they fail repeatedly (default 1 hour).
+	 * <br>A failure never makes the next fetch sooner than the registered interval, even if it is longer than this.
+	 * @param maxBackoffMillis the max delay in ms
+	 */
+	public void setMaxBackoffMillis(long maxBackoffMillis) {
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+	
+	/**
+	 * Registers a repository to be prefetched periodically. The first prefetch starts right away (plus jitter).
+	 * <br>If the repository and remote were already registered, the previous registration is replaced.
+	 * 
+	 * @param client client with the repository loaded. It must not be closed while registered
+	 * @param remoteName name of the remote. If <code>null</code>, it defaults to "origin"
+	 * @param intervalMillis time between prefetches (in ms)
+	 * @return the id of the registration (used to get metrics or unregister)
+	 * @throws GitClientException if the git directory of the repository cannot be determined
+	 */
+	public String register(GitClient client, String remoteName, long intervalMillis) throws GitClientException {
+		if(intervalMillis <= 0) throw new IllegalArgumentException("The interval must be positive");
+		if(remoteName == null) remoteName = "origin";
+		
+		String id = registrationId(client.getGitDirectory(), remoteName);
+		Registration registration = new Registration(client, remoteName, intervalMillis);
+		Registration previous = registrations.put(id, registration);
+		if(previous != null) previous.cancel();
+		
+		registration.schedule(this.jitter(intervalMillis));
+		log.debug("Registered " + id + " for prefetch every " + intervalMillis + "ms");
+		return id;
+	}
+	
+	/**
+	 * Stops prefetching a repository.
+	 * @param id id returned by {@link #register(GitClient, String, long)}
+	 */
+	public void unregister(String id) {
+		Registration registration = registrations.remove(id);
+		if(registration != null) registration.cancel();
+	}
+	
+	/**
+	 * @param id id returned by {@link #register(GitClient, String, long)}
+	 * @return the metrics of the repository, or <code>null</code> if it is not registered
+	 */
+	public PrefetchMetrics getMetrics(String id) {
+		Registration registration = registrations.get(id);
+		return (registration != null ? registration.snapshot() : null);
+	}
+	
+	/**
+	 * @return the metrics of every registered repository, by registration id
+	 */
+	public Map<String, PrefetchMetrics> getMetrics() {
+		Map<String, PrefetchMetrics> metrics = new LinkedHashMap<String, PrefetchMetrics>();
+		for(Map.Entry<String, Registration> entry : registrations.entrySet()) {
+			metrics.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return Collections.unmodifiableMap(metrics);
+	}
+	
+	/**
+	 * Stops all the prefetches (the clients are not closed).
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		registrations.clear();
+	}
+	
+	private long jitter(long intervalMillis) {
+		long max = (long) (intervalMillis * jitterRatio);
+		return (max > 0 ? ThreadLocalRandom.current().nextLong(max) : 0);
+	}
+	
+	private static String registrationId(File gitDir, String remoteName) {
+		String path;
+		try {
+			path = gitDir.getCanonicalPath();
+		} catch (IOException e) {
+			path = gitDir.getAbsolutePath();
+		}
+		return path + "#" + remoteName;
+	}
+	
+	/**
+	 * Prefetch state of a repository
+	 */
+	private class Registration implements Runnable {
+		private final GitClient client;
+		private final String remoteName;
+		private final long intervalMillis;
+		
+		private volatile boolean cancelled;
+		private ScheduledFuture<?> next;
+		
+		private long lastSuccessTime;
+		private long lastAttemptTime;
+		private long successCount;
+		private int consecutiveFailures;
+		private String lastError;
+		private FetchStats lastStats;
+		
+		Registration(GitClient client, String remoteName, long intervalMillis) {
+			this.client = client;
+			this.remoteName = remoteName;
+			this.intervalMillis = intervalMillis;
+		}
+		
+		synchronized void schedule(long delayMillis) {
+			if(cancelled || executor.isShutdown()) return;
+			next = executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+		}
+		
+		synchronized void cancel() {
+			cancelled = true;
+			if(next != null) next.cancel(false);
+		}
+		
+		synchronized PrefetchMetrics snapshot() {
+			return new PrefetchMetrics(remoteName, lastSuccessTime, lastAttemptTime, successCount, consecutiveFailures, lastError, lastStats);
+		}
+
+		@Override
+		public void run() {
+			if(cancelled) return;
+			
+			FetchOptions options = new FetchOptions();
+			options.setRemote(remoteName);
+			options.getRefSpecs().add("+refs/heads/*:" + PREFETCH_REFS + remoteName + "/*");
+			options.setTagMode(FetchOptions.TagMode.NONE);
+			options.setPrune(true);
+			
+			long delay;
+			try {
+				FetchStats stats = client.fetch(options);
+				synchronized(this) {
+					lastAttemptTime = lastSuccessTime = System.currentTimeMillis();
+					successCount++;
+					consecutiveFailures = 0;
+					lastError = null;
+					lastStats = stats;
+				}
+				delay = intervalMillis;
+			} catch(Throwable e) {
+				// Errors are also recorded and logged, so the prefetch is not silently stopped.
+				// Rethrowing would be pointless, the executor keeps it in a future nobody reads
+				String message = (e.getMessage() != null ? e.getMessage() : e.toString());
+				int failures;
+				synchronized(this) {
+					lastAttemptTime = System.currentTimeMillis();
+					failures = ++consecutiveFailures;
+					lastError = message;
+				}
+				if(e instanceof Error) log.error("Prefetch of " + remoteName + " failed (" + failures + " in a row)", e);
+				else log.warn("Prefetch of " + remoteName + " failed (" + failures + " in a row): " + message);
+				// Doubles the interval on each consecutive failure (never retrying sooner than the interval)
+				delay = Math.max(intervalMillis, Math.min(maxBackoffMillis, intervalMillis << Math.min(failures, 20)));
+			}
+			this.schedule(delay + jitter(delay));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.mmoscovich.git.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caches the refs advertised by each remote (as listed by <code>ls-remote</code>), so repeated lookups
+ * cost one round trip per TTL instead of one per lookup.
+ * <br>The whole advertisement is cached, so lookups with different prefixes share the same entry.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Slf4j
+class RemoteRefCache {
+	/** Default time (in ms) the advertised refs are reused */
+	static final long DEFAULT_TTL_MILLIS = 30000;
+	
+	private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+	
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+	
+	/**
+	 * @return the default time (in ms) the advertised refs are reused
+	 */
+	long getTtlMillis() {
+		return ttlMillis;
+	}
+	
+	void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+	
+	/**
+	 * Returns the refs advertised by the remote, listing them again if the cached ones are too old.
+	 * <br>Concurrent callers for the same remote wait for a single listing.
+	 * 
+	 * @param remote name or url of the remote
+	 * @param maxAgeMillis max age (in ms) of the cached refs. <code>0</code> forces a new listing
+	 * @param lister lists the refs of the remote (ref name to object id)
+	 * @return the advertised refs sorted by name
+	 */
+	Map<String, String> get(String remote, long maxAgeMillis, Supplier<Map<String, String>> lister) {
+		Entry entry = this.fresh(remote, maxAgeMillis);
+		if(entry != null) return entry.refs;
+		
+		synchronized(locks.computeIfAbsent(remote, k -> new Object())) {
+			// Someone else may have listed it while waiting
+			entry = this.fresh(remote, maxAgeMillis);
+			if(entry != null) return entry.refs;
+			
+			Map<String, String> refs = Collections.unmodifiableMap(new TreeMap<String, String>(lister.get()));
+			entries.put(remote, new Entry(refs, System.currentTimeMillis()));
+			log.debug("Listed " + refs.size() + " refs of remote " + remote);
+			return refs;
+		}
+	}
+	
+	/**
+	 * Discards the cached refs of a remote (eg. after pushing to it)
+	 * @param remote name or url of the remote
+	 */
+	void invalidate(String remote) {
+		entries.remove(remote);
+	}
+	
+	/**
+	 * Discards the cached refs of all remotes
+	 */
+	void invalidateAll() {
+		entries.clear();
+	}
+	
+	/**
+	 * Filters the refs by prefix
+	 * @param refs the refs
+	 * @param prefix the prefix (eg. "refs/heads/"). If <code>null</code>, all the refs are returned
+	 * @return the refs that start with the prefix
+	 */
+	static Map<String, String> filter(Map<String, String> refs, String prefix) {
+		if(prefix == null || prefix.isEmpty()) return refs;
+		
+		Map<String, String> filtered = new TreeMap<String, String>();
+		for(Map.Entry<String, String> ref : refs.entrySet()) {
+			if(ref.getKey().startsWith(prefix)) filtered.put(ref.getKey(), ref.getValue());
+		}
+		return Collections.unmodifiableMap(filtered);
+	}
+	
+	private Entry fresh(String remote, long maxAgeMillis) {
+		Entry entry = entries.get(remote);
+		if(entry != null && maxAgeMillis > 0 && System.currentTimeMillis() - entry.listedAt <= maxAgeMillis) return entry;
+		return null;
+	}
+	
+	private static class Entry {
+		private final Map<String, String> refs;
+		private final long listedAt;
+		
+		Entry(Map<String, String> refs, long listedAt) {
+			this.refs = refs;
+			this.listedAt = listedAt;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.mmoscovich.git.client;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Results produced by background threads, returned to the caller as they are found.
+ * <br>The threads add results (waiting while the queue is full) until they call {@link #end()}, and should stop
+ * when it is {@link #isCancelled() cancelled}: when the limit is reached, a thread fails or the caller closes it.
+ * Errors are thrown to the caller after the results found before them.
+ *
+ * @author Martin Moscovich
+ *
+ * @param <T> type of the results
+ */
+class ResultQueue<T> implements Iterator<T>, AutoCloseable {
+	private static final int CAPACITY = 1024;
+	private static final long POLL_MILLIS = 100;
+	
+	/** Marks the end of the results (compared by identity) */
+	private static final Object END = new Object();
+	
+	private final BlockingQueue<Object> results = new ArrayBlockingQueue<Object>(CAPACITY);
+	private final int limit;
+	private final String errorMessage;
+	private final Runnable onClose;
+	
+	private final AtomicInteger count = new AtomicInteger();
+	private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+	private volatile boolean cancelled;
+	private volatile boolean closed;
+	
+	private Object next;
+	private boolean finished;
+	
+	/**
+	 * @param limit max amount of results. <code>0</code> means no limit
+	 * @param errorMessage message of the exception thrown when a thread fails
+	 * @param onClose called once, when the results end or the caller closes them (eg. to stop the threads)
+	 */
+	ResultQueue(int limit, String errorMessage, Runnable onClose) {
+		this.limit = limit;
+		this.errorMessage = errorMessage;
+		this.onClose = onClose;
+	}
+	
+	/**
+	 * Adds a result, waiting while the queue is full
+	 * @param result the result
+	 * @return <code>false</code> if it was not added because the search is cancelled (eg. the limit was reached)
+	 * @throws InterruptedException if the thread is interrupted (eg. when the caller closes it)
+	 */
+	boolean add(T result) throws InterruptedException {
+		if(cancelled) return false;
+		if(limit > 0) {
+			int added = count.incrementAndGet();
+			if(added > limit) return false;
+			if(added == limit) cancelled = true;
+		}
+		return this.put(result);
+	}
+	
+	/**
+	 * Marks the end of the results. Must be called once, after all the threads finished.
+	 */
+	void end() {
+		try {
+			this.put(END);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Waits for space in the queue, unless the caller closed it
+	 */
+	private boolean put(Object result) throws InterruptedException {
+		while(!results.offer(result, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if(closed) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Stops the search because of an error, that is thrown to the caller when it reaches it
+	 * @param e the error
+	 */
+	void fail(Exception e) {
+		// Errors caused by closing it are ignored
+		if(!cancelled) error.compareAndSet(null, e);
+		cancelled = true;
+	}
+	
+	/**
+	 * @return <code>true</code> if the threads should stop
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if(next != null) return true;
+		if(finished) return false;
+		try {
+			Object result = results.take();
+			if(result == END) {
+				finished = true;
+				onClose.run();
+				Exception e = error.get();
+				if(e instanceof GitClientException) throw (GitClientException) e;
+				if(e != null) throw new GitClientException(errorMessage, e);
+				return false;
+			}
+			next = result;
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.close();
+			throw new GitClientException(errorMessage, e);
+		}
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if(!this.hasNext()) throw new NoSuchElementException();
+		T result = (T) next;
+		next = null;
+		return result;
+	}
+	
+	/**
+	 * Stops the search, if it is still running
+	 */
+	@Override
+	public void close() {
+		if(finished) return;
+		finished = true;
+		next = null;
+		cancelled = true;
+		closed = true;
+		results.clear();
+		onClose.run();
+	}
+}
@@ -0,0 +1,177 @@
+package com.mmoscovich.git.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.mmoscovich.git.client.model.GrepMatch;
+import com.mmoscovich.git.client.model.GrepOptions;
+
+/**
+ * Search of a pattern in the files of a tree, read from the object database (the working directory is never used).
+ * <br>The tree is walked by one task, that hands the files in chunks to the other threads of a fork-join pool.
+ * Each thread reads the blobs with its own {@link ObjectReader} and matches each line on its own.
+ * Binary files and files bigger than the max size are skipped.
+ * <br>Matching lines are returned as they are found: lines of the same file are in order, but files are not.
+ *
+ * @author Martin Moscovich
+ *
+ */
+class TreeGrep {
+	private static final int CHUNK_SIZE = 32;
+	
+	private final Repository repo;
+	private final ObjectId tree;
+	private final TreeFilter filter;
+	private final Pattern pattern;
+	private final int maxBlobSize;
+	
+	private final ForkJoinPool pool;
+	private final ResultQueue<GrepMatch> results;
+	
+	/** Readers of the pool threads, closed when the search ends */
+	private final List<ObjectReader> readers = Collections.synchronizedList(new ArrayList<ObjectReader>());
+	private final ThreadLocal<ObjectReader> reader;
+	
+	/** Chunks being searched, plus one while the tree is walked */
+	private final AtomicInteger pending = new AtomicInteger(1);
+	
+	/**
+	 * @param repo repository
+	 * @param tree tree to search
+	 * @param filter paths to search
+	 * @param pattern pattern searched in each line
+	 * @param options max blob size, limit and threads
+	 */
+	TreeGrep(Repository repo, ObjectId tree, TreeFilter filter, Pattern pattern, GrepOptions options) {
+		this.repo = repo;
+		this.tree = tree;
+		this.filter = filter;
+		this.pattern = pattern;
+		this.maxBlobSize = options.getMaxBlobSize();
+		
+		int threads = (options.getThreads() > 0 ? options.getThreads() : Runtime.getRuntime().availableProcessors());
+		this.pool = new ForkJoinPool(threads, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName("git-grep-" + t.getPoolIndex());
+			return t;
+		}, null, false);
+		this.reader = ThreadLocal.withInitial(() -> {
+			ObjectReader threadReader = repo.newObjectReader();
+			readers.add(threadReader);
+			return threadReader;
+		});
+		this.results = new ResultQueue<GrepMatch>(options.getLimit(), "Error while searching the files", this::stop);
+	}
+	
+	/**
+	 * Starts walking the tree
+	 * @return the matching lines, as they are found
+	 */
+	ResultQueue<GrepMatch> start() {
+		pool.execute(this::walk);
+		return results;
+	}
+	
+	private void walk() {
+		try(ObjectReader walkReader = repo.newObjectReader(); TreeWalk tw = new TreeWalk(walkReader)) {
+			tw.addTree(tree);
+			tw.setRecursive(true);
+			tw.setFilter(filter);
+			
+			List<String> paths = new ArrayList<String>(CHUNK_SIZE);
+			List<ObjectId> ids = new ArrayList<ObjectId>(CHUNK_SIZE);
+			while(!results.isCancelled() && tw.next()) {
+				// Only files (not symbolic links or submodules)
+				if((tw.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) continue;
+				paths.add(tw.getPathString());
+				ids.add(tw.getObjectId(0));
+				if(paths.size() == CHUNK_SIZE) {
+					this.submit(paths, ids);
+					paths = new ArrayList<String>(CHUNK_SIZE);
+					ids = new ArrayList<ObjectId>(CHUNK_SIZE);
+				}
+			}
+			if(!paths.isEmpty()) this.submit(paths, ids);
+		} catch (Exception e) {
+			results.fail(e);
+		} finally {
+			this.done();
+		}
+	}
+	
+	private void submit(List<String> paths, List<ObjectId> ids) {
+		pending.incrementAndGet();
+		pool.execute(() -> {
+			try {
+				for(int i = 0; i < paths.size() && !results.isCancelled(); i++) {
+					this.search(paths.get(i), ids.get(i));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				results.fail(e);
+			} finally {
+				this.done();
+			}
+		});
+	}
+	
+	/**
+	 * Marks the end of the results after the walk and every chunk finished
+	 */
+	private void done() {
+		if(pending.decrementAndGet() == 0) results.end();
+	}
+	
+	private void search(String path, ObjectId id) throws IOException, InterruptedException {
+		ObjectReader threadReader = reader.get();
+		if(threadReader.getObjectSize(id, Constants.OBJ_BLOB) > maxBlobSize) return;
+		byte[] raw = threadReader.open(id, Constants.OBJ_BLOB).getCachedBytes(maxBlobSize);
+		if(RawText.isBinary(raw)) return;
+		
+		String content = RawParseUtils.decode(raw);
+		Matcher matcher = pattern.matcher(content);
+		int lineNumber = 1;
+		for(int start = 0; start < content.length(); lineNumber++) {
+			int end = content.indexOf('\n', start);
+			if(end < 0) end = content.length();
+			// Each line is matched on its own (^ and $ are its bounds)
+			matcher.region(start, end);
+			if(matcher.find() && !results.add(new GrepMatch(path, lineNumber, content.substring(start, end)))) return;
+			start = end + 1;
+		}
+	}
+	
+	/**
+	 * Stops the threads and closes their readers
+	 */
+	private void stop() {
+		pool.shutdownNow();
+		try {
+			pool.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized(readers) {
+			for(ObjectReader threadReader : readers) threadReader.close();
+		}
+	}
+}
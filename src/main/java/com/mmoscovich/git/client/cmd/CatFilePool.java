@@ -0,0 +1,282 @@
+package com.mmoscovich.git.client.cmd;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+import com.mmoscovich.git.client.GitClientException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool of persistent <code>git cat-file --batch-command</code> processes, so reading objects
+ * does not start a new process each time.
+ * <br>Each reader borrows a process for as long as it reads, so many threads can read concurrently (each with its own process).
+ * Idle processes beyond the max are stopped.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Slf4j
+public class CatFilePool implements AutoCloseable {
+	/** Unread content smaller than this is skipped when a stream is closed early (bigger ones stop the process instead) */
+	private static final long MAX_DRAIN = 64 * 1024;
+	
+	private final CommandLineExecutor executor;
+	private final int maxIdle;
+	private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+	private volatile boolean closed;
+	
+	/**
+	 * @param executor executor used to start the processes
+	 * @param maxIdle max amount of idle processes kept
+	 */
+	public CatFilePool(CommandLineExecutor executor, int maxIdle) {
+		this.executor = executor;
+		this.maxIdle = maxIdle;
+	}
+	
+	/**
+	 * Retrieves the type and size of an object
+	 * @param object object name (eg. <code>HEAD:pom.xml</code>)
+	 * @return the type and size, or <code>null</code> if the object does not exist
+	 * @throws GitClientException if the process fails
+	 */
+	public ObjectInfo info(String object) throws GitClientException {
+		Worker worker = this.borrow();
+		boolean ok = false;
+		try {
+			ObjectInfo info = worker.request("info", object);
+			ok = true;
+			return info;
+		} catch (IOException e) {
+			throw new GitClientException("Error while reading object " + object, e);
+		} finally {
+			// A process left in an unknown state is never reused
+			if(ok) this.release(worker);
+			else worker.destroy();
+		}
+	}
+	
+	/**
+	 * Opens the content of an object. The stream must be closed, so the process can be reused.
+	 * @param object object name (eg. <code>HEAD:pom.xml</code>)
+	 * @param expectedType type the object must have (eg. <code>blob</code>)
+	 * @return the content, or <code>null</code> if the object does not exist or is of another type
+	 * @throws GitClientException if the process fails
+	 */
+	public ObjectStream open(String object, String expectedType) throws GitClientException {
+		Worker worker = this.borrow();
+		boolean ok = false;
+		try {
+			// The type is checked first, so the content of other objects is never read
+			ObjectInfo info = worker.request("info", object);
+			if(info != null && info.getType().equals(expectedType)) info = worker.request("contents", info.getId());
+			else info = null;
+			ok = true;
+			
+			if(info == null) {
+				this.release(worker);
+				return null;
+			}
+			return new ObjectStream(worker, info.getSize());
+		} catch (IOException e) {
+			throw new GitClientException("Error while reading object " + object, e);
+		} finally {
+			if(!ok) worker.destroy();
+		}
+	}
+	
+	/**
+	 * Stops all the idle processes. The ones in use are stopped when released.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Worker worker;
+		while((worker = idle.poll()) != null) worker.destroy();
+	}
+	
+	private Worker borrow() throws GitClientException {
+		Worker worker = idle.poll();
+		if(worker != null) return worker;
+		try {
+			return new Worker(executor.startCommand("cat-file", "--batch-command"));
+		} catch (CommandLineException e) {
+			throw new GitClientException("Error while starting cat-file", e);
+		}
+	}
+	
+	private void release(Worker worker) {
+		if(closed || idle.size() >= maxIdle || !idle.offer(worker)) worker.destroy();
+	}
+	
+	/**
+	 * Type and size of an object
+	 */
+	public static class ObjectInfo {
+		private final String id;
+		private final String type;
+		private final long size;
+		
+		ObjectInfo(String id, String type, long size) {
+			this.id = id;
+			this.type = type;
+			this.size = size;
+		}
+		
+		public String getId() {
+			return id;
+		}
+		public String getType() {
+			return type;
+		}
+		public long getSize() {
+			return size;
+		}
+	}
+	
+	private static class Worker {
+		private final Process process;
+		private final OutputStream commands;
+		private final InputStream output;
+		
+		Worker(Process process) {
+			this.process = process;
+			this.commands = process.getOutputStream();
+			this.output = new BufferedInputStream(process.getInputStream(), 1 << 16);
+			// Errors are not expected (missing objects are reported on the output), but the pipe must not fill up
+			Thread drain = new Thread(() -> {
+				try(InputStream err = process.getErrorStream()) {
+					while(err.read() != -1) {}
+				} catch (IOException e) {}
+			}, "cat-file-stderr");
+			drain.setDaemon(true);
+			drain.start();
+		}
+		
+		/**
+		 * Sends a command and reads the header of the response
+		 * @return the object info, or <code>null</code> if it is missing
+		 */
+		ObjectInfo request(String command, String object) throws IOException {
+			if(object.indexOf('\n') >= 0) throw new IOException("Object names cannot contain new lines");
+			commands.write((command + " " + object + "\n").getBytes(StandardCharsets.UTF_8));
+			commands.flush();
+			
+			// Format: <id> SP <type> SP <size> LF, or <object> SP missing LF
+			String header = this.readLine();
+			if(header == null) throw new IOException("cat-file exited unexpectedly");
+			// The object name may contain spaces, so the missing cases are matched by suffix and the rest is parsed from the right
+			if(header.endsWith(" missing") || header.endsWith(" ambiguous")) return null;
+			int sizeStart = header.lastIndexOf(' ');
+			int typeStart = sizeStart > 0 ? header.lastIndexOf(' ', sizeStart - 1) : -1;
+			if(typeStart <= 0) throw new IOException("Unexpected cat-file response: " + header);
+			try {
+				return new ObjectInfo(header.substring(0, typeStart), header.substring(typeStart + 1, sizeStart), Long.parseLong(header.substring(sizeStart + 1)));
+			} catch (NumberFormatException e) {
+				throw new IOException("Unexpected cat-file response: " + header, e);
+			}
+		}
+		
+		private String readLine() throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+			int b;
+			while((b = output.read()) != '\n') {
+				if(b == -1) return null;
+				line.write(b);
+			}
+			return new String(line.toByteArray(), StandardCharsets.UTF_8);
+		}
+		
+		void destroy() {
+			try {
+				commands.close();
+			} catch (IOException e) {}
+			process.destroy();
+		}
+	}
+	
+	/**
+	 * Content of an object, read straight from the process output.
+	 * <br>Closing it returns the process to the pool.
+	 */
+	public class ObjectStream extends InputStream {
+		private final Worker worker;
+		private final long size;
+		private long remaining;
+		private boolean done;
+		
+		private ObjectStream(Worker worker, long size) {
+			this.worker = worker;
+			this.size = size;
+			this.remaining = size;
+		}
+		
+		/**
+		 * @return the size of the object
+		 */
+		public long getSize() {
+			return size;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if(remaining <= 0) return -1;
+			int b = worker.output.read();
+			if(b == -1) throw new IOException("cat-file exited unexpectedly");
+			remaining--;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) return 0;
+			if(remaining <= 0) return -1;
+			int read = worker.output.read(b, off, (int) Math.min(len, remaining));
+			if(read == -1) throw new IOException("cat-file exited unexpectedly");
+			remaining -= read;
+			return read;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(remaining, worker.output.available());
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(done) return;
+			done = true;
+			
+			if(remaining > MAX_DRAIN) {
+				worker.destroy();
+				return;
+			}
+			try {
+				// The rest of the content and the trailing LF
+				long toSkip = remaining + 1;
+				while(toSkip > 0) {
+					long skipped = worker.output.skip(toSkip);
+					if(skipped <= 0) {
+						if(worker.output.read() == -1) throw new IOException("cat-file exited unexpectedly");
+						skipped = 1;
+					}
+					toSkip -= skipped;
+				}
+				remaining = 0;
+				release(worker);
+			} catch (IOException e) {
+				log.debug("Discarding cat-file process: " + e.getMessage());
+				worker.destroy();
+			}
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package com.mmoscovich.git.client.cmd;
 
+import java.io.File;
+import java.io.InputStream;
+import java.util.Map;
+
 import lombok.extern.slf4j.Slf4j;
 
 import org.codehaus.plexus.util.StringUtils;
@@ -14,16 +18,34 @@ public class CommandLineExecutor {
 	/** Success exit code. */
     public static final int SUCCESS_EXIT_CODE = 0;
 	
-	private final Commandline cmd = new Commandline();
 	private String executable;
+	private volatile File workingDirectory;
 	
 	public CommandLineExecutor(String executable) {
 		this.executable = executable;
-		this.init();
 	}
 	
-	private void init() {
+	/**
+	 * Creates the command line for a new execution.
+	 * <br>Each execution uses its own instance, so commands can be executed concurrently.
+	 * <br>Messages are always in English (C locale), since the output and errors of many commands are parsed.
+	 * @return the command line
+	 */
+	private Commandline init() {
+		Commandline cmd = new Commandline();
 		cmd.setExecutable(executable);
+		cmd.addEnvironment("LC_ALL", "C");
+		cmd.addEnvironment("LANGUAGE", "C");
+		if(workingDirectory != null) cmd.setWorkingDirectory(workingDirectory);
+		return cmd;
+	}
+	
+	/**
+	 * Sets the directory where the commands are executed.
+	 * @param workingDirectory the directory. If <code>null</code>, the current one is used.
+	 */
+	public void setWorkingDirectory(File workingDirectory) {
+		this.workingDirectory = workingDirectory;
 	}
 	
 	/**
@@ -44,14 +66,84 @@ public class CommandLineExecutor {
      */
     public CommandResult executeCommand(final boolean failOnError, final String... args)
             throws CommandLineException {
+    	return this.executeCommand(failOnError, null, args);
+    }
+    
+    /**
+     * Executes command line, feeding the provided stream to the process standard input.
+     * 
+     * @param failOnError
+     *            Whether to throw exception on NOT success exit code.
+     * @param input
+     *            Stream to send to the process (may be <code>null</code>).
+     * @param args
+     *            Command line arguments.
+     * @return {@link CommandResult} instance holding command exit code, output
+     *         and error if any.
+     * @throws CommandLineException
+     *             If <code>failOnError</code> is <code>true</code> and command
+     *             exit code is NOT equals to 0.
+     */
+    public CommandResult executeCommand(final boolean failOnError, final InputStream input, final String... args)
+            throws CommandLineException {
+    	return this.executeCommand(failOnError, input, null, args);
+    }
+    
+    /**
+     * Executes command line, feeding the provided stream to the process standard input
+     * and notifying each error line (eg. progress) as soon as it is printed.
+     * 
+     * @param failOnError
+     *            Whether to throw exception on NOT success exit code.
+     * @param input
+     *            Stream to send to the process (may be <code>null</code>).
+     * @param errorListener
+     *            Consumer notified of each line of the error stream (may be <code>null</code>).
+     * @param args
+     *            Command line arguments.
+     * @return {@link CommandResult} instance holding command exit code, output
+     *         and error if any.
+     * @throws CommandLineException
+     *             If <code>failOnError</code> is <code>true</code> and command
+     *             exit code is NOT equals to 0.
+     */
+    public CommandResult executeCommand(final boolean failOnError, final InputStream input, final StreamConsumer errorListener, final String... args)
+            throws CommandLineException {
+    	return this.executeCommand(failOnError, input, errorListener, null, args);
+    }
+    
+    /**
+     * Executes command line with additional environment variables, feeding the provided stream to the process standard input
+     * and notifying each error line (eg. progress) as soon as it is printed.
+     * 
+     * @param failOnError
+     *            Whether to throw exception on NOT success exit code.
+     * @param input
+     *            Stream to send to the process (may be <code>null</code>).
+     * @param errorListener
+     *            Consumer notified of each line of the error stream (may be <code>null</code>).
+     * @param environment
+     *            Variables added to the ones of the current process (may be <code>null</code>).
+     * @param args
+     *            Command line arguments.
+     * @return {@link CommandResult} instance holding command exit code, output
+     *         and error if any.
+     * @throws CommandLineException
+     *             If <code>failOnError</code> is <code>true</code> and command
+     *             exit code is NOT equals to 0.
+     */
+    public CommandResult executeCommand(final boolean failOnError, final InputStream input, final StreamConsumer errorListener, final Map<String, String> environment, final String... args)
+            throws CommandLineException {
 
-    	this.init();;
+    	final Commandline cmd = this.init();
+    	if(environment != null) {
+    		for(Map.Entry<String, String> var : environment.entrySet()) cmd.addEnvironment(var.getKey(), var.getValue());
+    	}
 
         if (log.isDebugEnabled()) {
         	log.debug(cmd.getExecutable() + " " + StringUtils.join(args, " "));
         }
 
-        cmd.clearArgs();
         cmd.addArguments(args);
 
         final StreamConsumer out;
@@ -61,10 +153,16 @@ public class CommandLineExecutor {
         out = new CommandLineUtils.StringStreamConsumer();
 //        }
 
-        final CommandLineUtils.StringStreamConsumer err = new CommandLineUtils.StringStreamConsumer();
+        final CommandLineUtils.StringStreamConsumer err = new CommandLineUtils.StringStreamConsumer() {
+        	@Override
+        	public void consumeLine(String line) {
+        		super.consumeLine(line);
+        		if(errorListener != null) errorListener.consumeLine(line);
+        	}
+        };
 
         // execute
-        final int exitCode = CommandLineUtils.executeCommandLine(cmd, out, err);
+        final int exitCode = CommandLineUtils.executeCommandLine(cmd, input, out, err);
 
         String errorStr = err.getOutput();
         String outStr = "";
@@ -84,6 +182,27 @@ public class CommandLineExecutor {
         return new CommandResult(exitCode, outStr, errorStr);
     }
 
+    /**
+     * Starts a long running command, leaving its streams to the caller.
+     * <br>The caller must consume its output and destroy the process when done.
+     * 
+     * @param args
+     *            Command line arguments.
+     * @return the started process
+     * @throws CommandLineException
+     *             If the process cannot be started.
+     */
+    public Process startCommand(final String... args) throws CommandLineException {
+    	final Commandline cmd = this.init();
+    	
+    	if (log.isDebugEnabled()) {
+    		log.debug("Starting " + cmd.getExecutable() + " " + StringUtils.join(args, " "));
+    	}
+    	
+    	cmd.addArguments(args);
+    	return cmd.execute();
+    }
+
     public static class CommandResult {
         private final int exitCode;
         private final String out;
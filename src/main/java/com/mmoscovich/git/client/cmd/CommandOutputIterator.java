@@ -0,0 +1,159 @@
+package com.mmoscovich.git.client.cmd;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.mmoscovich.git.client.GitClientException;
+
+/**
+ * Iterates the output of a running command record by record (eg. NUL separated paths), as it is produced,
+ * so big outputs are never held in memory.
+ * <br>When the output ends, the exit code is checked. Closing it before stops the command.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+public class CommandOutputIterator implements Iterator<String>, AutoCloseable {
+	/** Max amount of error output kept for the exception message */
+	private static final int MAX_ERROR = 64 * 1024;
+	
+	private final Process process;
+	private final InputStream output;
+	private final int separator;
+	private final int[] successExitCodes;
+	private final StringBuffer error = new StringBuffer();
+	private final Thread errorReader;
+	
+	private String next;
+	private boolean finished;
+	
+	/**
+	 * @param process the running command
+	 * @param separator byte that ends each record (eg. <code>0</code> for NUL or <code>'\n'</code>)
+	 */
+	public CommandOutputIterator(final Process process, int separator) {
+		this(process, separator, CommandLineExecutor.SUCCESS_EXIT_CODE);
+	}
+	
+	/**
+	 * @param process the running command
+	 * @param separator byte that ends each record (eg. <code>0</code> for NUL or <code>'\n'</code>)
+	 * @param successExitCodes exit codes that are not errors (eg. <code>1</code> for "nothing found")
+	 */
+	public CommandOutputIterator(final Process process, int separator, int... successExitCodes) {
+		this.process = process;
+		this.successExitCodes = successExitCodes;
+		this.output = new BufferedInputStream(process.getInputStream(), 1 << 16);
+		this.separator = separator;
+		
+		this.errorReader = new Thread(() -> {
+			byte[] buffer = new byte[4096];
+			try(InputStream err = process.getErrorStream()) {
+				int read;
+				while((read = err.read(buffer)) != -1) {
+					if(error.length() < MAX_ERROR) error.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+				}
+			} catch (IOException e) {}
+		}, "git-stderr");
+		this.errorReader.setDaemon(true);
+		this.errorReader.start();
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if(next != null) return true;
+		if(finished) return false;
+		
+		try {
+			ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+			int b;
+			while((b = output.read()) != separator) {
+				if(b == -1) {
+					this.finish();
+					// The last record may not be terminated
+					if(record.size() == 0) return false;
+					break;
+				}
+				record.write(b);
+			}
+			next = new String(record.toByteArray(), StandardCharsets.UTF_8);
+			return true;
+		} catch (IOException e) {
+			this.close();
+			throw new GitClientException("Error while reading command output", e);
+		}
+	}
+	
+	@Override
+	public String next() {
+		if(!this.hasNext()) throw new NoSuchElementException();
+		String record = next;
+		next = null;
+		return record;
+	}
+	
+	/**
+	 * Copies the rest of the output (as is) to a stream and waits for the command to exit.
+	 * @param out stream where the output is copied
+	 * @return amount of bytes copied
+	 * @throws IOException if there is an error writing to the stream
+	 * @throws GitClientException if the command was not successful
+	 */
+	public long transferTo(OutputStream out) throws IOException {
+		if(finished) return 0;
+		byte[] buffer = new byte[1 << 16];
+		long total = 0;
+		int read;
+		try {
+			while((read = output.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				total += read;
+			}
+		} catch (IOException e) {
+			this.close();
+			throw e;
+		}
+		this.finish();
+		return total;
+	}
+	
+	/**
+	 * Waits for the command to exit, failing if it was not successful
+	 */
+	private void finish() {
+		finished = true;
+		try {
+			int exitCode = process.waitFor();
+			errorReader.join(1000);
+			for(int code : successExitCodes) {
+				if(exitCode == code) return;
+			}
+			throw new GitClientException("Error while executing command: " + error.toString().trim());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			process.destroy();
+			throw new GitClientException("Interrupted while waiting for command", e);
+		}
+	}
+	
+	/**
+	 * Stops the command if it is still running
+	 */
+	@Override
+	public void close() {
+		if(finished) return;
+		finished = true;
+		next = null;
+		try {
+			process.getOutputStream().close();
+			output.close();
+		} catch (IOException e) {}
+		process.destroy();
+	}
+}
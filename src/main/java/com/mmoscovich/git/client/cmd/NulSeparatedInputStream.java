@@ -0,0 +1,56 @@
+package com.mmoscovich.git.client.cmd;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Input stream that lazily writes each value of an iterator followed by a NUL byte.
+ * <br>Used to send long lists (eg. paths) to Git commands through the standard input
+ * (ie. <code>--pathspec-from-file=- --pathspec-file-nul</code>) without building the whole list in memory.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+public class NulSeparatedInputStream extends InputStream {
+	private final Iterator<String> values;
+	private byte[] current = new byte[0];
+	private int position = 0;
+	
+	public NulSeparatedInputStream(Iterator<String> values) {
+		this.values = values;
+	}
+	
+	/**
+	 * Moves to the next value if the current one was fully read.
+	 * @return <code>false</code> if there are no more bytes to read
+	 */
+	private boolean fill() {
+		while(position >= current.length) {
+			if(!values.hasNext()) return false;
+			
+			byte[] value = values.next().getBytes(StandardCharsets.UTF_8);
+			current = new byte[value.length + 1];
+			System.arraycopy(value, 0, current, 0, value.length);
+			position = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() {
+		if(!fill()) return -1;
+		return current[position++] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if(len == 0) return 0;
+		if(!fill()) return -1;
+		
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, count);
+		position += count;
+		return count;
+	}
+}
@@ -0,0 +1,75 @@
+package com.mmoscovich.git.client.cmd;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+import com.mmoscovich.git.client.model.ProgressListener;
+
+/**
+ * Consumer of the error stream of Git commands that notifies the progress lines
+ * (eg. <code>Receiving objects:  45% (450/1000)</code>) to a {@link ProgressListener}.
+ * <br>It also keeps the amount and size of the objects received, as reported by Git.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+public class ProgressConsumer implements StreamConsumer {
+	private static final Pattern PROGRESS = Pattern.compile("^(?:remote: )?([A-Za-z ]+?):\\s+\\d+% \\((\\d+)/(\\d+)\\)");
+	/** Eg. <code>Receiving objects: 100% (1000/1000), 1.23 MiB | 2.00 MiB/s, done.</code> (the size is not always printed) */
+	private static final Pattern RECEIVED = Pattern.compile("^(?:Receiving|Unpacking) objects:\\s+\\d+% \\(\\d+/(\\d+)\\)(?:, ([\\d.]+) (bytes?|KiB|MiB|GiB))?");
+	/** Eg. <code>remote: Total 3 (delta 1), reused 0 (delta 0)</code>, printed even when the transfer is too quick to report progress */
+	private static final Pattern TOTAL = Pattern.compile("^remote: Total (\\d+)");
+	
+	private final ProgressListener listener;
+	private long objectsReceived;
+	private long bytesReceived;
+	
+	/**
+	 * @param listener listener notified of the progress (may be <code>null</code>)
+	 */
+	public ProgressConsumer(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void consumeLine(String line) {
+		Matcher m = PROGRESS.matcher(line);
+		if(m.find() && listener != null) {
+			listener.onProgress(m.group(1), Long.parseLong(m.group(2)), Long.parseLong(m.group(3)));
+		}
+		
+		m = RECEIVED.matcher(line);
+		if(m.find()) {
+			objectsReceived = Math.max(objectsReceived, Long.parseLong(m.group(1)));
+			if(m.group(2) != null) bytesReceived = toBytes(Double.parseDouble(m.group(2)), m.group(3));
+		} else if((m = TOTAL.matcher(line)).find()) {
+			objectsReceived = Math.max(objectsReceived, Long.parseLong(m.group(1)));
+		}
+	}
+	
+	/**
+	 * @return amount of objects received
+	 */
+	public long getObjectsReceived() {
+		return objectsReceived;
+	}
+	
+	/**
+	 * @return size of the objects received. Git rounds it (eg. <code>1.23 MiB</code>) and does not report it
+	 * for transfers too quick to show progress, in which case it is <code>0</code>
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+	
+	private static long toBytes(double value, String unit) {
+		switch(unit) {
+			case "KiB": return (long) (value * 1024);
+			case "MiB": return (long) (value * 1024 * 1024);
+			case "GiB": return (long) (value * 1024 * 1024 * 1024);
+			default: return (long) value;
+		}
+	}
+}
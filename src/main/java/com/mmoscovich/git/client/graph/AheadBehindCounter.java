@@ -0,0 +1,158 @@
+package com.mmoscovich.git.client.graph;
+
+import java.util.Arrays;
+
+import com.mmoscovich.git.client.model.AheadBehind;
+
+/**
+ * Counts the commits ahead and behind a base for many branches at once, in a single traversal of the history.
+ * <br>Each commit is coloured with a bitset of the tips that reach it (one bit per branch plus one for the base).
+ * The traversal must visit children before parents (topological order), propagating the colours of each commit to its
+ * parents with {@link #propagate(long[], long[])} and then counting it with {@link #count(long[])}, when its colours are final.
+ * <br>Commits reached by every tip do not change any count, so the traversal can stop once only those are left
+ * (see {@link #isDone()}).
+ * 
+ * @author Martin Moscovich
+ *
+ */
+public class AheadBehindCounter {
+	private final int branches;
+	private final int words;
+	private final long[] full;
+	private final long[] branchMask;
+	
+	// Updating one counter per branch for each commit would cost O(branches) per commit. Instead, each commit
+	// updates the counters of the branches that have the minority value (reached or not) and a global counter
+	// when needed, so it costs O(min(reached, not reached)).
+	private final int[] aheadReached;
+	private final int[] aheadNotReached;
+	private int aheadTotal;
+	private final int[] behindNotReached;
+	private final int[] behindReached;
+	private int behindTotal;
+	
+	/** Amount of coloured commits, not counted yet, that are not reached by every tip */
+	private int pending;
+	
+	/**
+	 * @param branches amount of branches (bits <code>0</code> to <code>branches - 1</code>, the base uses bit <code>branches</code>)
+	 */
+	public AheadBehindCounter(int branches) {
+		this.branches = branches;
+		this.words = (branches + 1 + 63) / 64;
+		this.full = new long[words];
+		for(int bit = 0; bit <= branches; bit++) this.full[bit >>> 6] |= 1L << bit;
+		this.branchMask = full.clone();
+		this.branchMask[branches >>> 6] &= ~(1L << branches);
+		
+		this.aheadReached = new int[branches];
+		this.aheadNotReached = new int[branches];
+		this.behindNotReached = new int[branches];
+		this.behindReached = new int[branches];
+	}
+	
+	/**
+	 * @return the bit of the base
+	 */
+	public int getBaseBit() {
+		return branches;
+	}
+	
+	/**
+	 * Colours a tip (a branch or the base). It must be called for every tip before the traversal starts.
+	 * @param colors current colours of the commit, or <code>null</code> if it was not coloured yet
+	 * @param bit bit of the tip
+	 * @return the colours of the commit (<code>colors</code>, or a new array if it was <code>null</code>)
+	 */
+	public long[] start(long[] colors, int bit) {
+		long[] tip = new long[words];
+		tip[bit >>> 6] |= 1L << bit;
+		return this.propagate(tip, colors);
+	}
+	
+	/**
+	 * Adds the colours of a commit to one of its parents.
+	 * @param child colours of the commit
+	 * @param parent current colours of the parent, or <code>null</code> if it was not coloured yet
+	 * @return the colours of the parent (<code>parent</code>, or a new array if it was <code>null</code>)
+	 */
+	public long[] propagate(long[] child, long[] parent) {
+		boolean wasPending = (parent != null && !this.isFull(parent));
+		if(parent == null) parent = new long[words];
+		for(int i = 0; i < words; i++) parent[i] |= child[i];
+		boolean isPending = !this.isFull(parent);
+		
+		if(isPending && !wasPending) pending++;
+		else if(!isPending && wasPending) pending--;
+		return parent;
+	}
+	
+	/**
+	 * Counts a commit. Its colours must be final (ie. all its children were already propagated).
+	 * @param colors colours of the commit
+	 */
+	public void count(long[] colors) {
+		if(this.isFull(colors)) return;
+		pending--;
+		
+		int reached = 0;
+		for(int i = 0; i < words; i++) reached += Long.bitCount(colors[i] & branchMask[i]);
+		boolean mostlyReached = reached > branches / 2;
+		
+		if(isSet(colors, branches)) {
+			// Behind for every branch that does not reach it
+			if(mostlyReached) {
+				this.increment(behindNotReached, colors, false);
+			} else {
+				behindTotal++;
+				this.increment(behindReached, colors, true);
+			}
+		} else {
+			// Ahead for every branch that reaches it
+			if(mostlyReached) {
+				aheadTotal++;
+				this.increment(aheadNotReached, colors, false);
+			} else {
+				this.increment(aheadReached, colors, true);
+			}
+		}
+	}
+	
+	/**
+	 * Increments the counters of the branches that reach (or not) a commit
+	 */
+	private void increment(int[] counters, long[] colors, boolean reached) {
+		for(int i = 0; i < words; i++) {
+			long word = (reached ? colors[i] : ~colors[i]) & branchMask[i];
+			while(word != 0) {
+				counters[(i << 6) + Long.numberOfTrailingZeros(word)]++;
+				word &= word - 1;
+			}
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> if the remaining commits are reached by every tip, so they do not change the counts
+	 */
+	public boolean isDone() {
+		return pending == 0;
+	}
+	
+	/**
+	 * @param branch bit of the branch
+	 * @return the commits the branch is ahead and behind the base
+	 */
+	public AheadBehind get(int branch) {
+		int ahead = aheadReached[branch] + aheadTotal - aheadNotReached[branch];
+		int behind = behindNotReached[branch] + behindTotal - behindReached[branch];
+		return new AheadBehind(ahead, behind);
+	}
+	
+	private boolean isFull(long[] colors) {
+		return Arrays.equals(colors, full);
+	}
+	
+	private static boolean isSet(long[] colors, int bit) {
+		return (colors[bit >>> 6] & (1L << bit)) != 0;
+	}
+}
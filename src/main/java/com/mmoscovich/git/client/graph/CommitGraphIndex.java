@@ -0,0 +1,633 @@
+package com.mmoscovich.git.client.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persisted index of the commit graph, used to answer reachability queries (ancestor, merge base, ahead/behind)
+ * without parsing commits.
+ * <br>Each indexed commit gets a position; its parents are stored as positions too (compressed rows: <code>parentStart</code>
+ * holds where the parents of each commit start in <code>parents</code>), along with its generation number
+ * (1 + max generation of its parents). A commit can only reach commits with a lower generation, which bounds the walks.
+ * <br>Commits are always indexed after their parents, so the index grows incrementally: commits missing from it
+ * (and their missing ancestors) are appended when a query needs them.
+ * <br>Everything is kept in primitive arrays, so 1M commits take ~40MB and no objects per commit.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Slf4j
+public class CommitGraphIndex {
+	private static final int MAGIC = 0x47434958; // "GCIX"
+	private static final int VERSION = 1;
+	private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+	
+	private static final byte LEFT = 1;
+	private static final byte RIGHT = 2;
+	private static final byte BOTH = LEFT | RIGHT;
+	
+	private static final byte CONTAINS = 1;
+	private static final byte NOT_CONTAINS = 2;
+	
+	private final File file;
+	
+	private int count;
+	/** Raw ids (20 bytes each) */
+	private byte[] ids;
+	private int[] generations;
+	private int[] parentStart;
+	private int[] parents;
+	private int parentCount;
+	/** Open addressing table of position + 1 (0 is empty) */
+	private int[] table;
+	
+	private boolean dirty;
+	
+	private CommitGraphIndex(File file, int capacity, int parentCapacity) {
+		this.file = file;
+		this.ids = new byte[capacity * ID_LENGTH];
+		this.generations = new int[capacity];
+		this.parentStart = new int[capacity + 1];
+		this.parents = new int[parentCapacity];
+		this.table = new int[tableSize(capacity)];
+	}
+	
+	/**
+	 * Loads the index stored in the file, or creates an empty one if the file does not exist (or is invalid).
+	 * @param file file where the index is persisted
+	 * @return the index
+	 */
+	public static CommitGraphIndex load(File file) {
+		if(!file.isFile()) return new CommitGraphIndex(file, 1024, 1024);
+		
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Invalid header");
+			int count = in.readInt();
+			int parentCount = in.readInt();
+			
+			CommitGraphIndex index = new CommitGraphIndex(file, Math.max(count, 1024), Math.max(parentCount, 1024));
+			in.readFully(index.ids, 0, count * ID_LENGTH);
+			for(int i = 0; i < count; i++) index.generations[i] = in.readInt();
+			for(int i = 0; i <= count; i++) index.parentStart[i] = in.readInt();
+			for(int i = 0; i < parentCount; i++) index.parents[i] = in.readInt();
+			index.count = count;
+			index.parentCount = parentCount;
+			for(int i = 0; i < count; i++) index.insertInTable(i);
+			
+			log.debug("Loaded commit graph index with " + count + " commits");
+			return index;
+		} catch (IOException e) {
+			log.warn("Ignoring commit graph index " + file + ": " + e.getMessage());
+			return new CommitGraphIndex(file, 1024, 1024);
+		}
+	}
+	
+	/**
+	 * Persists the index, if it changed since it was loaded (or last saved).
+	 * <br>The file is replaced atomically, so readers never see a partial index.
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		if(!dirty) return;
+		
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			out.writeInt(parentCount);
+			out.write(ids, 0, count * ID_LENGTH);
+			for(int i = 0; i < count; i++) out.writeInt(generations[i]);
+			for(int i = 0; i <= count; i++) out.writeInt(parentStart[i]);
+			for(int i = 0; i < parentCount; i++) out.writeInt(parents[i]);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+	
+	/**
+	 * @return the amount of indexed commits
+	 */
+	public synchronized int size() {
+		return count;
+	}
+	
+	/**
+	 * Indexes a commit and all its ancestors that are not indexed yet.
+	 * @param reader reader used to parse the missing commits
+	 * @param id id of the commit
+	 * @return the position of the commit in the index
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized int add(ObjectReader reader, AnyObjectId id) throws IOException {
+		int pos = this.find(id);
+		if(pos >= 0) return pos;
+		
+		try(RevWalk rw = new RevWalk(reader)) {
+			rw.setRetainBody(false);
+			
+			// Iterative post-order DFS: a commit is appended once all its parents are.
+			// A commit may be pushed more than once (through different children), it is skipped once indexed
+			// Annotated tags are peeled
+			RevCommit tip = rw.parseCommit(id);
+			RevCommit[] stack = new RevCommit[64];
+			int top = 0;
+			stack[top++] = tip;
+			while(top > 0) {
+				RevCommit commit = stack[top - 1];
+				if(this.find(commit) >= 0) {
+					top--;
+					continue;
+				}
+				
+				boolean ready = true;
+				for(RevCommit parent : commit.getParents()) {
+					if(this.find(parent) >= 0) continue;
+					rw.parseHeaders(parent);
+					if(top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+					stack[top++] = parent;
+					ready = false;
+				}
+				if(ready) {
+					top--;
+					this.append(commit);
+				}
+			}
+			return this.find(tip);
+		}
+	}
+	
+	/**
+	 * Checks whether a commit is reachable from another one (a commit is considered its own ancestor).
+	 * <br>Missing commits are indexed first.
+	 * @param reader reader used to parse the commits missing from the index
+	 * @param ancestor id of the possible ancestor
+	 * @param descendant id of the possible descendant
+	 * @return <code>true</code> if <code>ancestor</code> is reachable from <code>descendant</code>
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized boolean isAncestor(ObjectReader reader, AnyObjectId ancestor, AnyObjectId descendant) throws IOException {
+		int target = this.add(reader, ancestor);
+		int start = this.add(reader, descendant);
+		if(target == start) return true;
+		
+		int minGeneration = generations[target];
+		if(generations[start] <= minGeneration) return false;
+		
+		// Commits with a generation lower or equal than the target's cannot reach it
+		BitSet visited = new BitSet(count);
+		IntStack stack = new IntStack();
+		stack.push(start);
+		visited.set(start);
+		while(!stack.isEmpty()) {
+			int commit = stack.pop();
+			for(int p = parentStart[commit]; p < parentStart[commit + 1]; p++) {
+				int parent = parents[p];
+				if(parent == target) return true;
+				if(generations[parent] > minGeneration && !visited.get(parent)) {
+					visited.set(parent);
+					stack.push(parent);
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the best common ancestor of two commits.
+	 * <br>Missing commits are indexed first.
+	 * @param reader reader used to parse the commits missing from the index
+	 * @param a id of a commit
+	 * @param b id of the other commit
+	 * @return id of the merge base, or <code>null</code> if the commits have no common history
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized ObjectId mergeBase(ObjectReader reader, AnyObjectId a, AnyObjectId b) throws IOException {
+		int left = this.add(reader, a);
+		int right = this.add(reader, b);
+		
+		// Commits are visited by decreasing generation, so when one is visited, all its descendants
+		// were already visited and its flags are final. The first one reachable from both has the highest
+		// generation, so it cannot be an ancestor of another common one.
+		byte[] flags = new byte[count];
+		GenerationQueue queue = new GenerationQueue();
+		flags[left] |= LEFT;
+		flags[right] |= RIGHT;
+		queue.add(left);
+		if(right != left) queue.add(right);
+		
+		while(!queue.isEmpty()) {
+			int commit = queue.poll();
+			byte flag = flags[commit];
+			if(flag == BOTH) return this.getId(commit);
+			
+			for(int p = parentStart[commit]; p < parentStart[commit + 1]; p++) {
+				int parent = parents[p];
+				if(flags[parent] == 0) queue.add(parent);
+				flags[parent] |= flag;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Counts the commits reachable from each commit but not from the other one.
+	 * <br>Missing commits are indexed first.
+	 * @param reader reader used to parse the commits missing from the index
+	 * @param a id of a commit
+	 * @param b id of the other commit (eg. the upstream)
+	 * @return amount of commits only reachable from <code>a</code> (first) and only from <code>b</code> (second)
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized int[] aheadBehind(ObjectReader reader, AnyObjectId a, AnyObjectId b) throws IOException {
+		int left = this.add(reader, a);
+		int right = this.add(reader, b);
+		if(left == right) return new int[] {0, 0};
+		
+		// Same traversal as the merge base, but it goes on until every queued commit is reachable from both
+		// (pending is the amount of queued commits that are not)
+		byte[] flags = new byte[count];
+		GenerationQueue queue = new GenerationQueue();
+		flags[left] = LEFT;
+		flags[right] = RIGHT;
+		queue.add(left);
+		queue.add(right);
+		int pending = 2;
+		
+		int ahead = 0, behind = 0;
+		while(pending > 0) {
+			int commit = queue.poll();
+			byte flag = flags[commit];
+			// Commits reachable from both are not counted, but still propagate it to their parents
+			if(flag != BOTH) {
+				pending--;
+				if(flag == LEFT) ahead++;
+				else behind++;
+			}
+			
+			for(int p = parentStart[commit]; p < parentStart[commit + 1]; p++) {
+				int parent = parents[p];
+				byte before = flags[parent];
+				byte after = (byte) (before | flag);
+				if(before == after) continue;
+				
+				flags[parent] = after;
+				if(before == 0) {
+					queue.add(parent);
+					if(after != BOTH) pending++;
+				} else if(after == BOTH) {
+					// Was queued as reachable from one side only
+					pending--;
+				}
+			}
+		}
+		return new int[] {ahead, behind};
+	}
+	
+	/**
+	 * Counts the commits ahead and behind a base for many branches, in a single traversal by decreasing generation.
+	 * <br>Missing commits are indexed first.
+	 * @param reader reader used to parse the commits missing from the index
+	 * @param base id of the base commit
+	 * @param branches ids of the branch tips (their position is their bit in the counter)
+	 * @param counter counter for the same amount of branches, where the commits are counted
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized void aheadBehindAll(ObjectReader reader, AnyObjectId base, List<? extends AnyObjectId> branches, AheadBehindCounter counter) throws IOException {
+		int basePos = this.add(reader, base);
+		int[] branchPos = new int[branches.size()];
+		for(int b = 0; b < branchPos.length; b++) branchPos[b] = this.add(reader, branches.get(b));
+		
+		long[][] colors = new long[count][];
+		GenerationQueue queue = new GenerationQueue();
+		colors[basePos] = counter.start(null, counter.getBaseBit());
+		queue.add(basePos);
+		for(int b = 0; b < branchPos.length; b++) {
+			int pos = branchPos[b];
+			if(colors[pos] == null) queue.add(pos);
+			colors[pos] = counter.start(colors[pos], b);
+		}
+		
+		while(!counter.isDone()) {
+			int commit = queue.poll();
+			for(int p = parentStart[commit]; p < parentStart[commit + 1]; p++) {
+				int parent = parents[p];
+				if(colors[parent] == null) queue.add(parent);
+				colors[parent] = counter.propagate(colors[commit], colors[parent]);
+			}
+			counter.count(colors[commit]);
+			colors[commit] = null;
+		}
+	}
+	
+	/**
+	 * Finds which tips contain a commit (ie. the commit is an ancestor of the tip), sharing the walk among all of them.
+	 * <br>Missing commits are indexed first.
+	 * @param reader reader used to parse the commits missing from the index
+	 * @param commit id of the commit
+	 * @param tips ids of the tips (eg. of every branch)
+	 * @return the indexes (in <code>tips</code>) of the tips that contain the commit
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized BitSet tipsContaining(ObjectReader reader, AnyObjectId commit, List<? extends AnyObjectId> tips) throws IOException {
+		int target = this.add(reader, commit);
+		int[] tipPos = new int[tips.size()];
+		for(int t = 0; t < tipPos.length; t++) tipPos[t] = this.add(reader, tips.get(t));
+		
+		// Memoized post-order DFS, so every commit is evaluated once for all the tips.
+		// Commits with a generation lower or equal than the target's cannot contain it
+		int minGeneration = generations[target];
+		byte[] contains = new byte[count];
+		contains[target] = CONTAINS;
+		IntStack stack = new IntStack();
+		BitSet result = new BitSet(tipPos.length);
+		for(int t = 0; t < tipPos.length; t++) {
+			stack.push(tipPos[t]);
+			while(!stack.isEmpty()) {
+				int pos = stack.peek();
+				if(contains[pos] != 0) {
+					stack.pop();
+					continue;
+				}
+				if(generations[pos] <= minGeneration) {
+					contains[pos] = NOT_CONTAINS;
+					stack.pop();
+					continue;
+				}
+				
+				boolean pending = false, found = false;
+				for(int p = parentStart[pos]; p < parentStart[pos + 1] && !found; p++) {
+					int parent = parents[p];
+					if(contains[parent] == CONTAINS) found = true;
+					else if(contains[parent] == 0) {
+						stack.push(parent);
+						pending = true;
+					}
+				}
+				if(found || !pending) {
+					contains[pos] = (found ? CONTAINS : NOT_CONTAINS);
+					stack.pop();
+				}
+			}
+			if(contains[tipPos[t]] == CONTAINS) result.set(t);
+		}
+		return result;
+	}
+	
+	/**
+	 * Finds which tips are reachable from a commit (ie. they are merged into it), in a single walk.
+	 * <br>Missing commits are indexed first.
+	 * @param reader reader used to parse the commits missing from the index
+	 * @param commit id of the commit (eg. the target branch)
+	 * @param tips ids of the tips (eg. of every branch)
+	 * @return the indexes (in <code>tips</code>) of the tips reachable from the commit
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized BitSet tipsReachableFrom(ObjectReader reader, AnyObjectId commit, List<? extends AnyObjectId> tips) throws IOException {
+		int start = this.add(reader, commit);
+		int[] tipPos = new int[tips.size()];
+		int minGeneration = Integer.MAX_VALUE;
+		for(int t = 0; t < tipPos.length; t++) {
+			tipPos[t] = this.add(reader, tips.get(t));
+			minGeneration = Math.min(minGeneration, generations[tipPos[t]]);
+		}
+		
+		// Commits with a lower generation than every tip cannot be one of them
+		BitSet visited = new BitSet(count);
+		IntStack stack = new IntStack();
+		stack.push(start);
+		visited.set(start);
+		while(!stack.isEmpty()) {
+			int pos = stack.pop();
+			for(int p = parentStart[pos]; p < parentStart[pos + 1]; p++) {
+				int parent = parents[p];
+				if(generations[parent] >= minGeneration && !visited.get(parent)) {
+					visited.set(parent);
+					stack.push(parent);
+				}
+			}
+		}
+		
+		BitSet result = new BitSet(tipPos.length);
+		for(int t = 0; t < tipPos.length; t++) {
+			if(visited.get(tipPos[t])) result.set(t);
+		}
+		return result;
+	}
+	
+	/**
+	 * Finds every commit reachable from some tips (including them), without parsing any indexed commit.
+	 * <br>Missing commits are indexed first.
+	 * @param reader reader used to parse the commits missing from the index
+	 * @param tips ids of the tips
+	 * @return the positions of the reachable commits
+	 * @throws IOException if a commit cannot be read
+	 */
+	public synchronized BitSet reachableFrom(ObjectReader reader, List<? extends AnyObjectId> tips) throws IOException {
+		BitSet visited = new BitSet(count);
+		IntStack stack = new IntStack();
+		for(AnyObjectId tip : tips) {
+			int start = this.add(reader, tip);
+			if(!visited.get(start)) {
+				visited.set(start);
+				stack.push(start);
+			}
+		}
+		while(!stack.isEmpty()) {
+			int pos = stack.pop();
+			for(int p = parentStart[pos]; p < parentStart[pos + 1]; p++) {
+				int parent = parents[p];
+				if(!visited.get(parent)) {
+					visited.set(parent);
+					stack.push(parent);
+				}
+			}
+		}
+		return visited;
+	}
+	
+	/**
+	 * @param id id of a commit
+	 * @return its position in the index, or <code>-1</code> if it is not indexed
+	 */
+	public synchronized int find(AnyObjectId id) {
+		byte[] raw = new byte[ID_LENGTH];
+		id.copyRawTo(raw, 0);
+		int mask = table.length - 1;
+		for(int slot = hash(raw, 0) & mask; ; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if(entry == 0) return -1;
+			if(equals(ids, (entry - 1) * ID_LENGTH, raw)) return entry - 1;
+		}
+	}
+	
+	/**
+	 * @param pos position of an indexed commit
+	 * @return its id
+	 */
+	public synchronized ObjectId getId(int pos) {
+		return ObjectId.fromRaw(ids, pos * ID_LENGTH);
+	}
+	
+	/**
+	 * @param pos position of an indexed commit
+	 * @return its generation number (1 for root commits)
+	 */
+	public synchronized int getGeneration(int pos) {
+		return generations[pos];
+	}
+	
+	/**
+	 * @param pos position of an indexed commit
+	 * @return the positions of its parents
+	 */
+	public synchronized int[] getParents(int pos) {
+		return Arrays.copyOfRange(parents, parentStart[pos], parentStart[pos + 1]);
+	}
+	
+	private void append(RevCommit commit) {
+		RevCommit[] commitParents = commit.getParents();
+		if(count == generations.length) {
+			int capacity = count * 2;
+			ids = Arrays.copyOf(ids, capacity * ID_LENGTH);
+			generations = Arrays.copyOf(generations, capacity);
+			parentStart = Arrays.copyOf(parentStart, capacity + 1);
+			table = new int[tableSize(capacity)];
+			for(int i = 0; i < count; i++) this.insertInTable(i);
+		}
+		if(parentCount + commitParents.length > parents.length) {
+			parents = Arrays.copyOf(parents, Math.max(parents.length * 2, parentCount + commitParents.length));
+		}
+		
+		int pos = count;
+		int generation = 0;
+		parentStart[pos] = parentCount;
+		for(RevCommit parent : commitParents) {
+			int parentPos = this.find(parent);
+			parents[parentCount++] = parentPos;
+			generation = Math.max(generation, generations[parentPos]);
+		}
+		parentStart[pos + 1] = parentCount;
+		generations[pos] = generation + 1;
+		commit.copyRawTo(ids, pos * ID_LENGTH);
+		count++;
+		this.insertInTable(pos);
+		dirty = true;
+	}
+	
+	private void insertInTable(int pos) {
+		int mask = table.length - 1;
+		int slot = hash(ids, pos * ID_LENGTH) & mask;
+		while(table[slot] != 0) slot = (slot + 1) & mask;
+		table[slot] = pos + 1;
+	}
+	
+	private static int tableSize(int capacity) {
+		// Power of 2, at most half full
+		return Integer.highestOneBit(Math.max(capacity, 16) * 2 - 1) * 2;
+	}
+	
+	private static int hash(byte[] raw, int offset) {
+		// Ids are already uniformly distributed
+		return ((raw[offset] & 0xff) << 24) | ((raw[offset + 1] & 0xff) << 16) | ((raw[offset + 2] & 0xff) << 8) | (raw[offset + 3] & 0xff);
+	}
+	
+	private static boolean equals(byte[] ids, int offset, byte[] raw) {
+		for(int i = 0; i < ID_LENGTH; i++) {
+			if(ids[offset + i] != raw[i]) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Growable stack of positions
+	 */
+	private static class IntStack {
+		private int[] items = new int[64];
+		private int size;
+		
+		void push(int item) {
+			if(size == items.length) items = Arrays.copyOf(items, size * 2);
+			items[size++] = item;
+		}
+		
+		int pop() {
+			return items[--size];
+		}
+		
+		int peek() {
+			return items[size - 1];
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+	}
+	
+	/**
+	 * Binary heap of positions, with the highest generation first
+	 */
+	private class GenerationQueue {
+		private int[] heap = new int[64];
+		private int size;
+		
+		void add(int pos) {
+			if(size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+			int i = size++;
+			while(i > 0) {
+				int parent = (i - 1) >>> 1;
+				if(!this.before(pos, heap[parent])) break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = pos;
+		}
+		
+		int poll() {
+			int first = heap[0];
+			int last = heap[--size];
+			int i = 0;
+			while(true) {
+				int child = 2 * i + 1;
+				if(child >= size) break;
+				if(child + 1 < size && this.before(heap[child + 1], heap[child])) child++;
+				if(!this.before(heap[child], last)) break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			if(size > 0) heap[i] = last;
+			return first;
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		private boolean before(int a, int b) {
+			int ga = generations[a], gb = generations[b];
+			// Commits with the same generation cannot reach each other, positions only make the order deterministic
+			return ga > gb || (ga == gb && a > b);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.mmoscovich.git.client.graph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Map of each tagged commit to the names of its tags (annotated tags are peeled).
+ * <br>It is built once per snapshot of the tag refs: while the tags do not change, the same map is returned.
+ * When they do, only the tag objects that were not peeled before are read.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Slf4j
+public class TagCommitMap {
+	private Map<String, ObjectId> snapshot = Collections.emptyMap();
+	private Map<ObjectId, List<String>> tagsByCommit = Collections.emptyMap();
+	/** Commit of each tag ref target (the zero id if it is not a commit) */
+	private Map<ObjectId, ObjectId> peeled = new HashMap<ObjectId, ObjectId>();
+	
+	/**
+	 * Returns the tags of each commit, rebuilding the map if the tags changed since the last call.
+	 * @param repo the repository
+	 * @return map of commit to the names of its tags (without <code>refs/tags/</code>)
+	 * @throws IOException if the refs or the tag objects cannot be read
+	 */
+	public synchronized Map<ObjectId, List<String>> get(Repository repo) throws IOException {
+		Map<String, Ref> refs = repo.getRefDatabase().getRefs(Constants.R_TAGS);
+		Map<String, ObjectId> current = new HashMap<String, ObjectId>();
+		for(Map.Entry<String, Ref> entry : refs.entrySet()) {
+			if(entry.getValue().getObjectId() != null) current.put(entry.getKey(), entry.getValue().getObjectId());
+		}
+		if(current.equals(snapshot)) return tagsByCommit;
+		
+		Map<ObjectId, ObjectId> newPeeled = new HashMap<ObjectId, ObjectId>();
+		Map<ObjectId, List<String>> newTags = new HashMap<ObjectId, List<String>>();
+		try(RevWalk rw = new RevWalk(repo)) {
+			for(Map.Entry<String, ObjectId> entry : current.entrySet()) {
+				ObjectId target = entry.getValue();
+				ObjectId commit = peeled.get(target);
+				if(commit == null) {
+					RevObject object = rw.peel(rw.parseAny(target));
+					commit = (object instanceof RevCommit ? object.copy() : ObjectId.zeroId());
+				}
+				newPeeled.put(target, commit);
+				if(ObjectId.zeroId().equals(commit)) continue;
+				
+				List<String> names = newTags.get(commit);
+				if(names == null) newTags.put(commit, names = new ArrayList<String>(1));
+				names.add(entry.getKey());
+			}
+		}
+		log.debug("Mapped " + current.size() + " tags to " + newTags.size() + " commits");
+		
+		this.snapshot = current;
+		this.peeled = newPeeled;
+		this.tagsByCommit = Collections.unmodifiableMap(newTags);
+		return tagsByCommit;
+	}
+}
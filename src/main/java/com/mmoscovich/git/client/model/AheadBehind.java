@@ -0,0 +1,24 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Amount of commits a revision is ahead and behind another one (eg. its upstream).
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class AheadBehind {
+	/** Amount of commits reachable from the revision but not from the base */
+	private int ahead;
+	
+	/** Amount of commits reachable from the base but not from the revision */
+	private int behind;
+}
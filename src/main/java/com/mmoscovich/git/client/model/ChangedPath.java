@@ -0,0 +1,30 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Path that changed between two revisions.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class ChangedPath {
+	
+	public static enum Status {
+		ADDED,
+		MODIFIED,
+		DELETED,
+		/** Changed between file, symbolic link and submodule */
+		TYPE_CHANGED;
+	}
+	
+	/** Path, relative to the root of the repository */
+	private String path;
+	
+	private Status status;
+}
@@ -0,0 +1,45 @@
+package com.mmoscovich.git.client.model;
+
+import java.io.File;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used to clone a repository.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class CloneOptions {
+	/** Name given to the remote. If <code>null</code>, it defaults to "origin" */
+	private String remote;
+	
+	/** Branch to checkout. If <code>null</code>, the remote HEAD is used */
+	private String branch;
+	
+	/** Whether to fetch only the history of one branch (the specified one or the remote HEAD) */
+	private boolean singleBranch;
+	
+	/** Max amount of commits to fetch (shallow clone). <code>0</code> means full history. Only supported by the command line client */
+	private int depth;
+	
+	/** Whether to skip the checkout of the working tree */
+	private boolean noCheckout;
+	
+	/** Whether to create a bare repository (ie. without working tree) */
+	private boolean bare;
+	
+	/** 
+	 * Local repository (eg. a shared object cache) whose objects are used instead of downloading them again.
+	 * <br>The new repository keeps using its objects (alternates), so it must not be deleted.
+	 */
+	private File reference;
+	
+	/** Listener notified of the clone progress (optional) */
+	private ProgressListener progressListener;
+}
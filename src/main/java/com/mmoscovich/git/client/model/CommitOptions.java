@@ -0,0 +1,38 @@
+package com.mmoscovich.git.client.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used to commit without scanning the whole working tree.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class CommitOptions {
+	
+	public static enum Mode {
+		/** Commits the changes already staged. The working tree is not used */
+		STAGED_ONLY,
+		/** Stages the paths (including new and deleted files) and commits only them. Other staged changes stay staged, but are not committed */
+		ONLY_PATHS;
+	}
+	
+	private Mode mode = Mode.STAGED_ONLY;
+	
+	/** Files or directories to commit, relative to the root (only used on {@link Mode#ONLY_PATHS}) */
+	private List<String> paths = new ArrayList<String>();
+	
+	/** Author of the commit. If <code>null</code>, the configured user is used */
+	private GitUser author;
+	
+	/** Committer of the commit. If <code>null</code>, the configured user is used */
+	private GitUser committer;
+}
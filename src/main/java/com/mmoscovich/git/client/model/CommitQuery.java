@@ -0,0 +1,51 @@
+package com.mmoscovich.git.client.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Criteria used to search commits. A commit must match all the criteria that are set.
+ * <br>Patterns are searched anywhere in the text (not the whole text). The command line client passes them
+ * to Git as extended regular expressions, so only that syntax should be used. It also requires all the patterns
+ * to agree on {@link java.util.regex.Pattern#CASE_INSENSITIVE}, as Git applies that flag to all of them.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class CommitQuery {
+	/** Where the search starts (branches, tags or hashes). If empty, HEAD is used */
+	private List<String> revisions = new ArrayList<String>();
+	
+	/** Pattern searched in the full message */
+	private Pattern message;
+	
+	/** Pattern searched in the author, as "Name &lt;email&gt;" */
+	private Pattern author;
+	
+	/** Pattern searched in the committer, as "Name &lt;email&gt;" */
+	private Pattern committer;
+	
+	/** Only commits made (commit date) after this date */
+	private Date since;
+	
+	/** Only commits made (commit date) before this date */
+	private Date until;
+	
+	/** Only commits that changed any of these paths (files or directories, relative to the root of the repository) */
+	private List<String> paths = new ArrayList<String>();
+	
+	/** Max amount of commits returned. <code>0</code> means no limit */
+	private int limit;
+	
+	/** Amount of threads used to search. <code>0</code> means one per available processor */
+	private int threads;
+}
@@ -0,0 +1,33 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Nearest tag reachable from a revision, like <code>git describe</code>.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class DescribeResult {
+	/** Name of the tag */
+	private String tag;
+	
+	/** Amount of commits reachable from the revision but not from the tag (0 if the revision is tagged) */
+	private int distance;
+	
+	/** Hash of the described commit */
+	private String commit;
+	
+	/**
+	 * @return the description as formatted by <code>git describe --tags</code> (eg. <code>v1.0-3-g1a2b3c4</code>)
+	 */
+	public String getDescription() {
+		if(distance == 0) return tag;
+		return tag + "-" + distance + "-g" + commit.substring(0, 7);
+	}
+}
@@ -0,0 +1,37 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used to generate a patch between two revisions.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class DiffOptions {
+	/** Default max size of a blob to compare its content (50 MB) */
+	public static final int DEFAULT_MAX_BLOB_SIZE = 50 * 1024 * 1024;
+	
+	/** Amount of unchanged lines shown around each change */
+	private int contextLines = 3;
+	
+	/** Whether to detect renamed files, instead of showing them as deleted and added */
+	private boolean detectRenames = true;
+	
+	/** Max amount of added/deleted files compared to find renames. If there are more, renames are not detected */
+	private int renameLimit = 1000;
+	
+	/** Whether to leave binary files out of the patch (by default they are included without content) */
+	private boolean skipBinary;
+	
+	/** Files bigger than this are treated as binary, so their content is never compared */
+	private int maxBlobSize = DEFAULT_MAX_BLOB_SIZE;
+	
+	/** Paths to include or exclude (optional) */
+	private PathFilter pathFilter;
+}
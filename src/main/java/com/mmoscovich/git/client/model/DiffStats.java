@@ -0,0 +1,25 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Summary of a patch.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class DiffStats {
+	/** Amount of files in the patch */
+	private int files;
+	
+	/** Amount of added lines */
+	private long insertions;
+	
+	/** Amount of deleted lines */
+	private long deletions;
+}
@@ -0,0 +1,55 @@
+package com.mmoscovich.git.client.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used to fetch from a remote.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode(exclude = "progressListener")
+public class FetchOptions {
+	
+	/**
+	 * Which tags to fetch
+	 */
+	public enum TagMode {
+		/** Don't fetch tags */
+		NONE,
+		/** Fetch the tags that point to fetched objects (default) */
+		AUTO,
+		/** Fetch all tags */
+		ALL;
+	}
+	
+	/** Name of the remote. If <code>null</code>, it defaults to "origin" */
+	private String remote;
+	
+	/** Refspecs to fetch. If empty, the ones configured for the remote are used */
+	private List<String> refSpecs = new ArrayList<String>();
+	
+	/** Max amount of commits to fetch from the tip of each ref (shallow fetch). <code>0</code> means full history. Only supported by the command line client */
+	private int depth;
+	
+	/** Only fetch history after this date (shallow fetch). Only supported by the command line client */
+	private Date deepenSince;
+	
+	/** Whether to remove the remote-tracking refs that no longer exist on the remote */
+	private boolean prune;
+	
+	private TagMode tagMode = TagMode.AUTO;
+	
+	/** Listener notified of the fetch progress (optional) */
+	private ProgressListener progressListener;
+}
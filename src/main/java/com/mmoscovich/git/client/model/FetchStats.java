@@ -0,0 +1,31 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Statistics of a fetch.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class FetchStats {
+	/** Amount of objects received */
+	private long objectsReceived;
+	
+	/**
+	 * Size of the received objects, as transferred.
+	 * <br>The command line client takes it from the progress git prints, so it is rounded (eg. 1.23 MiB)
+	 * and it is <code>0</code> for transfers too quick to report progress.
+	 */
+	private long bytesReceived;
+	
+	/** Amount of local refs updated */
+	private int updatedRefs;
+	
+	private long durationMillis;
+}
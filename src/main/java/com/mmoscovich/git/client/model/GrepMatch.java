@@ -0,0 +1,25 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Line of a file that matched a search.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class GrepMatch {
+	/** Path of the file, relative to the root of the repository */
+	private String path;
+	
+	/** Number of the line (starting at 1) */
+	private int lineNumber;
+	
+	/** Content of the line, without the line break */
+	private String line;
+}
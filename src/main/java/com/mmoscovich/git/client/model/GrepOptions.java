@@ -0,0 +1,29 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used to search the content of the files of a revision.
+ * <br>Binary files are always skipped.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class GrepOptions {
+	/** Files bigger than this are skipped */
+	private int maxBlobSize = DiffOptions.DEFAULT_MAX_BLOB_SIZE;
+	
+	/** Paths to include or exclude (optional) */
+	private PathFilter pathFilter;
+	
+	/** Max amount of matching lines returned. <code>0</code> means no limit */
+	private int limit;
+	
+	/** Amount of threads used to read the files. <code>0</code> means one per available processor */
+	private int threads;
+}
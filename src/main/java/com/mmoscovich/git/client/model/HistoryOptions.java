@@ -0,0 +1,27 @@
+package com.mmoscovich.git.client.model;
+
+import java.util.Date;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used to list the history of some paths.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class HistoryOptions {
+	/** Max amount of commits returned. <code>0</code> means no limit */
+	private int limit;
+	
+	/** Only return commits made after this date. The walk stops at the first older commit */
+	private Date since;
+	
+	/** Whether to keep following the path before it was renamed. Only supported for a single path */
+	private boolean followRenames;
+}
@@ -0,0 +1,45 @@
+package com.mmoscovich.git.client.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Result of a merge done without the working tree.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class InMemoryMergeResult {
+	
+	public static enum Status {
+		/** The branch already contained the merged revision, so it was not moved */
+		UP_TO_DATE,
+		/** The branch was moved to the merged revision */
+		FAST_FORWARD,
+		/** A merge commit was created */
+		MERGED,
+		/** There were conflicts, so the branch was not moved */
+		CONFLICTING;
+	}
+	
+	private Status status;
+	
+	/** Hash of the last commit of the branch after the merge */
+	private String commit;
+	
+	/** Paths with conflicts (empty unless it is conflicting) */
+	private List<String> conflicts;
+	
+	/**
+	 * @return <code>true</code> unless there were conflicts
+	 */
+	public boolean isSuccessful() {
+		return status != Status.CONFLICTING;
+	}
+}
@@ -0,0 +1,25 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used to merge a revision into a branch without the working tree.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class MergeOptions {
+	/** Message of the merge commit. If <code>null</code>, the default one is used (eg. <code>Merge branch 'feature' into develop</code>) */
+	private String message;
+	
+	/** Author and committer of the merge commit. If <code>null</code>, the configured user is used */
+	private GitUser author;
+	
+	/** Whether to create a merge commit even if the branch can be fast-forwarded */
+	private boolean noFastForward;
+}
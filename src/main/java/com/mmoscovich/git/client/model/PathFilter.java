@@ -0,0 +1,43 @@
+package com.mmoscovich.git.client.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Paths to include in (or exclude from) a query, relative to the root of the repository.
+ * <br>A path matches itself and, if it is a directory, everything under it.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class PathFilter {
+	/** Paths to include. If empty, every path is included */
+	private List<String> includes = new ArrayList<String>();
+	
+	/** Paths to exclude (even if they are under an included one) */
+	private List<String> excludes = new ArrayList<String>();
+	
+	public PathFilter() {}
+	
+	/**
+	 * Creates a filter that includes the provided paths
+	 * @param includes paths to include
+	 */
+	public PathFilter(List<String> includes) {
+		this.includes = includes;
+	}
+	
+	/**
+	 * @return <code>true</code> if it does not filter any path
+	 */
+	public boolean isEmpty() {
+		return (includes == null || includes.isEmpty()) && (excludes == null || excludes.isEmpty());
+	}
+}
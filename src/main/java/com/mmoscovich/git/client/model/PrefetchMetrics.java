@@ -0,0 +1,45 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of the background prefetch state of a repository.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class PrefetchMetrics {
+	/** Name of the prefetched remote */
+	private String remote;
+	
+	/** Time (in ms) of the last successful prefetch, or <code>0</code> if none succeeded yet */
+	private long lastSuccessTime;
+	
+	/** Time (in ms) of the last prefetch attempt, or <code>0</code> if none was attempted yet */
+	private long lastAttemptTime;
+	
+	/** Amount of successful prefetches */
+	private long successCount;
+	
+	/** Amount of failed prefetches since the last successful one */
+	private int consecutiveFailures;
+	
+	/** Message of the last error, or <code>null</code> if the last attempt succeeded */
+	private String lastError;
+	
+	/** Statistics of the last successful prefetch, or <code>null</code> if none succeeded yet */
+	private FetchStats lastStats;
+	
+	/**
+	 * @return how long ago (in ms) the remote refs were last prefetched, or <code>-1</code> if never
+	 */
+	public long getFetchAgeMillis() {
+		if(lastSuccessTime == 0) return -1;
+		return System.currentTimeMillis() - lastSuccessTime;
+	}
+}
@@ -0,0 +1,20 @@
+package com.mmoscovich.git.client.model;
+
+/**
+ * Listener notified of the progress of long running operations (eg. fetch, clone).
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@FunctionalInterface
+public interface ProgressListener {
+	
+	/**
+	 * Called each time a task makes progress.
+	 * 
+	 * @param task name of the task (eg. "Receiving objects")
+	 * @param completed units of work completed so far
+	 * @param total total units of work, or <code>0</code> if unknown
+	 */
+	void onProgress(String task, long completed, long total);
+}
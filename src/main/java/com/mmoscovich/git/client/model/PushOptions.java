@@ -0,0 +1,28 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Options used when pushing many refs at once.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class PushOptions {
+	/** Whether the remote must update either all refs or none (requires server support) */
+	private boolean atomic;
+	
+	/** Whether to send a thin pack (ie. using deltas against objects the remote already has) */
+	private boolean thin = true;
+	
+	/** Whether to allow non fast-forward updates on every ref */
+	private boolean force;
+	
+	/** Whether to do everything except actually updating the remote */
+	private boolean dryRun;
+}
@@ -0,0 +1,59 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Result of pushing a single ref.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class PushRefResult {
+	
+	/**
+	 * Status of a pushed ref
+	 */
+	public enum Status {
+		/** The remote ref was updated */
+		OK,
+		/** The remote ref already had the pushed value */
+		UP_TO_DATE,
+		/** The update was rejected because it was not a fast-forward */
+		REJECTED_NONFASTFORWARD,
+		/** The remote does not allow deleting the ref */
+		REJECTED_NODELETE,
+		/** The remote ref changed since it was read (eg. needs fetch first) */
+		REJECTED_REMOTE_CHANGED,
+		/** The update was rejected for another reason (see the message) */
+		REJECTED_OTHER_REASON,
+		/** The ref to delete does not exist on the remote */
+		NON_EXISTING,
+		/** The remote did not report the result of the update */
+		AWAITING_REPORT,
+		/** The update was not attempted (eg. an atomic push failed) */
+		NOT_ATTEMPTED;
+	}
+	
+	/** Full name of the local ref that was pushed (<code>null</code> on deletes) */
+	private String localName;
+	
+	/** Full name of the ref on the remote */
+	private String remoteName;
+	
+	private Status status;
+	
+	/** Additional information about the result, if any */
+	private String message;
+	
+	/**
+	 * @return whether the remote ref has the pushed value
+	 */
+	public boolean isSuccessful() {
+		return status == Status.OK || status == Status.UP_TO_DATE;
+	}
+}
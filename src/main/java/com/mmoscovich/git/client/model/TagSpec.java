@@ -0,0 +1,52 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Describes a tag to be created in bulk.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@Setter
+@ToString
+public class TagSpec {
+	/** Revision (branch, tag or hash) the tag points to. If <code>null</code>, HEAD is used */
+	private String target;
+	
+	/** Tag message (ignored on lightweight tags) */
+	private String message;
+	
+	/** Whether to create a lightweight tag (ie. only the ref, without a tag object) */
+	private boolean lightweight;
+	
+	/** User that creates the tag. If <code>null</code>, the configured user is used */
+	private GitUser tagger;
+	
+	public TagSpec() {}
+	
+	/**
+	 * Creates the spec for an annotated tag
+	 * @param target revision the tag points to
+	 * @param message tag message
+	 */
+	public TagSpec(String target, String message) {
+		this.target = target;
+		this.message = message;
+	}
+	
+	/**
+	 * Creates the spec for a lightweight tag
+	 * @param target revision the tag points to
+	 * @return the spec
+	 */
+	public static TagSpec lightweight(String target) {
+		TagSpec spec = new TagSpec();
+		spec.setTarget(target);
+		spec.setLightweight(true);
+		return spec;
+	}
+}
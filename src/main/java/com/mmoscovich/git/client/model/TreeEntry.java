@@ -0,0 +1,38 @@
+package com.mmoscovich.git.client.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Entry of a tree (file, directory or submodule) at a revision.
+ * 
+ * @author Martin Moscovich
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class TreeEntry {
+	/** Path, relative to the root of the repository */
+	private String path;
+	
+	/** File mode in octal, as printed by git (eg. <code>100644</code>, <code>100755</code>, <code>040000</code>) */
+	private String mode;
+	
+	/** Type of the object: <code>blob</code>, <code>tree</code> or <code>commit</code> (submodule) */
+	private String type;
+	
+	/** Hash of the object */
+	private String id;
+	
+	/** Size of the file in bytes, or <code>-1</code> if it is not a file */
+	private long size;
+	
+	/**
+	 * @return <code>true</code> if it is a directory
+	 */
+	public boolean isTree() {
+		return "tree".equals(type);
+	}
+}
@@ -0,0 +1,118 @@
+package com.mmoscovich.git.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.mmoscovich.git.client.model.DiffStats;
+
+/**
+ * Tests the counting and binary filtering of patches, written whole, byte by byte and in random chunks.
+ *
+ * @author Martin Moscovich
+ *
+ */
+public class PatchOutputStreamTest {
+	private static final String TEXT =
+			"diff --git a/src/A.java b/src/A.java\n" +
+			"index 1111111..2222222 100644\n" +
+			"--- a/src/A.java\n" +
+			"+++ b/src/A.java\n" +
+			"@@ -1,3 +1,3 @@\n" +
+			" class A {\n" +
+			"--- removed comment\n" +
+			"+++ added comment\n" +
+			"+\tint b;\n" +
+			" }\n";
+	
+	private static final String BINARY =
+			"diff --git a/logo.png b/logo.png\n" +
+			"index 3333333..4444444 100644\n" +
+			"Binary files a/logo.png and b/logo.png differ\n";
+	
+	private static final String BINARY_PATCH =
+			"diff --git a/icon.png b/icon.png\n" +
+			"index 5555555..6666666 100644\n" +
+			"GIT binary patch\n" +
+			"literal 3\n" +
+			"KcmZ?wVE_OC00000\n" +
+			"\n";
+	
+	/** Only a header, so it is written when the next file starts (or the patch ends) */
+	private static final String EMPTY =
+			"diff --git a/empty.txt b/empty.txt\n" +
+			"new file mode 100644\n" +
+			"index 0000000..e69de29\n";
+	
+	private static final String NO_NEWLINE =
+			"diff --git a/b.txt b/b.txt\n" +
+			"index 7777777..8888888 100644\n" +
+			"--- a/b.txt\n" +
+			"+++ b/b.txt\n" +
+			"@@ -1 +1 @@\n" +
+			"-old\n" +
+			"\\ No newline at end of file\n" +
+			"+new";
+	
+	@Test
+	public void passesTextPatchesThrough() throws Exception {
+		String patch = TEXT + EMPTY + NO_NEWLINE;
+		
+		assertWritten(patch, false, patch, new DiffStats(3, 3, 2));
+	}
+	
+	@Test
+	public void leavesBinaryFilesOut() throws Exception {
+		String patch = BINARY + TEXT + BINARY_PATCH + EMPTY;
+		
+		assertWritten(patch, true, TEXT + EMPTY, new DiffStats(2, 2, 1));
+	}
+	
+	@Test
+	public void keepsBinaryFilesUnlessSkipped() throws Exception {
+		String patch = BINARY + TEXT + BINARY_PATCH;
+		
+		assertWritten(patch, false, patch, new DiffStats(3, 2, 1));
+	}
+	
+	@Test
+	public void writesNothingForEmptyPatch() throws Exception {
+		assertWritten("", true, "", new DiffStats(0, 0, 0));
+		assertWritten(BINARY, true, "", new DiffStats(0, 0, 0));
+	}
+	
+	/**
+	 * Writes the patch in the three ways and checks the output and stats of each one
+	 */
+	private static void assertWritten(String patch, boolean skipBinary, String expected, DiffStats expectedStats) throws IOException {
+		byte[] bytes = patch.getBytes(StandardCharsets.UTF_8);
+		Random random = new Random(3);
+		for(int mode = 0; mode < 3; mode++) {
+			ByteArrayOutputStream target = new ByteArrayOutputStream();
+			PatchOutputStream out = new PatchOutputStream(target, skipBinary);
+			if(mode == 0) {
+				out.write(bytes);
+			} else if(mode == 1) {
+				for(byte b : bytes) out.write(b);
+			} else {
+				for(int off = 0; off < bytes.length; ) {
+					int len = Math.min(bytes.length - off, 1 + random.nextInt(20));
+					out.write(bytes, off, len);
+					off += len;
+				}
+			}
+			out.close();
+			
+			assertEquals("Mode " + mode, expected, new String(target.toByteArray(), StandardCharsets.UTF_8));
+			DiffStats stats = out.getStats();
+			assertEquals("Mode " + mode, expectedStats.getFiles(), stats.getFiles());
+			assertEquals("Mode " + mode, expectedStats.getInsertions(), stats.getInsertions());
+			assertEquals("Mode " + mode, expectedStats.getDeletions(), stats.getDeletions());
+		}
+	}
+}
@@ -0,0 +1,513 @@
+package com.mmoscovich.git.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.mmoscovich.git.client.model.CloneOptions;
+import com.mmoscovich.git.client.model.FetchOptions;
+import com.mmoscovich.git.client.model.FetchStats;
+import com.mmoscovich.git.client.model.PushOptions;
+import com.mmoscovich.git.client.model.PushRefResult;
+
+/**
+ * Tests the operations against a remote with both clients, using a temporary bare repository as the remote.
+ * <br>The remote and the local clone are changed with JGit directly, so the client under test is only used for
+ * the operation being tested.
+ *
+ * @author Martin Moscovich
+ *
+ */
+@RunWith(Parameterized.class)
+public class RemoteOperationsTest {
+	private static final PersonIdent AUTHOR = new PersonIdent("Test", "test@example.com");
+	
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> clients() {
+		return Arrays.asList(new Object[][] {{"jgit"}, {"cli"}});
+	}
+	
+	@Parameter
+	public String clientType;
+	
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+	
+	/** Bare repository used as the remote */
+	private File remoteDir;
+	private String remoteUrl;
+	
+	/** Another clone, used to change the remote behind the back of the client */
+	private Git upstream;
+	
+	/** Clone loaded by the client under test */
+	private File workDir;
+	private Git work;
+	private GitClient client;
+	
+	@Before
+	public void setUp() throws Exception {
+		remoteDir = tmp.newFolder("remote.git");
+		remoteUrl = "file://" + remoteDir.getAbsolutePath();
+		Git.init().setBare(true).setDirectory(remoteDir).call().close();
+		
+		upstream = Git.init().setDirectory(tmp.newFolder("upstream")).call();
+		commit(upstream, "README", "first");
+		upstream.push().setRemote(remoteUrl).setRefSpecs(new RefSpec("refs/heads/master:refs/heads/master")).call();
+		
+		workDir = new File(tmp.getRoot(), "work");
+		client = newClient();
+		client.cloneRepo(remoteUrl, workDir, null);
+		work = Git.open(workDir);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		if(client != null) client.close();
+		if(work != null) work.close();
+		if(upstream != null) upstream.close();
+	}
+	
+	private GitClient newClient() {
+		return clientType.equals("jgit") ? new JGitClient() : new CommandLineGitClient("git");
+	}
+	
+	@Test
+	public void pushRefsUpdatesManyRefsAtOnce() throws Exception {
+		String head = commit(work, "a.txt", "a");
+		work.branchCreate().setName("feature").call();
+		work.tag().setName("v1").setAnnotated(false).call();
+		
+		List<PushRefResult> results = client.pushRefs("origin", Arrays.asList("refs/heads/master", "feature", "v1"), null);
+		
+		assertEquals(3, results.size());
+		for(PushRefResult result : results) {
+			assertEquals(result.toString(), PushRefResult.Status.OK, result.getStatus());
+			assertTrue(result.isSuccessful());
+		}
+		assertEquals("refs/heads/master", find(results, "refs/heads/master").getLocalName());
+		assertEquals(head, remoteRef("refs/heads/master"));
+		assertEquals(head, remoteRef("refs/heads/feature"));
+		assertEquals(head, remoteRef("refs/tags/v1"));
+	}
+	
+	@Test
+	public void pushRefsReportsUpToDate() throws Exception {
+		List<PushRefResult> results = client.pushRefs("origin", Arrays.asList("refs/heads/master"), null);
+		
+		assertEquals(1, results.size());
+		assertEquals(PushRefResult.Status.UP_TO_DATE, results.get(0).getStatus());
+	}
+	
+	@Test
+	public void pushRefsRejectsNonFastForwardUnlessForced() throws Exception {
+		String remoteHead = commit(upstream, "b.txt", "upstream");
+		upstream.push().setRemote(remoteUrl).setRefSpecs(new RefSpec("refs/heads/master:refs/heads/master")).call();
+		// Fetched, so the remote commit is known and the rejection is not reported as "fetch first"
+		work.fetch().call();
+		String localHead = commit(work, "b.txt", "local");
+		
+		List<PushRefResult> results = client.pushRefs("origin", Arrays.asList("refs/heads/master"), null);
+		assertEquals(PushRefResult.Status.REJECTED_NONFASTFORWARD, results.get(0).getStatus());
+		assertEquals(remoteHead, remoteRef("refs/heads/master"));
+		
+		PushOptions options = new PushOptions();
+		options.setForce(true);
+		results = client.pushRefs("origin", Arrays.asList("refs/heads/master"), options);
+		assertEquals(PushRefResult.Status.OK, results.get(0).getStatus());
+		assertEquals(localHead, remoteRef("refs/heads/master"));
+	}
+	
+	@Test
+	public void pushRefsDeletesRemoteRef() throws Exception {
+		upstream.push().setRemote(remoteUrl).setRefSpecs(new RefSpec("refs/heads/master:refs/heads/old")).call();
+		
+		List<PushRefResult> results = client.pushRefs("origin", Arrays.asList(":refs/heads/old"), null);
+		
+		assertEquals(1, results.size());
+		assertEquals(PushRefResult.Status.OK, results.get(0).getStatus());
+		assertNull(results.get(0).getLocalName());
+		assertEquals("refs/heads/old", results.get(0).getRemoteName());
+		assertNull(remoteRef("refs/heads/old"));
+	}
+	
+	@Test
+	public void pushRefsDryRunLeavesRemoteUntouched() throws Exception {
+		String remoteHead = remoteRef("refs/heads/master");
+		commit(work, "a.txt", "a");
+		PushOptions options = new PushOptions();
+		options.setDryRun(true);
+		
+		List<PushRefResult> results = client.pushRefs("origin", Arrays.asList("refs/heads/master"), options);
+		
+		assertEquals(PushRefResult.Status.OK, results.get(0).getStatus());
+		assertEquals(remoteHead, remoteRef("refs/heads/master"));
+	}
+	
+	@Test
+	public void pullBranchesFastForwardsWithoutCheckout() throws Exception {
+		String master = commit(upstream, "b.txt", "b");
+		String feature = commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("master");
+		pushUpstream("feature");
+		
+		Map<String, String> failures = client.pullBranches("origin", Arrays.asList("master", "feature"));
+		
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals("refs/heads/master", currentBranch());
+		assertEquals(master, localRef("refs/heads/master"));
+		// The current branch is merged, so its working tree is updated
+		assertTrue(new File(workDir, "b.txt").isFile());
+		// Missing local branches are created
+		assertEquals(feature, localRef("refs/heads/feature"));
+		assertFalse(new File(workDir, "c.txt").exists());
+	}
+	
+	@Test
+	public void pullBranchesReportsMissingAndDivergedBranches() throws Exception {
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("feature");
+		String local = commitOnBranch(upstream, "feature", "c.txt", "local");
+		fetchFromUpstream("feature");
+		upstream.branchCreate().setName("feature").setStartPoint("feature~1").setForce(true).call();
+		commitOnBranch(upstream, "feature", "c.txt", "remote");
+		upstream.push().setRemote(remoteUrl).setForce(true).setRefSpecs(new RefSpec("refs/heads/feature:refs/heads/feature")).call();
+		
+		Map<String, String> failures = client.pullBranches("origin", Arrays.asList("feature", "missing"));
+		
+		assertEquals(2, failures.size());
+		assertEquals("Not a fast-forward", failures.get("feature"));
+		assertTrue(failures.containsKey("missing"));
+		assertEquals(local, localRef("refs/heads/feature"));
+	}
+	
+	@Test
+	public void pullBranchesKeepsBranchAheadOfRemote() throws Exception {
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("feature");
+		String ahead = commitOnBranch(upstream, "feature", "c.txt", "ahead");
+		fetchFromUpstream("feature");
+		
+		Map<String, String> failures = client.pullBranches("origin", Arrays.asList("feature"));
+		
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(ahead, localRef("refs/heads/feature"));
+	}
+	
+	@Test
+	public void pushBranchWithoutCheckout() throws Exception {
+		String feature = commitOnBranch(upstream, "feature", "c.txt", "c");
+		fetchFromUpstream("feature");
+		
+		client.pushBranch("origin", "feature");
+		
+		assertEquals(feature, remoteRef("refs/heads/feature"));
+		assertEquals("refs/heads/master", currentBranch());
+	}
+	
+	@Test(expected = GitClientException.class)
+	public void pushBranchFailsOnNonFastForward() throws Exception {
+		commit(upstream, "b.txt", "upstream");
+		pushUpstream("master");
+		commit(work, "b.txt", "local");
+		
+		client.pushBranch("origin", "master");
+	}
+	
+	@Test
+	public void fetchOnlyRequestedRefSpecs() throws Exception {
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		commitOnBranch(upstream, "other", "d.txt", "d");
+		pushUpstream("feature");
+		pushUpstream("other");
+		FetchOptions options = new FetchOptions();
+		options.setRefSpecs(Arrays.asList("+refs/heads/feature:refs/remotes/origin/feature"));
+		
+		FetchStats stats = client.fetch(options);
+		
+		assertEquals(remoteRef("refs/heads/feature"), localRef("refs/remotes/origin/feature"));
+		assertNull(localRef("refs/remotes/origin/other"));
+		assertEquals(1, stats.getUpdatedRefs());
+		assertTrue(stats.toString(), stats.getObjectsReceived() > 0);
+	}
+	
+	@Test
+	public void fetchPrunesDeletedBranches() throws Exception {
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("feature");
+		work.fetch().call();
+		upstream.push().setRemote(remoteUrl).setRefSpecs(new RefSpec(":refs/heads/feature")).call();
+		FetchOptions options = new FetchOptions();
+		options.setPrune(true);
+		
+		client.fetch(options);
+		
+		assertNull(localRef("refs/remotes/origin/feature"));
+		assertNotNull(localRef("refs/remotes/origin/master"));
+	}
+	
+	@Test
+	public void shallowFetchIsOnlySupportedByCommandLine() throws Exception {
+		commit(upstream, "b.txt", "b");
+		pushUpstream("master");
+		FetchOptions options = new FetchOptions();
+		options.setDepth(1);
+		
+		try {
+			client.fetch(options);
+			assertEquals("cli", clientType);
+			assertTrue(new File(workDir, ".git/shallow").isFile());
+		} catch(GitClientException e) {
+			assertEquals("jgit", clientType);
+		}
+	}
+	
+	@Test
+	public void cloneChecksOutRemoteHead() throws Exception {
+		assertTrue(new File(workDir, "README").isFile());
+		assertEquals("refs/heads/master", currentBranch());
+		assertEquals(remoteRef("refs/heads/master"), localRef("refs/remotes/origin/master"));
+	}
+	
+	@Test
+	public void cloneSingleBranchWithRemoteName() throws Exception {
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("feature");
+		CloneOptions options = new CloneOptions();
+		options.setRemote("up");
+		options.setBranch("feature");
+		options.setSingleBranch(true);
+		
+		File dir = cloneWith("single", options);
+		
+		assertTrue(new File(dir, "c.txt").isFile());
+		try(Repository repo = Git.open(dir).getRepository()) {
+			assertEquals("refs/heads/feature", repo.getFullBranch());
+			assertNotNull(repo.exactRef("refs/remotes/up/feature"));
+			assertNull(repo.exactRef("refs/remotes/up/master"));
+		}
+	}
+	
+	@Test
+	public void cloneBareAndWithoutCheckout() throws Exception {
+		CloneOptions options = new CloneOptions();
+		options.setBare(true);
+		File bare = cloneWith("bare.git", options);
+		assertTrue(new File(bare, "HEAD").isFile());
+		assertFalse(new File(bare, ".git").exists());
+		
+		options = new CloneOptions();
+		options.setNoCheckout(true);
+		File noCheckout = cloneWith("no-checkout", options);
+		assertTrue(new File(noCheckout, ".git").isDirectory());
+		assertFalse(new File(noCheckout, "README").exists());
+	}
+	
+	@Test
+	public void cloneWithReferenceUsesItsObjects() throws Exception {
+		CloneOptions options = new CloneOptions();
+		options.setReference(workDir);
+		
+		File dir = cloneWith("referenced", options);
+		
+		assertTrue(new File(dir, ".git/objects/info/alternates").isFile());
+		assertTrue(new File(dir, "README").isFile());
+	}
+	
+	@Test
+	public void shallowCloneIsOnlySupportedByCommandLine() throws Exception {
+		commit(upstream, "b.txt", "b");
+		pushUpstream("master");
+		CloneOptions options = new CloneOptions();
+		options.setDepth(1);
+		
+		try {
+			File dir = cloneWith("shallow", options);
+			assertEquals("cli", clientType);
+			assertTrue(new File(dir, ".git/shallow").isFile());
+		} catch(GitClientException e) {
+			assertEquals("jgit", clientType);
+		}
+	}
+	
+	@Test(expected = GitClientException.class)
+	public void cloneFailsOnNonEmptyDirectory() throws Exception {
+		client.cloneRepo(remoteUrl, workDir, null);
+	}
+	
+	@Test
+	public void cloneLoadsTheNewRepository() throws Exception {
+		File other = new File(tmp.getRoot(), "other");
+		client.cloneRepo(remoteUrl, other, null);
+		commit(upstream, "b.txt", "b");
+		pushUpstream("master");
+		
+		client.pullBranch("origin", "master");
+		
+		assertTrue(new File(other, "b.txt").isFile());
+		assertFalse(new File(workDir, "b.txt").exists());
+	}
+	
+	@Test
+	public void listRemoteRefsFiltersByPrefix() throws Exception {
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("feature");
+		upstream.tag().setName("v1").setAnnotated(false).call();
+		upstream.push().setRemote(remoteUrl).setRefSpecs(new RefSpec("refs/tags/v1:refs/tags/v1")).call();
+		
+		Map<String, String> heads = client.listRemoteRefs("origin", "refs/heads/");
+		
+		assertEquals(Arrays.asList("refs/heads/feature", "refs/heads/master"), new ArrayList<String>(heads.keySet()));
+		assertEquals(remoteRef("refs/heads/feature"), heads.get("refs/heads/feature"));
+		assertEquals(remoteRef("refs/tags/v1"), client.listRemoteRefs(remoteUrl, null).get("refs/tags/v1"));
+	}
+	
+	@Test
+	public void listRemoteRefsIsCachedUntilPush() throws Exception {
+		client.setRemoteRefsTtl(60000);
+		assertFalse(client.remoteBranchExists("origin", "feature", 60000));
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("feature");
+		
+		// Still cached, unless the caller does not accept cached refs
+		assertFalse(client.listRemoteRefs("origin", null).containsKey("refs/heads/feature"));
+		assertFalse(client.remoteBranchExists("origin", "feature", 60000));
+		assertTrue(client.remoteBranchExists("origin", "feature", 0));
+		
+		// Pushing discards the cached refs of the remote
+		upstream.push().setRemote(remoteUrl).setRefSpecs(new RefSpec(":refs/heads/feature")).call();
+		client.pushRefs("origin", Arrays.asList("refs/heads/master"), null);
+		assertFalse(client.listRemoteRefs("origin", null).containsKey("refs/heads/feature"));
+	}
+	
+	@Test
+	public void listRemoteRefsWithoutCache() throws Exception {
+		client.setRemoteRefsTtl(0);
+		assertFalse(client.listRemoteRefs("origin", null).containsKey("refs/heads/feature"));
+		commitOnBranch(upstream, "feature", "c.txt", "c");
+		pushUpstream("feature");
+		
+		assertTrue(client.listRemoteRefs("origin", null).containsKey("refs/heads/feature"));
+	}
+	
+	/**
+	 * Writes a file and commits it on the current branch
+	 * @return id of the new commit
+	 */
+	private static String commit(Git git, String path, String content) throws Exception {
+		Files.write(new File(git.getRepository().getWorkTree(), path).toPath(), content.getBytes(StandardCharsets.UTF_8));
+		git.add().addFilepattern(path).call();
+		return git.commit().setMessage("Change " + path).setAuthor(AUTHOR).setCommitter(AUTHOR).call().getName();
+	}
+	
+	/**
+	 * Clones the remote with a new client
+	 * @return the directory of the clone
+	 */
+	private File cloneWith(String dirName, CloneOptions options) throws Exception {
+		File dir = new File(tmp.getRoot(), dirName);
+		GitClient other = newClient();
+		try {
+			other.cloneRepo(remoteUrl, dir, options);
+		} finally {
+			other.close();
+		}
+		return dir;
+	}
+	
+	/**
+	 * Commits a file on a branch (created from the current one if missing), leaving the current branch checked out
+	 * @return id of the new commit
+	 */
+	private static String commitOnBranch(Git git, String branch, String path, String content) throws Exception {
+		String current = git.getRepository().getBranch();
+		git.checkout().setName(branch).setCreateBranch(git.getRepository().exactRef(Constants.R_HEADS + branch) == null).call();
+		try {
+			return commit(git, path, content);
+		} finally {
+			git.checkout().setName(current).call();
+		}
+	}
+	
+	private void pushUpstream(String branch) throws Exception {
+		String ref = Constants.R_HEADS + branch;
+		upstream.push().setRemote(remoteUrl).setRefSpecs(new RefSpec(ref + ":" + ref)).call();
+	}
+	
+	/**
+	 * Copies a branch of the upstream clone to the local clone, without going through the remote
+	 */
+	private void fetchFromUpstream(String branch) throws Exception {
+		String ref = Constants.R_HEADS + branch;
+		work.fetch().setRemote(upstream.getRepository().getDirectory().getAbsolutePath()).setRefSpecs(new RefSpec("+" + ref + ":" + ref)).call();
+	}
+	
+	/**
+	 * @return id of a ref on the local clone, or <code>null</code> if it does not exist
+	 */
+	private String localRef(String name) throws IOException {
+		return refId(workDir, name);
+	}
+	
+	/**
+	 * @return id of a ref on the remote, or <code>null</code> if it does not exist
+	 */
+	private String remoteRef(String name) throws IOException {
+		return refId(remoteDir, name);
+	}
+	
+	/**
+	 * @return full name of the branch checked out on the local clone
+	 */
+	private String currentBranch() throws IOException {
+		try(Repository repo = Git.open(workDir).getRepository()) {
+			return repo.getFullBranch();
+		}
+	}
+	
+	/**
+	 * Reads a ref with a new repository instance, so it is not affected by the caches of <code>work</code>
+	 */
+	private static String refId(File dir, String name) throws IOException {
+		try(Repository repo = Git.open(dir).getRepository()) {
+			Ref ref = repo.exactRef(name);
+			return (ref != null ? ObjectId.toString(ref.getObjectId()) : null);
+		}
+	}
+	
+	private static PushRefResult find(List<PushRefResult> results, String remoteName) {
+		for(PushRefResult result : results) {
+			if(result.getRemoteName().equals(remoteName)) return result;
+		}
+		throw new AssertionError("No result for " + remoteName + " in " + results);
+	}
+}
@@ -0,0 +1,134 @@
+package com.mmoscovich.git.client.cmd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mmoscovich.git.client.GitClientException;
+
+/**
+ * Tests the pool of <code>cat-file</code> processes on a temporary repository.
+ * <br>A single idle process is kept, so each request reuses the process left by the previous one
+ * and fails if the previous response was not fully consumed.
+ *
+ * @author Martin Moscovich
+ *
+ */
+public class CatFilePoolTest {
+	private static final PersonIdent AUTHOR = new PersonIdent("Test", "test@example.com");
+	
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+	
+	private byte[] big;
+	private String blobWithSpacesId;
+	private CatFilePool pool;
+	
+	@Before
+	public void setUp() throws Exception {
+		File dir = tmp.getRoot();
+		big = new byte[200 * 1024];
+		new Random(1).nextBytes(big);
+		
+		try(Git git = Git.init().setDirectory(dir).call()) {
+			Files.write(new File(dir, "a b.txt").toPath(), "with spaces\n".getBytes(StandardCharsets.UTF_8));
+			Files.write(new File(dir, "small.txt").toPath(), "0123456789\n".getBytes(StandardCharsets.UTF_8));
+			Files.write(new File(dir, "big.bin").toPath(), big);
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("Initial").setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+			blobWithSpacesId = git.getRepository().resolve("HEAD:a b.txt").getName();
+		}
+		
+		CommandLineExecutor executor = new CommandLineExecutor("git");
+		executor.setWorkingDirectory(dir);
+		pool = new CatFilePool(executor, 1);
+	}
+	
+	@After
+	public void tearDown() {
+		pool.close();
+	}
+	
+	@Test
+	public void infoParsesHeader() throws Exception {
+		CatFilePool.ObjectInfo info = pool.info("HEAD:a b.txt");
+		
+		assertEquals(blobWithSpacesId, info.getId());
+		assertEquals("blob", info.getType());
+		assertEquals(12, info.getSize());
+		assertEquals("commit", pool.info("HEAD").getType());
+		assertEquals("tree", pool.info("HEAD^{tree}").getType());
+	}
+	
+	@Test
+	public void infoReturnsNullForMissingObjects() throws Exception {
+		// The name of a missing object is echoed in the response, spaces included
+		assertNull(pool.info("HEAD:no such file"));
+		assertNull(pool.info("0000000000000000000000000000000000000000"));
+		assertEquals("blob", pool.info("HEAD:small.txt").getType());
+	}
+	
+	@Test
+	public void openReadsContent() throws Exception {
+		try(InputStream in = pool.open("HEAD:big.bin", "blob")) {
+			assertArrayEquals(big, readAll(in));
+		}
+		assertEquals("with spaces\n", read("HEAD:a b.txt"));
+	}
+	
+	@Test
+	public void openReturnsNullForOtherTypes() throws Exception {
+		assertNull(pool.open("HEAD", "blob"));
+		assertNull(pool.open("HEAD:missing", "blob"));
+		assertEquals("0123456789\n", read("HEAD:small.txt"));
+	}
+	
+	@Test
+	public void closingEarlyKeepsPoolUsable() throws Exception {
+		// Small rest: skipped, and the process is reused
+		try(InputStream in = pool.open("HEAD:small.txt", "blob")) {
+			assertEquals('0', in.read());
+		}
+		assertEquals("with spaces\n", read("HEAD:a b.txt"));
+		
+		// Big rest: the process is stopped instead, and a new one is started
+		try(InputStream in = pool.open("HEAD:big.bin", "blob")) {
+			assertEquals(big[0], (byte) in.read());
+		}
+		assertEquals("0123456789\n", read("HEAD:small.txt"));
+	}
+	
+	@Test(expected = GitClientException.class)
+	public void rejectsNamesWithNewLines() throws Exception {
+		pool.info("HEAD\nHEAD");
+	}
+	
+	private String read(String object) throws Exception {
+		try(InputStream in = pool.open(object, "blob")) {
+			return new String(readAll(in), StandardCharsets.UTF_8);
+		}
+	}
+	
+	private static byte[] readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,79 @@
+package com.mmoscovich.git.client.cmd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the parsing of the progress lines git prints on the error stream.
+ *
+ * @author Martin Moscovich
+ *
+ */
+public class ProgressConsumerTest {
+	
+	@Test
+	public void notifiesProgressLines() {
+		List<String> events = new ArrayList<String>();
+		ProgressConsumer consumer = new ProgressConsumer((task, completed, total) -> events.add(task + " " + completed + "/" + total));
+		
+		consumer.consumeLine("remote: Counting objects:  50% (5/10)");
+		consumer.consumeLine("Receiving objects:  45% (450/1000)");
+		consumer.consumeLine("Resolving deltas: 100% (3/3), done.");
+		consumer.consumeLine("From file:///tmp/remote.git");
+		
+		assertEquals(3, events.size());
+		assertEquals("Counting objects 5/10", events.get(0));
+		assertEquals("Receiving objects 450/1000", events.get(1));
+		assertEquals("Resolving deltas 3/3", events.get(2));
+	}
+	
+	@Test
+	public void keepsObjectsAndBytesReceived() {
+		ProgressConsumer consumer = new ProgressConsumer(null);
+		
+		consumer.consumeLine("Receiving objects:  45% (450/1000), 512.00 KiB | 1.00 MiB/s");
+		consumer.consumeLine("Receiving objects: 100% (1000/1000), 1.50 MiB | 1.00 MiB/s, done.");
+		
+		assertEquals(1000, consumer.getObjectsReceived());
+		assertEquals((long) (1.5 * 1024 * 1024), consumer.getBytesReceived());
+	}
+	
+	@Test
+	public void parsesEverySizeUnit() {
+		assertEquals(12, bytes("12 bytes"));
+		assertEquals(1, bytes("1 byte"));
+		assertEquals(2048, bytes("2.00 KiB"));
+		assertEquals(3L * 1024 * 1024 * 1024, bytes("3.00 GiB"));
+	}
+	
+	@Test
+	public void usesRemoteTotalWhenThereIsNoProgress() {
+		ProgressConsumer consumer = new ProgressConsumer(null);
+		
+		consumer.consumeLine("remote: Total 3 (delta 0), reused 0 (delta 0), pack-reused 0");
+		
+		assertEquals(3, consumer.getObjectsReceived());
+		assertEquals(0, consumer.getBytesReceived());
+	}
+	
+	@Test
+	public void countsUnpackedObjects() {
+		ProgressConsumer consumer = new ProgressConsumer(null);
+		
+		// Small fetches are unpacked as loose objects, and older git versions print no size for them
+		consumer.consumeLine("Unpacking objects: 100% (7/7), done.");
+		
+		assertEquals(7, consumer.getObjectsReceived());
+		assertEquals(0, consumer.getBytesReceived());
+	}
+	
+	private static long bytes(String size) {
+		ProgressConsumer consumer = new ProgressConsumer(null);
+		consumer.consumeLine("Receiving objects: 100% (1/1), " + size + " | 1.00 KiB/s, done.");
+		return consumer.getBytesReceived();
+	}
+}
@@ -0,0 +1,122 @@
+package com.mmoscovich.git.client.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.mmoscovich.git.client.model.AheadBehind;
+
+/**
+ * Tests the counter by walking random histories (commits are numbers, parents have lower numbers)
+ * and comparing the counts with reachable sets computed by brute force.
+ *
+ * @author Martin Moscovich
+ *
+ */
+public class AheadBehindCounterTest {
+	
+	@Test
+	public void countsSingleBranch() {
+		// 0 - 1 - 2 - 3 (base)
+		//      \
+		//       4 - 5 (branch)
+		int[][] parents = {{}, {0}, {1}, {2}, {1}, {4}};
+		AheadBehindCounter counter = walk(parents, 3, new int[] {5}, true);
+		
+		assertEquals(new AheadBehind(2, 2), counter.get(0));
+	}
+	
+	@Test
+	public void countsBranchesEqualToBase() {
+		int[][] parents = {{}, {0}, {1}};
+		AheadBehindCounter counter = walk(parents, 2, new int[] {2, 1}, true);
+		
+		assertEquals(new AheadBehind(0, 0), counter.get(0));
+		assertEquals(new AheadBehind(0, 1), counter.get(1));
+	}
+	
+	@Test
+	public void matchesBruteForceWithManyBranches() {
+		// More than 64 branches, so the colours take several words
+		Random random = new Random(7);
+		for(int branches : new int[] {1, 3, 63, 64, 130}) {
+			int[][] parents = randomHistory(random, 400);
+			List<BitSet> ancestors = ancestors(parents);
+			int base = random.nextInt(parents.length);
+			int[] tips = new int[branches];
+			for(int b = 0; b < branches; b++) tips[b] = random.nextInt(parents.length);
+			
+			// Stopping early must give the same counts as walking the whole history
+			for(boolean stopWhenDone : new boolean[] {true, false}) {
+				AheadBehindCounter counter = walk(parents, base, tips, stopWhenDone);
+				for(int b = 0; b < branches; b++) {
+					BitSet ahead = (BitSet) ancestors.get(tips[b]).clone();
+					ahead.andNot(ancestors.get(base));
+					BitSet behind = (BitSet) ancestors.get(base).clone();
+					behind.andNot(ancestors.get(tips[b]));
+					assertEquals(branches + " branches, branch " + b, new AheadBehind(ahead.cardinality(), behind.cardinality()), counter.get(b));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void isDoneWhenOnlyCommonHistoryIsLeft() {
+		// The branch is at the base, so its whole history is common
+		AheadBehindCounter counter = new AheadBehindCounter(1);
+		long[] colors = counter.start(null, counter.getBaseBit());
+		counter.start(colors, 0);
+		
+		assertTrue(counter.isDone());
+		assertEquals(new AheadBehind(0, 0), counter.get(0));
+	}
+	
+	/**
+	 * Walks the history from the newest commit to the oldest one, so children are visited before their parents
+	 */
+	private static AheadBehindCounter walk(int[][] parents, int base, int[] tips, boolean stopWhenDone) {
+		AheadBehindCounter counter = new AheadBehindCounter(tips.length);
+		long[][] colors = new long[parents.length][];
+		colors[base] = counter.start(colors[base], counter.getBaseBit());
+		for(int b = 0; b < tips.length; b++) colors[tips[b]] = counter.start(colors[tips[b]], b);
+		
+		for(int commit = parents.length - 1; commit >= 0; commit--) {
+			if(stopWhenDone && counter.isDone()) break;
+			if(colors[commit] == null) continue;
+			for(int parent : parents[commit]) colors[parent] = counter.propagate(colors[commit], colors[parent]);
+			counter.count(colors[commit]);
+		}
+		return counter;
+	}
+	
+	private static int[][] randomHistory(Random random, int size) {
+		int[][] parents = new int[size][];
+		for(int i = 0; i < size; i++) {
+			if(i == 0 || random.nextInt(40) == 0) {
+				parents[i] = new int[0];
+			} else if(i > 1 && random.nextInt(5) == 0) {
+				parents[i] = new int[] {i - 1, random.nextInt(i - 1)};
+			} else {
+				parents[i] = new int[] {i - 1 - random.nextInt(Math.min(i, 8))};
+			}
+		}
+		return parents;
+	}
+	
+	private static List<BitSet> ancestors(int[][] parents) {
+		List<BitSet> ancestors = new ArrayList<BitSet>();
+		for(int i = 0; i < parents.length; i++) {
+			BitSet reachable = new BitSet();
+			reachable.set(i);
+			for(int parent : parents[i]) reachable.or(ancestors.get(parent));
+			ancestors.add(reachable);
+		}
+		return ancestors;
+	}
+}
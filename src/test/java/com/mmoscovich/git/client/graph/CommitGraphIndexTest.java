@@ -0,0 +1,245 @@
+package com.mmoscovich.git.client.graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mmoscovich.git.client.model.AheadBehind;
+
+/**
+ * Tests the reachability queries of the index on commits created in memory.
+ *
+ * @author Martin Moscovich
+ *
+ */
+public class CommitGraphIndexTest {
+	private static final PersonIdent AUTHOR = new PersonIdent("Test", "test@example.com", 0, 0);
+	
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+	
+	private InMemoryRepository repo;
+	private ObjectInserter inserter;
+	private ObjectReader reader;
+	private ObjectId emptyTree;
+	private int commits;
+	
+	/**
+	 * <pre>
+	 * a - b - c - d ------- m
+	 *      \               /
+	 *       e ----------- f        x (unrelated root)
+	 * </pre>
+	 */
+	private ObjectId a, b, c, d, e, f, m, x;
+	
+	@Before
+	public void setUp() throws Exception {
+		repo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		inserter = repo.newObjectInserter();
+		reader = repo.newObjectReader();
+		emptyTree = inserter.insert(new TreeFormatter());
+		
+		a = commit();
+		b = commit(a);
+		c = commit(b);
+		d = commit(c);
+		e = commit(b);
+		f = commit(e);
+		m = commit(d, f);
+		x = commit();
+	}
+	
+	@After
+	public void tearDown() {
+		reader.close();
+		inserter.close();
+		repo.close();
+	}
+	
+	@Test
+	public void indexesMissingAncestorsFirst() throws Exception {
+		CommitGraphIndex index = newIndex();
+		
+		int pos = index.add(reader, m);
+		
+		assertEquals(7, index.size());
+		assertEquals(5, index.getGeneration(pos));
+		assertEquals(1, index.getGeneration(index.find(a)));
+		assertArrayEquals(new int[] {index.find(d), index.find(f)}, index.getParents(pos));
+		assertTrue(index.find(d) < pos && index.find(f) < pos);
+		assertEquals(-1, index.find(x));
+		assertEquals(m, index.getId(pos));
+	}
+	
+	@Test
+	public void isAncestor() throws Exception {
+		CommitGraphIndex index = newIndex();
+		
+		assertTrue(index.isAncestor(reader, a, d));
+		assertTrue(index.isAncestor(reader, d, d));
+		assertTrue(index.isAncestor(reader, b, f));
+		assertTrue(index.isAncestor(reader, f, m));
+		assertTrue(index.isAncestor(reader, c, m));
+		assertFalse(index.isAncestor(reader, d, a));
+		assertFalse(index.isAncestor(reader, c, f));
+		assertFalse(index.isAncestor(reader, x, m));
+	}
+	
+	@Test
+	public void mergeBase() throws Exception {
+		CommitGraphIndex index = newIndex();
+		
+		assertEquals(b, index.mergeBase(reader, d, f));
+		assertEquals(f, index.mergeBase(reader, m, f));
+		assertEquals(d, index.mergeBase(reader, d, d));
+		assertNull(index.mergeBase(reader, d, x));
+	}
+	
+	@Test
+	public void aheadBehind() throws Exception {
+		CommitGraphIndex index = newIndex();
+		
+		assertArrayEquals(new int[] {2, 2}, index.aheadBehind(reader, d, f));
+		assertArrayEquals(new int[] {3, 0}, index.aheadBehind(reader, m, d));
+		assertArrayEquals(new int[] {0, 0}, index.aheadBehind(reader, d, d));
+		assertArrayEquals(new int[] {1, 4}, index.aheadBehind(reader, x, d));
+	}
+	
+	@Test
+	public void aheadBehindAll() throws Exception {
+		CommitGraphIndex index = newIndex();
+		AheadBehindCounter counter = new AheadBehindCounter(4);
+		
+		index.aheadBehindAll(reader, d, Arrays.asList(f, m, a, d), counter);
+		
+		assertEquals(new AheadBehind(2, 2), counter.get(0));
+		assertEquals(new AheadBehind(3, 0), counter.get(1));
+		assertEquals(new AheadBehind(0, 3), counter.get(2));
+		assertEquals(new AheadBehind(0, 0), counter.get(3));
+	}
+	
+	@Test
+	public void matchesBruteForceOnRandomHistory() throws Exception {
+		Random random = new Random(42);
+		List<ObjectId> ids = new ArrayList<ObjectId>();
+		List<BitSet> ancestors = new ArrayList<BitSet>();
+		for(int i = 0; i < 300; i++) {
+			// Mostly linear, with some merges and a few new roots
+			List<Integer> parents = new ArrayList<Integer>();
+			if(i > 0 && random.nextInt(50) != 0) parents.add(i - 1 - random.nextInt(Math.min(i, 10)));
+			if(i > 1 && random.nextInt(5) == 0) parents.add(random.nextInt(i));
+			
+			BitSet reachable = new BitSet();
+			reachable.set(i);
+			ObjectId[] parentIds = new ObjectId[parents.size()];
+			for(int p = 0; p < parentIds.length; p++) {
+				parentIds[p] = ids.get(parents.get(p));
+				reachable.or(ancestors.get(parents.get(p)));
+			}
+			ids.add(commit(parentIds));
+			ancestors.add(reachable);
+		}
+		
+		CommitGraphIndex index = newIndex();
+		for(int n = 0; n < 500; n++) {
+			int i = random.nextInt(ids.size());
+			int j = random.nextInt(ids.size());
+			assertEquals(ancestors.get(j).get(i), index.isAncestor(reader, ids.get(i), ids.get(j)));
+			
+			BitSet ahead = (BitSet) ancestors.get(i).clone();
+			ahead.andNot(ancestors.get(j));
+			BitSet behind = (BitSet) ancestors.get(j).clone();
+			behind.andNot(ancestors.get(i));
+			assertArrayEquals(new int[] {ahead.cardinality(), behind.cardinality()}, index.aheadBehind(reader, ids.get(i), ids.get(j)));
+			
+			ObjectId base = index.mergeBase(reader, ids.get(i), ids.get(j));
+			BitSet common = (BitSet) ancestors.get(i).clone();
+			common.and(ancestors.get(j));
+			if(common.isEmpty()) {
+				assertNull(base);
+			} else {
+				// A best common ancestor is not an ancestor of another common one
+				int basePos = ids.indexOf(base);
+				assertTrue(common.get(basePos));
+				for(int k = common.nextSetBit(0); k >= 0; k = common.nextSetBit(k + 1)) {
+					assertFalse(k != basePos && ancestors.get(k).get(basePos));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void savesAndLoads() throws Exception {
+		File file = new File(tmp.getRoot(), "graph/commit-graph-index");
+		CommitGraphIndex index = CommitGraphIndex.load(file);
+		index.add(reader, m);
+		index.save();
+		
+		CommitGraphIndex loaded = CommitGraphIndex.load(file);
+		
+		assertEquals(index.size(), loaded.size());
+		for(ObjectId id : new ObjectId[] {a, b, c, d, e, f, m}) {
+			int pos = index.find(id);
+			assertEquals(pos, loaded.find(id));
+			assertEquals(index.getGeneration(pos), loaded.getGeneration(pos));
+			assertArrayEquals(index.getParents(pos), loaded.getParents(pos));
+		}
+		assertArrayEquals(new int[] {2, 2}, loaded.aheadBehind(reader, d, f));
+	}
+	
+	@Test
+	public void ignoresInvalidFile() throws Exception {
+		File file = tmp.newFile("commit-graph-index");
+		Files.write(file.toPath(), "not an index".getBytes(StandardCharsets.UTF_8));
+		
+		CommitGraphIndex index = CommitGraphIndex.load(file);
+		
+		assertEquals(0, index.size());
+		assertTrue(index.isAncestor(reader, a, d));
+	}
+	
+	private CommitGraphIndex newIndex() {
+		return CommitGraphIndex.load(new File(tmp.getRoot(), "missing"));
+	}
+	
+	/**
+	 * Creates a commit with the empty tree (each one with a different message, so they get different ids)
+	 */
+	private ObjectId commit(ObjectId... parents) throws Exception {
+		CommitBuilder builder = new CommitBuilder();
+		builder.setTreeId(emptyTree);
+		builder.setParentIds(parents);
+		builder.setAuthor(AUTHOR);
+		builder.setCommitter(AUTHOR);
+		builder.setMessage("Commit " + commits++);
+		ObjectId id = inserter.insert(builder);
+		inserter.flush();
+		return id;
+	}
+}